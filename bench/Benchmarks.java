@@ -0,0 +1,96 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Timing and clean up shared by the benchmarks. Each benchmark is a program of
+ * its own in this folder, compiled together with the program's sources:
+ * <pre>
+ * javac -encoding UTF-8 -d out/bench src/*.java bench/*.java
+ * java -cp out/bench SuiteBenchmark 100000
+ * </pre>
+ *
+ * @author Calum Gilchrist
+ */
+final class Benchmarks {
+    // Results are added to this so the JIT can't remove the work being timed
+    static volatile long sink;
+
+    private Benchmarks(){
+    }
+
+    /**
+     * Something to be timed, which may read or write files.
+     */
+    interface Task {
+        void run() throws IOException;
+    }
+
+    /**
+     * Runs a task a couple of times to warm up, then times it and counts the bytes
+     * allocated by all threads while it runs.
+     *
+     * @param name name shown in the results
+     * @param operations how many operations one run of the task does
+     * @param runs number of timed runs
+     */
+    static void measure(String name, int operations, int runs, Task task) throws IOException {
+        for (int i = 0; i < 2; i++){
+            task.run();
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long allocatedBefore = allocated(threads);
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++){
+            task.run();
+        }
+        long time = System.nanoTime() - start;
+        long allocated = allocated(threads) - allocatedBefore;
+        double total = (double) operations * runs;
+        System.out.printf("%-30s %14.1f %14.1f%n", name, time / total, allocated / total);
+    }
+
+    // Total bytes allocated by every live thread
+    private static long allocated(com.sun.management.ThreadMXBean threads){
+        long total = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())){
+            if (bytes > 0){
+                total += bytes;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @return the heap in use once garbage has been collected, collected a few times for it to settle
+     */
+    static long usedHeap(){
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++){
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    /**
+     * Parses the argument at a position, or gives the default if there aren't that many.
+     */
+    static int intArg(String[] args, int index, int defaultValue){
+        return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+    }
+
+    /**
+     * Deletes a folder the benchmark made and the files in it.
+     */
+    static void delete(Path directory) throws IOException {
+        try (var files = Files.list(directory)) {
+            for (Path created : (Iterable<Path>) files::iterator){
+                Files.delete(created);
+            }
+        }
+        Files.delete(directory);
+    }
+}
@@ -0,0 +1,105 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Saves each change straight away as the menu used to, then through the group
+ * committer, from one thread and from several waiting for their changes like the
+ * server does.
+ * <p>
+ * Usage: java CommitBenchmark [changes]
+ *
+ * @author Calum Gilchrist
+ */
+public class CommitBenchmark {
+    public static void main(String[] args) throws IOException {
+        commit(Benchmarks.intArg(args, 0, 5_000));
+    }
+
+    /**
+     * Measures how long the person at the menu waits for a change to be saved, and how
+     * many writes to the store it takes, saving each change straight away as the menu
+     * used to and then through a {@link GroupCommitter}. Then the same with several
+     * threads that each wait for their change to be saved, as the server's requests do.
+     */
+    private static void commit(int count) throws IOException {
+        Path directory = Files.createTempDirectory("poisedCommit");
+        Path file = directory.resolve("projects.txt");
+        try {
+            ProjectDataGenerator.generate(10_000, file, 42);
+            ProjectStore store = new TextProjectStore(file);
+            ChangeSet changes = new ChangeSet();
+            ProjectRepository projects = new ProjectRepository(changes);
+            store.load(new PersonRegistry(changes, projects), projects);
+            List<Project> folio = projects.all();
+            System.out.printf("%,d changes to a folio of %,d projects%n", count, folio.size());
+            System.out.printf("%-28s %10s %10s %10s %12s %12s%n", "", "p50 us", "p99 us", "max us",
+                    "changes/s", "writes/s");
+            for (int round = 0; round < 2; round++){
+                // The first round warms up, only the second is reported
+                boolean report = round == 1;
+                commitRun("menu, saved straight away", null, store, changes, folio, 1, count, report);
+                try (GroupCommitter committer = new GroupCommitter(store, changes)) {
+                    commitRun("menu, group commit", committer, store, changes, folio, 1, count, report);
+                }
+                commitRun("8 waiting, straight away", null, store, changes, folio, 8, count, report);
+                try (GroupCommitter committer = new GroupCommitter(store, changes)) {
+                    commitRun("8 waiting, group commit", committer, store, changes, folio, 8, count, report);
+                }
+            }
+            store.close();
+        } finally {
+            Benchmarks.delete(directory);
+        }
+    }
+
+    // Makes payments from the threads, saving after each, and reports the wait and the writes to the store
+    private static void commitRun(String name, GroupCommitter committer, ProjectStore store, ChangeSet changes,
+                                  List<Project> folio, int threads, int count, boolean report){
+        LatencyHistogram waits = new LatencyHistogram(name);
+        long writesBefore = Metrics.SAVE.count();
+        AtomicInteger remaining = new AtomicInteger(count);
+        Thread[] workers = new Thread[threads];
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++){
+            Random random = new Random(t);
+            workers[t] = new Thread(() -> {
+                while (remaining.getAndDecrement() > 0){
+                    folio.get(random.nextInt(folio.size())).getLedger().record(100);
+                    long asked = System.nanoTime();
+                    if (committer == null){
+                        GroupCommitter.save(store, changes);
+                    }
+                    else if (threads == 1){
+                        // The menu carries on as soon as the change is queued
+                        committer.commit();
+                    }
+                    else {
+                        committer.commit().join();
+                    }
+                    waits.recordSince(asked);
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers){
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (committer != null){
+            committer.flush();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long writes = Metrics.SAVE.count() - writesBefore;
+        if (report){
+            System.out.printf("%-28s %10.1f %10.1f %10.1f %12.0f %12.0f%n", name, waits.percentile(0.5) / 1e3,
+                    waits.percentile(0.99) / 1e3, waits.max() / 1e3, count / seconds, writes / seconds);
+        }
+    }
+}
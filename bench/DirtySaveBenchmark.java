@@ -0,0 +1,58 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Times saving a single changed field against rewriting the whole projects file,
+ * for folios of 1,000 projects up to the size given.
+ * <p>
+ * Usage: java DirtySaveBenchmark [number of projects]
+ *
+ * @author Calum Gilchrist
+ */
+public class DirtySaveBenchmark {
+    public static void main(String[] args) throws IOException {
+        dirty(Benchmarks.intArg(args, 0, 1_000_000));
+    }
+
+    /**
+     * Loads folios of 1,000, 10,000... projects into the text file store, changes the ERF
+     * number of one project and saves the changes. Reports how many records were written
+     * to the journal and how long that took, next to the time to rewrite the whole file.
+     *
+     * @param maxCount size of the largest folio
+     */
+    private static void dirty(int maxCount) throws IOException {
+        Path directory = Files.createTempDirectory("poisedDirty");
+        try {
+            for (int count = 1000; count <= maxCount; count *= 10){
+                Path file = directory.resolve("projects.txt");
+                Path journal = directory.resolve("projects.txt.journal");
+                ProjectDataGenerator.generate(count, file, 42);
+                ChangeSet changes = new ChangeSet();
+                PersonRegistry people = new PersonRegistry(changes);
+                ProjectRepository repository = new ProjectRepository(changes);
+                TextProjectStore store = new TextProjectStore(file);
+                store.load(people, repository);
+
+                repository.find(count / 2).setErfNumber(1);
+                long start = System.nanoTime();
+                store.save(changes.drainPeople(), changes.drainProjects());
+                long saveTime = System.nanoTime() - start;
+                store.close();
+                int records = Files.readAllLines(journal).size();
+
+                start = System.nanoTime();
+                ProjectSnapshot.exportText(people.all(), repository.all(), directory.resolve("rewrite.txt"));
+                long rewriteTime = System.nanoTime() - start;
+                System.out.printf("%,10d projects: %d record(s) written in %.3f ms, rewriting the file takes %.1f ms%n",
+                        count, records, saveTime / 1e6, rewriteTime / 1e6);
+                Files.delete(journal);
+                Files.delete(directory.resolve("rewrite.txt"));
+            }
+        } finally {
+            Files.deleteIfExists(directory.resolve("projects.txt"));
+            Files.deleteIfExists(directory);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves a generated folio on localhost and sends it a mix of lookups, payments and
+ * overdue listings, reporting latency percentiles and throughput.
+ * <p>
+ * Usage: java HttpBenchmark [clients] [requests] [number of projects]
+ *
+ * @author Calum Gilchrist
+ */
+public class HttpBenchmark {
+    // Requests sent to warm up the server before it is timed
+    private static final int HTTP_WARMUP = 5_000;
+
+    public static void main(String[] args) throws IOException {
+        http(Benchmarks.intArg(args, 0, 16), Benchmarks.intArg(args, 1, 50_000), Benchmarks.intArg(args, 2, 10_000));
+    }
+
+    /**
+     * Serves a generated folio and has a number of client threads send it requests:
+     * mostly lookups, some payments (which are saved before the reply) and some
+     * pages of overdue projects. Reports the latency percentiles of each kind and
+     * the requests per second.
+     */
+    private static void http(int clients, int requests, int count) throws IOException {
+        Path directory = Files.createTempDirectory("poisedHttp");
+        Path file = directory.resolve("projects.txt");
+        ProjectDataGenerator.generate(count, file, 42);
+        PoisedProgram.store = new TextProjectStore(file);
+        PoisedProgram.store.load(PoisedProgram.people, PoisedProgram.projects);
+        PoisedProgram.committer = new GroupCommitter(PoisedProgram.store, PoisedProgram.changes);
+        ProjectServer server = new ProjectServer(0);
+        String base = "http://localhost:" + server.getPort() + "/projects";
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        System.out.printf("%,d projects, %d clients, %,d requests%n", count, clients, requests);
+        try {
+            String[] kinds = {"lookup", "payment", "overdue page"};
+            sendRequests(client, base, clients, HTTP_WARMUP, count, new LatencyHistogram[kinds.length]);
+            LatencyHistogram[] latencies = new LatencyHistogram[kinds.length];
+            for (int i = 0; i < kinds.length; i++){
+                latencies[i] = new LatencyHistogram(kinds[i]);
+            }
+            long start = System.nanoTime();
+            int failed = sendRequests(client, base, clients, requests, count, latencies);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%-14s %9s %10s %10s %10s %10s%n", "request", "count", "p50 us", "p99 us", "p99.9 us", "max us");
+            for (LatencyHistogram latency : latencies){
+                System.out.printf("%-14s %9d %10.0f %10.0f %10.0f %10.0f%n", latency.getName(), latency.count(),
+                        latency.percentile(0.5) / 1e3, latency.percentile(0.99) / 1e3,
+                        latency.percentile(0.999) / 1e3, latency.max() / 1e3);
+            }
+            System.out.printf("%,.0f requests per second, %d failed%n", requests / seconds, failed);
+        } finally {
+            server.stop();
+            PoisedProgram.committer.close();
+            PoisedProgram.store.close();
+            Benchmarks.delete(directory);
+        }
+    }
+
+    // Sends the requests split between the client threads, returning how many failed
+    private static int sendRequests(HttpClient client, String base, int clients, int requests, int count,
+                                    LatencyHistogram[] latencies){
+        AtomicInteger remaining = new AtomicInteger(requests);
+        AtomicInteger failed = new AtomicInteger();
+        Thread[] threads = new Thread[clients];
+        for (int t = 0; t < clients; t++){
+            Random random = new Random(t);
+            threads[t] = new Thread(() -> {
+                while (remaining.getAndDecrement() > 0){
+                    int roll = random.nextInt(100);
+                    // 80% lookups, 15% payments and 5% pages of overdue projects
+                    int kind = roll < 80 ? 0 : roll < 95 ? 1 : 2;
+                    String job = base + "/" + (1 + random.nextInt(count));
+                    HttpRequest request = switch (kind) {
+                        case 0 -> HttpRequest.newBuilder(URI.create(job)).build();
+                        case 1 -> HttpRequest.newBuilder(URI.create(job + "/payments"))
+                                .POST(HttpRequest.BodyPublishers.ofString("{\"amount\":1.00}")).build();
+                        default -> HttpRequest.newBuilder(URI.create(base + "/overdue?sort=deadline&size=20")).build();
+                    };
+                    long start = System.nanoTime();
+                    try {
+                        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+                        if (response.statusCode() != 200){
+                            failed.incrementAndGet();
+                        }
+                    } catch (IOException e) {
+                        failed.incrementAndGet();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    if (latencies[kind] != null){
+                        latencies[kind].recordSince(start);
+                    }
+                }
+            }, "http-client-" + t);
+            threads[t].start();
+        }
+        for (Thread thread : threads){
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return failed.get();
+    }
+}
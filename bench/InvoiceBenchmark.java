@@ -0,0 +1,69 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Times writing the invoice of every project in a folio with a FileWriter each, on
+ * the invoice pool and into one archive file.
+ * <p>
+ * Usage: java InvoiceBenchmark [number of projects]
+ *
+ * @author Calum Gilchrist
+ */
+public class InvoiceBenchmark {
+    public static void main(String[] args) throws IOException {
+        finalise(Benchmarks.intArg(args, 0, 10_000));
+    }
+
+    /**
+     * Compares writing the invoices for a whole folio a file at a time with a FileWriter each, as
+     * finalising one project used to, with the invoice pool and with a single archive file.
+     * Each way writes into a new folder so none of them pays for clearing up after another.
+     */
+    private static void finalise(int count) throws IOException {
+        Path directory = Files.createTempDirectory("poisedFinalise");
+        Path file = directory.resolve("projects.txt");
+        try {
+            ProjectDataGenerator.generate(count, file, 42);
+            List<Project> folio = ProjectFileLoader.load(file, new PersonRegistry());
+            LocalDate today = LocalDate.now();
+            System.out.printf("Invoices for %,d projects%n", count);
+
+            Path writers = Files.createDirectory(directory.resolve("writers"));
+            long start = System.nanoTime();
+            for (Project project : folio){
+                try (BufferedWriter writer = new BufferedWriter(new FileWriter(
+                        writers.resolve(InvoiceWriter.fileName(project)).toFile()))) {
+                    writer.write(project.completedToFile(today));
+                }
+            }
+            report("FileWriter per file", count, System.nanoTime() - start);
+            Benchmarks.delete(writers);
+
+            try (InvoiceWriter invoices = new InvoiceWriter()) {
+                Path pooled = Files.createDirectory(directory.resolve("pooled"));
+                start = System.nanoTime();
+                invoices.writeFiles(folio, today, pooled);
+                report("invoice pool, file each", count, System.nanoTime() - start);
+                Benchmarks.delete(pooled);
+
+                Path archive = directory.resolve("archive.txt");
+                start = System.nanoTime();
+                invoices.writeArchive(folio, today, archive);
+                report("invoice pool, archive", count, System.nanoTime() - start);
+                Files.delete(archive);
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private static void report(String name, int count, long nanos){
+        System.out.printf("%-26s %10.1f ms %12.0f invoices per second%n", name, nanos / 1e6, count / (nanos / 1e9));
+    }
+}
@@ -0,0 +1,89 @@
+import java.util.Random;
+
+/**
+ * Threads record single payments and bank feed batches to a few shared ledgers,
+ * then the ledgers' totals are compared with what the threads paid in.
+ * <p>
+ * Usage: java LedgerBenchmark [threads] [payments per thread]
+ *
+ * @author Calum Gilchrist
+ */
+public class LedgerBenchmark {
+    // Ledgers shared by the threads, and the size of each bank feed batch
+    private static final int LEDGERS = 4;
+    private static final int FEED_BATCH = 64;
+
+    public static void main(String[] args){
+        ledger(Benchmarks.intArg(args, 0, 4), Benchmarks.intArg(args, 1, 1_000_000));
+    }
+
+    /**
+     * Each thread records payments of 1p to 99p to a few shared ledgers, half of them one
+     * at a time and half in bank feed batches, then the ledgers are checked against the
+     * amounts the threads paid in.
+     *
+     * @param threads number of threads recording payments
+     * @param payments number of payments each thread records
+     */
+    private static void ledger(int threads, int payments){
+        PaymentLedger[] ledgers = new PaymentLedger[LEDGERS];
+        for (int i = 0; i < LEDGERS; i++){
+            ledgers[i] = new PaymentLedger(Long.MAX_VALUE / 2, 0);
+        }
+        long[] paidIn = new long[threads];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++){
+            int worker = t;
+            workers[t] = new Thread(() -> {
+                Random random = new Random(worker);
+                long[] batch = new long[FEED_BATCH];
+                int recorded = 0;
+                while (recorded < payments){
+                    PaymentLedger ledger = ledgers[random.nextInt(LEDGERS)];
+                    if (recorded % (2 * FEED_BATCH) < FEED_BATCH){
+                        long pence = 1 + random.nextInt(99);
+                        ledger.record(pence);
+                        paidIn[worker] += pence;
+                        recorded++;
+                    }
+                    else {
+                        int count = Math.min(FEED_BATCH, payments - recorded);
+                        for (int i = 0; i < count; i++){
+                            batch[i] = 1 + random.nextInt(99);
+                            paidIn[worker] += batch[i];
+                        }
+                        ledger.recordAll(batch, 0, count);
+                        recorded += count;
+                    }
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread worker : workers){
+            worker.start();
+        }
+        try {
+            for (Thread worker : workers){
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long expected = 0;
+        for (long pence : paidIn){
+            expected += pence;
+        }
+        long paid = 0;
+        long entries = 0;
+        for (PaymentLedger ledger : ledgers){
+            paid += ledger.paid();
+            entries += ledger.history().size();
+        }
+        System.out.printf("%d threads recorded %,d payments in %.2f s (%,.0f payments/s)%n", threads,
+                (long) threads * payments, seconds, threads * (double) payments / seconds);
+        // Only the most recent payments of each ledger are kept
+        System.out.printf("Pence paid in %,d, ledger totals %,d, entries kept %,d%n", expected, paid, entries);
+    }
+}
@@ -0,0 +1,67 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares loading a projects file the way the program originally did, a line at a
+ * time through a BufferedReader, with the memory mapped parallel loader.
+ * <p>
+ * Usage: java LoadBenchmark [projects file] [runs]
+ *
+ * @author Calum Gilchrist
+ */
+public class LoadBenchmark {
+    public static void main(String[] args) throws IOException {
+        load(args.length > 0 ? args[0] : "poisedProjects.txt", Benchmarks.intArg(args, 1, 10));
+    }
+
+    /**
+     * Compares the original line by line reader with the memory mapped parallel loader.
+     */
+    private static void load(String file, int runs) throws IOException {
+        // A few runs first so both paths are compiled before they are timed
+        for (int i = 0; i < 3; i++){
+            readerLoad(file);
+            ProjectFileLoader.load(Paths.get(file), new PersonRegistry());
+        }
+        long readerTime = 0;
+        long mappedTime = 0;
+        int projects = 0;
+        for (int i = 0; i < runs; i++){
+            long start = System.nanoTime();
+            projects = readerLoad(file).size();
+            readerTime += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            ProjectFileLoader.load(Paths.get(file), new PersonRegistry());
+            mappedTime += System.nanoTime() - start;
+        }
+        System.out.println("Projects loaded:      " + projects);
+        System.out.printf("BufferedReader load:  %.2f ms%n", readerTime / runs / 1e6);
+        System.out.printf("Mapped parallel load: %.2f ms%n", mappedTime / runs / 1e6);
+    }
+
+    /**
+     * Loads the file the way readFromFile originally did, one line at a time
+     * through a BufferedReader and String.split.
+     */
+    static List<Project> readerLoad(String file) throws IOException {
+        List<Project> projects = new ArrayList<>();
+        PoisedProgram.people = new PersonRegistry();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null){
+                if (ProjectJournal.isPerson(line)){
+                    PoisedProgram.people.put(PoisedProgram.parsePerson(line));
+                }
+                else {
+                    projects.add(PoisedProgram.parseProject(line));
+                }
+            }
+        }
+        return projects;
+    }
+}
@@ -0,0 +1,97 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times opening the memory mapped store against loading the projects text file, and
+ * saving a change to each. Recovering from a torn write is checked by
+ * MappedProjectStoreTest in the tests.
+ * <p>
+ * Usage: java MappedStoreBenchmark [number of projects]
+ *
+ * @author Calum Gilchrist
+ */
+public class MappedStoreBenchmark {
+    public static void main(String[] args) throws IOException {
+        mapped(Benchmarks.intArg(args, 0, 100_000));
+    }
+
+    /**
+     * Compares starting up from the memory mapped store with loading the projects text
+     * file, and the time to save a single change to each.
+     */
+    private static void mapped(int count) throws IOException {
+        Path directory = Files.createTempDirectory("poisedMapped");
+        Path text = directory.resolve("projects.txt");
+        Path records = directory.resolve("projects.map");
+        try {
+            ProjectDataGenerator.generate(count, text, 42);
+            System.out.printf("Folio of %,d projects%n", count);
+            long start = System.nanoTime();
+            ProjectStore textStore = new TextProjectStore(text);
+            ProjectRepository fromText = new ProjectRepository();
+            textStore.load(new PersonRegistry(), fromText);
+            System.out.printf("%-30s %10.1f ms%n", "load text file", (System.nanoTime() - start) / 1e6);
+            start = System.nanoTime();
+            MappedProjectStore mappedStore = new MappedProjectStore(records, text);
+            mappedStore.load(new PersonRegistry(), new ProjectRepository());
+            mappedStore.close();
+            System.out.printf("%-30s %10.1f ms%n", "make mapped store", (System.nanoTime() - start) / 1e6);
+            ProjectRepository fromMapped = null;
+            for (int run = 0; run < 3; run++){
+                // The text file is loaded again each time too, so both are timed warm
+                start = System.nanoTime();
+                ProjectStore again = new TextProjectStore(text);
+                again.load(new PersonRegistry(), new ProjectRepository());
+                again.close();
+                long textNanos = System.nanoTime() - start;
+                start = System.nanoTime();
+                mappedStore = new MappedProjectStore(records, null);
+                fromMapped = new ProjectRepository();
+                mappedStore.load(new PersonRegistry(), fromMapped);
+                System.out.printf("run %d: %-23s %10.1f ms, text file %.1f ms%n", run + 1, "open mapped store",
+                        (System.nanoTime() - start) / 1e6, textNanos / 1e6);
+                if (run < 2){
+                    mappedStore.close();
+                }
+            }
+            int different = 0;
+            for (Project project : fromText.all()){
+                Project copy = fromMapped.find(project.getJobNumber());
+                if (copy == null || !copy.toFile().equals(project.toFile())){
+                    different++;
+                }
+            }
+            System.out.printf("%,d projects read back, %d different from the text file%n", fromMapped.size(), different);
+
+            // One change saved at a time, as the menu does after each action
+            Random random = new Random(42);
+            int saves = 2000;
+            for (int round = 0; round < 2; round++){
+                long mappedNanos = 0;
+                long textNanos = 0;
+                for (int i = 0; i < saves; i++){
+                    int job = 1 + random.nextInt(count);
+                    Project project = fromMapped.find(job);
+                    project.getLedger().record(100);
+                    start = System.nanoTime();
+                    mappedStore.save(List.of(), List.of(project));
+                    mappedNanos += System.nanoTime() - start;
+                    start = System.nanoTime();
+                    textStore.save(List.of(), List.of(project));
+                    textNanos += System.nanoTime() - start;
+                }
+                if (round == 1){
+                    System.out.printf("%-30s %10.1f us, text journal %.1f us%n", "save one change",
+                            mappedNanos / 1e3 / saves, textNanos / 1e3 / saves);
+                }
+            }
+            textStore.close();
+            mappedStore.close();
+        } finally {
+            Benchmarks.delete(directory);
+        }
+    }
+}
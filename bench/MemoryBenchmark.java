@@ -0,0 +1,80 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Compares the heap used by a folio as Project objects, in a ProjectRepository and
+ * in a CompactProjectStore, and the time to sum what is owed over each.
+ * <p>
+ * Usage: java MemoryBenchmark [number of projects]
+ *
+ * @author Calum Gilchrist
+ */
+public class MemoryBenchmark {
+    public static void main(String[] args) throws IOException {
+        memory(Benchmarks.intArg(args, 0, 1_000_000));
+    }
+
+    /**
+     * Measures the heap a folio takes as the loaded Project objects, once they are also
+     * in a ProjectRepository with its indexes, and in a CompactProjectStore once the
+     * objects are gone, then times summing what is owed over each. The heap is measured
+     * after collecting garbage, so it is only close on a quiet JVM.
+     */
+    private static void memory(int count) throws IOException {
+        Path file = Files.createTempFile("poisedMemory", ".txt");
+        try {
+            ProjectDataGenerator.generate(count, file, 42);
+            System.out.printf("Folio of %,d projects%n", count);
+            long empty = Benchmarks.usedHeap();
+
+            List<Project> loaded = ProjectFileLoader.load(file, new PersonRegistry());
+            long objects = Benchmarks.usedHeap() - empty;
+            memoryReport("Project objects", objects, count);
+
+            ProjectRepository repository = new ProjectRepository();
+            for (Project project : loaded){
+                repository.add(project);
+            }
+            long indexed = Benchmarks.usedHeap() - empty;
+            memoryReport("ProjectRepository", indexed, count);
+
+            CompactProjectStore store = CompactProjectStore.of(loaded);
+            long both = Benchmarks.usedHeap() - empty;
+            // Keep the same loaded list for the timings, then drop everything but the store
+            long owed = 0;
+            long start = System.nanoTime();
+            for (int run = 0; run < 10; run++){
+                for (Project project : loaded){
+                    owed += project.ledger.fee() - project.ledger.paid();
+                }
+            }
+            System.out.printf("%-26s %10.2f ns per project%n", "sum owed, Project objects",
+                    (System.nanoTime() - start) / (10.0 * count));
+            start = System.nanoTime();
+            for (int run = 0; run < 10; run++){
+                owed -= store.totalOutstanding();
+            }
+            System.out.printf("%-26s %10.2f ns per project%n", "sum owed, compact store",
+                    (System.nanoTime() - start) / (10.0 * count));
+            if (owed != 0){
+                System.out.println("The compact store's total doesn't match the projects'");
+            }
+            Benchmarks.sink += repository.size();
+            repository = null;
+            loaded = null;
+            long compact = Benchmarks.usedHeap() - empty;
+            memoryReport("CompactProjectStore", compact, count);
+            // The store shares the people and addresses with the projects, so this is what its own arrays take
+            memoryReport("  of which arrays, index", both - indexed, count);
+            Benchmarks.sink += store.size();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void memoryReport(String name, long bytes, int count){
+        System.out.printf("%-26s %10d MB %10.1f bytes per project%n", name, bytes >> 20, (double) bytes / count);
+    }
+}
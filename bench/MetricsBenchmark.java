@@ -0,0 +1,70 @@
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+/**
+ * Times recording into a latency histogram, checks its percentiles against exact
+ * ones and reads the metrics back over JMX.
+ * <p>
+ * Usage: java MetricsBenchmark [records]
+ *
+ * @author Calum Gilchrist
+ */
+public class MetricsBenchmark {
+    public static void main(String[] args){
+        metrics(Benchmarks.intArg(args, 0, 10_000_000));
+    }
+
+    /**
+     * Times how long recording a latency takes, checks the histogram's percentiles are
+     * within its 6% of the exact ones and that the metrics can be read back over JMX.
+     */
+    private static void metrics(int records){
+        LatencyHistogram histogram = new LatencyHistogram("benchmark");
+        // Times spread over several powers of two, from under a microsecond to about a second
+        Random random = new Random(42);
+        long[] times = new long[records];
+        for (int i = 0; i < records; i++){
+            times[i] = (long) Math.exp(random.nextDouble() * Math.log(1e9));
+        }
+        for (int run = 0; run < 3; run++){
+            histogram.reset();
+            long start = System.nanoTime();
+            for (long time : times){
+                histogram.record(time);
+            }
+            long nanos = System.nanoTime() - start;
+            System.out.printf("record %,d latencies %10.1f ms %8.1f ns each%n", records, nanos / 1e6, (double) nanos / records);
+        }
+        long[] exact = times.clone();
+        Arrays.sort(exact);
+        for (double fraction : new double[] {0.5, 0.99, 0.999}){
+            long expected = exact[(int) Math.ceil(fraction * records) - 1];
+            long measured = histogram.percentile(fraction);
+            double error = Math.abs(measured - expected) * 100.0 / expected;
+            System.out.printf("p%-5s exact %,14d ns  histogram %,14d ns  %5.2f%% out%n",
+                    fraction * 100, expected, measured, error);
+            if (error > 6.25){
+                System.err.println("Percentile further out than the buckets allow");
+            }
+        }
+
+        Metrics.register();
+        Metrics.LOOKUP.record(1_000);
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("poised:type=Metrics");
+            CompositeData lookup = (CompositeData) ((TabularData) server.getAttribute(name, "Latencies"))
+                    .get(new Object[] {"lookup"}).get("value");
+            System.out.println("JMX lookup count: " + lookup.get("count") + ", p50 " + lookup.get("p50") + " us");
+            System.out.print(server.getAttribute(name, "Report"));
+        } catch (JMException e) {
+            System.err.println("Unable to read the metrics over JMX: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,128 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates a folio and times each of the main operations on it: parsing, saving,
+ * lookups, the overdue, unfinished, name and search queries, reports and
+ * finalising, with the bytes allocated by each.
+ * <p>
+ * Usage: java SuiteBenchmark [number of projects]
+ * <p>
+ * The folio is made by {@link ProjectDataGenerator}, sizes from 1,000 to 10,000,000
+ * projects are useful (the larger ones need a bigger heap, e.g. -Xmx8g).
+ *
+ * @author Calum Gilchrist
+ */
+public class SuiteBenchmark {
+    // Number of random lookups timed in each run of the lookup benchmark
+    private static final int LOOKUPS = 1_000_000;
+
+    /**
+     * Generates a folio and measures each of the main operations on it.
+     */
+    public static void main(String[] args) throws IOException {
+        int count = Benchmarks.intArg(args, 0, 100_000);
+        Path file = Files.createTempFile("poisedBenchmark", ".txt");
+        try {
+            ProjectDataGenerator.generate(count, file, 42);
+            System.out.printf("Folio of %,d projects (%,d bytes)%n", count, Files.size(file));
+            System.out.printf("%-30s %14s %14s%n", "Benchmark", "ns/op", "bytes/op");
+
+            PersonRegistry people = new PersonRegistry();
+            List<Project> loaded = ProjectFileLoader.load(file, people);
+            ProjectRepository repository = new ProjectRepository();
+            for (Project project : loaded){
+                repository.add(project);
+            }
+            LocalDate today = LocalDate.now();
+
+            Benchmarks.measure("parse, mapped loader", count, 3, () ->
+                    Benchmarks.sink += ProjectFileLoader.load(file, new PersonRegistry()).size());
+            Benchmarks.measure("parse, BufferedReader", count, 3, () -> Benchmarks.sink += LoadBenchmark.readerLoad(file.toString()).size());
+            Benchmarks.measure("serialise, toFile", count, 5, () -> {
+                for (Project project : loaded){
+                    Benchmarks.sink += project.toFile().length();
+                }
+            });
+            Writer discard = Writer.nullWriter();
+            // Exporting the text file writes through one reused serializer, the journal encodes each record with one
+            ProjectSerializer serializer = ProjectSerializer.current();
+            Benchmarks.measure("serialise, streamed", count, 5, () -> {
+                for (Project project : loaded){
+                    serializer.writeLine(project, discard);
+                }
+            });
+            Benchmarks.measure("serialise, journal record", count, 5, () -> {
+                for (Project project : loaded){
+                    Benchmarks.sink += serializer.encodeLine(project).remaining();
+                }
+            });
+            Benchmarks.measure("display, toString", count, 5, () -> {
+                for (Project project : loaded){
+                    Benchmarks.sink += project.toString().length();
+                }
+            });
+            // The same few hundred jobs shown over and over, as the listings do, come from the render cache
+            List<Project> hot = loaded.subList(0, Math.min(500, count));
+            Benchmarks.measure("display hot jobs", hot.size(), 200, () -> {
+                for (Project project : hot){
+                    Benchmarks.sink += project.toString().length();
+                }
+            });
+            Random random = new Random(1);
+            int[] jobNumbers = new int[LOOKUPS];
+            for (int i = 0; i < LOOKUPS; i++){
+                jobNumbers[i] = 1 + random.nextInt(count);
+            }
+            Benchmarks.measure("lookup by job number", LOOKUPS, 5, () -> {
+                for (int jobNumber : jobNumbers){
+                    Benchmarks.sink += repository.find(jobNumber).getErfNumber();
+                }
+            });
+            Benchmarks.measure("overdue query", 1, 20, () -> Benchmarks.sink += repository.overdue(today).size());
+            Benchmarks.measure("unfinished query", 1, 20, () -> Benchmarks.sink += repository.unfinished().size());
+            // The name indexes answer these without looking at every project
+            String contractor = loaded.get(0).getContractor().getName();
+            String customer = loaded.get(count / 2).getCustomer().getName();
+            Benchmarks.measure("distinct contractors", 1, 20, () -> Benchmarks.sink += repository.names("Contractor").size());
+            Benchmarks.measure("projects of a contractor", 1, 20, () ->
+                    Benchmarks.sink += repository.withPerson("Contractor", contractor).size());
+            Benchmarks.measure("projects of a customer", 1, 20, () ->
+                    Benchmarks.sink += repository.withPerson("Customer", customer.toUpperCase()).size());
+            // Search looks words up in the sorted dictionary, and through trigrams when there is a typo
+            String street = ProjectSearch.tokens(loaded.get(count / 3).getPhysicalAddress()).get(1);
+            String erfNumber = Integer.toString(loaded.get(count / 3).getErfNumber());
+            String typo = street.substring(1, 2) + street.charAt(0) + street.substring(2);
+            Benchmarks.measure("search street and ERF number", 1, 20, () ->
+                    Benchmarks.sink += repository.searchSlots(street + " " + erfNumber).cardinality());
+            Benchmarks.measure("search with a typo", 1, 20, () ->
+                    Benchmarks.sink += repository.searchSlots(typo + " " + erfNumber).cardinality());
+            // Reports stream straight from the repository, the aggregates go parallel on large folios
+            int unfinishedCount = repository.unfinishedCount();
+            Benchmarks.measure("report unfinished, csv", unfinishedCount, 5, () ->
+                    Benchmarks.sink += new ProjectReport(repository).unfinished().write(ReportFormat.CSV, discard));
+            Benchmarks.measure("report page by deadline", 1, 20, () -> Benchmarks.sink += new ProjectReport(repository)
+                    .overdue(today).sortBy(ProjectReport.BY_DEADLINE).page(0, 20).write(ReportFormat.CONSOLE, discard));
+            Benchmarks.measure("report aggregates", count, 5, () -> {
+                ProjectReport report = new ProjectReport(repository);
+                Benchmarks.sink += report.totalOutstanding() + report.countByContractor().size();
+            });
+            // Finalising is undone after each project so every run finalises the same projects
+            List<Project> unfinished = repository.unfinished();
+            Benchmarks.measure("finalise and render invoice", unfinished.size(), 5, () -> {
+                for (Project project : unfinished){
+                    project.setCompleted(true);
+                    Benchmarks.sink += project.completedToFile(today).length();
+                    project.setCompleted(false);
+                }
+            });
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies a file of commands to the projects without going through the menu,
+ * so large numbers of changes (e.g. payments from the accounts export) can be
+ * loaded in one go.
+ * <p>
+ * Each line is one command, with its fields separated by '|' like the projects file:
+ * <pre>
+ * add|&lt;project line in the full 24 field format, or the 12 field format that refers to saved people by id&gt;
+ * due|&lt;job number&gt;|&lt;dd/mm/yyyy&gt;
+ * pay|&lt;job number&gt;|&lt;amount&gt;
+ * contractor|&lt;name&gt;|&lt;phone number&gt;|&lt;email&gt;|&lt;address&gt;
+ * finalise|&lt;job number&gt;
+ * finaliseall|&lt;paid, or job numbers separated by commas&gt;|&lt;archive file, or blank for a file each&gt;
+ * report|&lt;filters&gt;|&lt;console, csv or json&gt;|&lt;file, or - for the console&gt;
+ * summary|&lt;filters&gt;|&lt;file, or - for the console&gt;
+ * </pre>
+ * Report filters are separated by commas, e.g. overdue,contractor=Bob,type=House,sort=deadline
+ * (see {@link ProjectReport#filters(String)}).
+ * Blank lines and lines starting with '#' are ignored. The commands use the same
+ * logic as the menu actions, but everything that changed is saved once at the
+ * end of the batch rather than after every command.
+ *
+ * @author Calum Gilchrist
+ */
+public class BatchRunner {
+    // Commands applied and commands that failed so far
+    int applied;
+    int failed;
+
+    /**
+     * Runs the commands in a file and reports any errors and the throughput.
+     *
+     * @param file the command file, or "-" to read from standard input
+     */
+    public static void run(String file){
+        BatchRunner batch = new BatchRunner();
+        long start = System.nanoTime();
+        try (Reader in = file.equals("-") ? new InputStreamReader(System.in) : new FileReader(file)) {
+            batch.apply(new BufferedReader(in));
+        } catch (IOException e) {
+            System.err.println("Unable to read batch file " + file);
+        }
+        // Everything the commands changed has been recorded in the change set, and is saved before the time is taken
+        PoisedProgram.saveChangesAndWait();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println("Commands applied: " + batch.applied);
+        System.out.println("Commands failed:  " + batch.failed);
+        System.out.printf("Time taken:       %.3f s (%.0f commands per second)%n", seconds,
+                (batch.applied + batch.failed) / Math.max(seconds, 1e-9));
+    }
+
+    /**
+     * Applies each command read from the reader, reporting any line that fails.
+     */
+    void apply(BufferedReader reader) throws IOException {
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null){
+            lineNumber++;
+            if (line.isBlank() || line.startsWith("#")){
+                continue;
+            }
+            try {
+                applyCommand(line);
+                applied++;
+            } catch (RuntimeException e) {
+                failed++;
+                System.err.println("Line " + lineNumber + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void applyCommand(String line){
+        int split = line.indexOf('|');
+        String command = split < 0 ? line : line.substring(0, split);
+        String[] fields = split < 0 ? new String[0] : line.substring(split + 1).split("\\|", -1);
+        switch (command) {
+            case "add" -> {
+                // Either the full format or the one that refers to people already saved by their id
+                if (fields.length != ProjectFileLoader.LEGACY_FIELD_COUNT
+                        && fields.length != ProjectFileLoader.FIELD_COUNT){
+                    throw new IllegalArgumentException("Expected " + ProjectFileLoader.LEGACY_FIELD_COUNT + " or "
+                            + ProjectFileLoader.FIELD_COUNT + " fields but found " + fields.length);
+                }
+                if (PoisedProgram.getDate(fields[7]) == null){
+                    throw new IllegalArgumentException("Date " + fields[7] + " is not dd/mm/yyyy");
+                }
+                Project newJob = PoisedProgram.parseProject(line.substring(split + 1));
+                if (!PoisedProgram.projects.add(newJob)){
+                    throw new IllegalArgumentException("Project number " + newJob.getJobNumber() + " already exists");
+                }
+                PoisedProgram.changes.projectChanged(newJob);
+            }
+            case "due" -> {
+                expectFields(fields, 2);
+                Project project = project(fields[0]);
+                LocalDate newDueDate = PoisedProgram.getDate(fields[1]);
+                if (newDueDate == null){
+                    throw new IllegalArgumentException("Date " + fields[1] + " is not dd/mm/yyyy");
+                }
+                project.setDeadline(newDueDate);
+            }
+            case "pay" -> {
+                expectFields(fields, 2);
+                Project project = project(fields[0]);
+                double amount = Double.parseDouble(fields[1]);
+                // NaN and Infinity parse, but aren't amounts of money
+                if (!Double.isFinite(amount)){
+                    throw new IllegalArgumentException("Amount " + fields[1] + " is not a number of pounds");
+                }
+                PoisedProgram.addPayment(project, amount);
+            }
+            case "contractor" -> {
+                expectFields(fields, 4);
+                Person contractor = PoisedProgram.updateContractor(fields[0], fields[1], fields[2], fields[3]);
+                if (contractor == null){
+                    throw new IllegalArgumentException("Contractor " + fields[0] + " not found");
+                }
+            }
+            case "finalise" -> {
+                expectFields(fields, 1);
+                Project project = project(fields[0]);
+                // Checked and finalised under the project's lock, like the menu and the server
+                PoisedProgram.projects.update(project.getJobNumber(), finalising -> {
+                    if (finalising.getCompleted()){
+                        throw new IllegalArgumentException("Project number " + fields[0] + " is already finalised");
+                    }
+                    PoisedProgram.finalise(finalising, LocalDate.now());
+                });
+            }
+            case "finaliseall" -> {
+                expectFields(fields, 2);
+                Path archive = fields[1].isBlank() ? null : Path.of(fields[1].trim());
+                List<Project> finalised;
+                if (fields[0].trim().equalsIgnoreCase("paid")){
+                    finalised = PoisedProgram.finaliseAll(PoisedProgram.FULLY_PAID, LocalDate.now(), archive);
+                }
+                else {
+                    List<Integer> jobNumbers = new ArrayList<>();
+                    for (String jobNumber : fields[0].split(",")){
+                        jobNumbers.add(Integer.parseInt(jobNumber.trim()));
+                    }
+                    finalised = PoisedProgram.finaliseAll(jobNumbers, LocalDate.now(), archive);
+                }
+                System.out.println("Projects finalised: " + finalised.size());
+            }
+            case "report" -> {
+                expectFields(fields, 3);
+                ProjectReport report = new ProjectReport(PoisedProgram.projects).filters(fields[0]);
+                ReportFormat format = ReportFormat.of(fields[1]);
+                writeReport(fields[2], out -> report.write(format, out));
+            }
+            case "summary" -> {
+                expectFields(fields, 2);
+                ProjectReport report = new ProjectReport(PoisedProgram.projects).filters(fields[0]);
+                writeReport(fields[1], report::writeSummary);
+            }
+            default -> throw new IllegalArgumentException("Command not recognised: " + command);
+        }
+    }
+
+    // Writes a report to a file, or to the console for "-"
+    private static void writeReport(String file, ReportWriter report){
+        try {
+            if (file.equals("-")){
+                Writer console = new BufferedWriter(new OutputStreamWriter(System.out));
+                report.writeTo(console);
+                console.flush();
+            }
+            else {
+                try (Writer writer = new BufferedWriter(new FileWriter(file))) {
+                    report.writeTo(writer);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to write report to " + file);
+        }
+    }
+
+    private interface ReportWriter {
+        void writeTo(Writer out) throws IOException;
+    }
+
+    private static Project project(String jobNumber){
+        Project project = PoisedProgram.projects.find(Integer.parseInt(jobNumber.trim()));
+        if (project == null){
+            throw new IllegalArgumentException("Project number " + jobNumber + " not found");
+        }
+        return project;
+    }
+
+    private static void expectFields(String[] fields, int count){
+        if (fields.length != count){
+            throw new IllegalArgumentException("Expected " + count + " fields but found " + fields.length);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Collects the people and projects that have changed since they were last saved,
+ * so that saving only has to write those rather than the whole folio.
+ * <p>
+ * Projects and people tell the change set when one of their setters is used.
+ * Each has a dirty flag so it is only queued once however many times it changes,
+ * and the flag is cleared as it is drained so a change made after that queues it again.
+ * Anything whose flag has been cleared some other way, e.g. a person that turned out
+ * to be saved already, is skipped when the queue is drained.
+ *
+ * @author Calum Gilchrist
+ */
+public class ChangeSet {
+    private static final AtomicIntegerFieldUpdater<Person> PERSON_DIRTY =
+            AtomicIntegerFieldUpdater.newUpdater(Person.class, "dirty");
+    private static final AtomicIntegerFieldUpdater<Project> PROJECT_DIRTY =
+            AtomicIntegerFieldUpdater.newUpdater(Project.class, "dirty");
+
+    private final ConcurrentLinkedQueue<Person> people = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Project> projects = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Marks a person as changed, queueing them if they weren't already.
+     *
+     * @param person the person that changed
+     */
+    public void personChanged(Person person){
+        if (PERSON_DIRTY.compareAndSet(person, 0, 1)){
+            people.add(person);
+        }
+    }
+
+    /**
+     * Marks a project as changed, queueing it if it wasn't already.
+     *
+     * @param project the project that changed
+     */
+    public void projectChanged(Project project){
+        if (PROJECT_DIRTY.compareAndSet(project, 0, 1)){
+            projects.add(project);
+        }
+    }
+
+    /**
+     * Marks a person as not needing to be saved, used when they have just been read from the store.
+     *
+     * @param person the person that is up to date in the store
+     */
+    public void personSaved(Person person){
+        PERSON_DIRTY.set(person, 0);
+    }
+
+    /**
+     * @return the people that have changed since the last drain, which are no longer marked as changed
+     */
+    public List<Person> drainPeople(){
+        List<Person> changed = new ArrayList<>();
+        Person person;
+        while ((person = people.poll()) != null){
+            // Cleared before the person is saved, so a change made while saving is saved next time
+            if (PERSON_DIRTY.getAndSet(person, 0) == 1){
+                changed.add(person);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @return the projects that have changed since the last drain, which are no longer marked as changed
+     */
+    public List<Project> drainProjects(){
+        List<Project> changed = new ArrayList<>();
+        Project project;
+        while ((project = projects.poll()) != null){
+            if (PROJECT_DIRTY.getAndSet(project, 0) == 1){
+                changed.add(project);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @return true if nothing has changed since the last drain
+     */
+    public boolean isEmpty(){
+        return people.isEmpty() && projects.isEmpty();
+    }
+}
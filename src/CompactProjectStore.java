@@ -0,0 +1,273 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Holds a folio in columns of primitive arrays instead of a Project object per
+ * job, for folios of millions of projects where the object headers and pointers
+ * would take most of the heap.
+ * <p>
+ * Each project is a slot: its job and ERF numbers, fee and amount paid in pence and
+ * deadline as an epoch day are kept in int and long arrays, and whether it is
+ * completed in a BitSet. The job name and build type are ids into a table of
+ * strings that are only stored once however many projects use them, as a folio
+ * only has a handful of each. Addresses are nearly all different so they are
+ * kept as they are, and the people are the Person objects the registry already
+ * shares between projects.
+ * <p>
+ * {@link #find} and {@link #views} hand out Project views made from a slot when
+ * they are asked for, so anything that reads projects (displaying, reports, the
+ * file format) works unchanged. A view is a copy: changes to it aren't kept, they
+ * are made with {@link #update} which writes the changed view back to its slot.
+ * Only the totals of the payments are kept, not each payment.
+ *
+ * @author Calum Gilchrist
+ */
+public class CompactProjectStore {
+    // Stored in place of an epoch day for a project without a deadline
+    private static final int NO_DEADLINE = Integer.MIN_VALUE;
+
+    private int[] jobNumbers = new int[16];
+    private int[] erfNumbers = new int[16];
+    private long[] fees = new long[16];
+    private long[] paid = new long[16];
+    private int[] deadlines = new int[16];
+    // Ids into the string table
+    private int[] jobNames = new int[16];
+    private int[] buildTypes = new int[16];
+    private String[] addresses = new String[16];
+    private Person[] architects = new Person[16];
+    private Person[] contractors = new Person[16];
+    private Person[] customers = new Person[16];
+    private final BitSet completed = new BitSet();
+    private int size;
+
+    // Each different string once, and the id it was given
+    private final List<String> strings = new ArrayList<>();
+    private final HashMap<String, Integer> stringIds = new HashMap<>();
+
+    private final ProjectRepository.JobNumberIndex jobIndex = new ProjectRepository.JobNumberIndex();
+    private final StampedLock lock = new StampedLock();
+
+    /**
+     * Copies projects into a new compact store.
+     *
+     * @param projects the projects, e.g. from {@link ProjectRepository#all()}
+     * @return the store
+     */
+    public static CompactProjectStore of(Collection<Project> projects){
+        CompactProjectStore store = new CompactProjectStore();
+        for (Project project : projects){
+            store.add(project);
+        }
+        return store;
+    }
+
+    /**
+     * Copies a project into the store, as long as its job number isn't already in use.
+     *
+     * @param project the project to copy
+     * @return true if it was added, false if a project with that job number is already stored
+     */
+    public boolean add(Project project){
+        long stamp = lock.writeLock();
+        try {
+            if (jobIndex.get(project.jobNumber) != ProjectRepository.JobNumberIndex.NO_SLOT){
+                return false;
+            }
+            if (size == jobNumbers.length){
+                grow();
+            }
+            int slot = size++;
+            write(slot, project);
+            jobIndex.put(project.jobNumber, slot);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @param jobNumber the job number to look for
+     * @return a view of the project, or null if no project has that job number
+     */
+    public Project find(int jobNumber){
+        long stamp = lock.readLock();
+        try {
+            int slot = jobIndex.get(jobNumber);
+            return slot == ProjectRepository.JobNumberIndex.NO_SLOT ? null : view(slot);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Changes a project: the change is made to a view, which is then written back.
+     *
+     * @param jobNumber the job number of the project to change
+     * @param change what to change, e.g. project -> project.setDeadline(date)
+     * @return the changed view, or null if no project has that job number
+     */
+    public Project update(int jobNumber, Consumer<Project> change){
+        long stamp = lock.writeLock();
+        try {
+            int slot = jobIndex.get(jobNumber);
+            if (slot == ProjectRepository.JobNumberIndex.NO_SLOT){
+                return null;
+            }
+            Project project = view(slot);
+            change.accept(project);
+            write(slot, project);
+            return project;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @param slot a slot from 0 to size() - 1, in the order the projects were added
+     * @return a view of the project in the slot
+     */
+    public Project get(int slot){
+        long stamp = lock.readLock();
+        try {
+            if (slot < 0 || slot >= size){
+                throw new IndexOutOfBoundsException("Slot " + slot + " of " + size);
+            }
+            return view(slot);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Streams views of every project in the order they were added, each one is
+     * only made when the stream reaches it.
+     *
+     * @return the views
+     */
+    public Stream<Project> views(){
+        return IntStream.range(0, size()).mapToObj(this::get);
+    }
+
+    /**
+     * @return the number of projects stored
+     */
+    public int size(){
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Finds the unfinished projects whose deadline is before a date, by scanning the
+     * deadline and completed columns without making a view of any other project.
+     *
+     * @param date the date to check against, usually today
+     * @return views of the overdue projects in the order they were added
+     */
+    public List<Project> overdue(LocalDate date){
+        int day = (int) date.toEpochDay();
+        List<Project> overdue = new ArrayList<>();
+        long stamp = lock.readLock();
+        try {
+            for (int slot = completed.nextClearBit(0); slot < size; slot = completed.nextClearBit(slot + 1)){
+                if (deadlines[slot] != NO_DEADLINE && deadlines[slot] < day){
+                    overdue.add(view(slot));
+                }
+            }
+            return overdue;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return the number of projects that haven't been finalised
+     */
+    public int unfinishedCount(){
+        long stamp = lock.readLock();
+        try {
+            return size - completed.cardinality();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return the total still owed on every project in pence, summed straight from the fee and paid columns
+     */
+    public long totalOutstanding(){
+        long stamp = lock.readLock();
+        try {
+            long total = 0;
+            for (int slot = 0; slot < size; slot++){
+                total += fees[slot] - paid[slot];
+            }
+            return total;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Makes a Project from the columns of a slot, sharing the stored strings and people with it
+    private Project view(int slot){
+        int day = deadlines[slot];
+        return new Project(jobNumbers[slot], strings.get(jobNames[slot]), strings.get(buildTypes[slot]),
+                addresses[slot], erfNumbers[slot], PaymentLedger.toPounds(fees[slot]),
+                PaymentLedger.toPounds(paid[slot]), day == NO_DEADLINE ? null : LocalDate.ofEpochDay(day),
+                architects[slot], contractors[slot], customers[slot], completed.get(slot));
+    }
+
+    // Copies a project's fields into the columns of a slot
+    private void write(int slot, Project project){
+        jobNumbers[slot] = project.jobNumber;
+        erfNumbers[slot] = project.erfNumber;
+        fees[slot] = project.ledger.fee();
+        paid[slot] = project.ledger.paid();
+        deadlines[slot] = project.deadline == null ? NO_DEADLINE : (int) project.deadline.toEpochDay();
+        jobNames[slot] = stringId(project.jobName);
+        buildTypes[slot] = stringId(project.buildType);
+        addresses[slot] = project.physicalAddress;
+        architects[slot] = project.architect;
+        contractors[slot] = project.contractor;
+        customers[slot] = project.customer;
+        completed.set(slot, project.completed);
+    }
+
+    private int stringId(String value){
+        Integer id = stringIds.get(value);
+        if (id == null){
+            id = strings.size();
+            strings.add(value);
+            stringIds.put(value, id);
+        }
+        return id;
+    }
+
+    private void grow(){
+        int capacity = jobNumbers.length * 2;
+        jobNumbers = Arrays.copyOf(jobNumbers, capacity);
+        erfNumbers = Arrays.copyOf(erfNumbers, capacity);
+        fees = Arrays.copyOf(fees, capacity);
+        paid = Arrays.copyOf(paid, capacity);
+        deadlines = Arrays.copyOf(deadlines, capacity);
+        jobNames = Arrays.copyOf(jobNames, capacity);
+        buildTypes = Arrays.copyOf(buildTypes, capacity);
+        addresses = Arrays.copyOf(addresses, capacity);
+        architects = Arrays.copyOf(architects, capacity);
+        contractors = Arrays.copyOf(contractors, capacity);
+        customers = Arrays.copyOf(customers, capacity);
+    }
+}
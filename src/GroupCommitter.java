@@ -0,0 +1,238 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves changes on a writer thread of its own, so the menu doesn't wait for the
+ * disk after every action and changes made close together are saved together.
+ * <p>
+ * Asking for changes to be saved puts a request on a queue and returns straight
+ * away with a future that completes once they are on disk. The writer takes
+ * every request that has arrived, up to the most a group can hold
+ * (-Dpoised.commit.count), then drains the {@link ChangeSet} and saves everything
+ * in it with one call to the store, so a group is written and synced once however
+ * many changes are in it. Requests made while a group is being written make up
+ * the next one. It can also wait up to a window (-Dpoised.commit.window,
+ * milliseconds) after the first request of a group for more, which makes fewer
+ * writes when changes come steadily but makes everyone waiting wait that long, so
+ * by default it doesn't. The queue holds a limited number of requests (-Dpoised.commit.queue) and
+ * asking to save waits while it is full, so changes can't get far ahead of the disk.
+ * <p>
+ * If saving fails, whether the store can't be written or it throws for a record it
+ * can't handle, the changes are marked as changed again so the next group saves
+ * them, the futures of the failed group complete with the error and the writer
+ * carries on with the next group.
+ *
+ * @author Calum Gilchrist
+ */
+public class GroupCommitter implements AutoCloseable {
+    /** Milliseconds the writer waits for more requests after the first of a group. */
+    public static final long DEFAULT_WINDOW = 0;
+    /** Most requests saved in one group. */
+    public static final int DEFAULT_COUNT = 256;
+    /** Requests that can be waiting before asking to save waits too. */
+    public static final int DEFAULT_QUEUE = 1024;
+
+    private final ProjectStore store;
+    private final ChangeSet changes;
+    private final long windowNanos;
+    private final int count;
+    private final BlockingQueue<Request> requests;
+    private final Thread writer;
+    private volatile boolean closed;
+    // Put on the queue to stop the writer once it has saved everything before it
+    private final Request stop = new Request();
+    // Held while saving, as a request made after closing is saved on the thread that made it
+    private final Object saving = new Object();
+
+    /**
+     * Starts a writer with the window, group size and queue size from the system properties.
+     *
+     * @param store where the changes are saved
+     * @param changes the people and projects that have changed
+     */
+    public GroupCommitter(ProjectStore store, ChangeSet changes){
+        this(store, changes, Long.getLong("poised.commit.window", DEFAULT_WINDOW),
+                Integer.getInteger("poised.commit.count", DEFAULT_COUNT),
+                Integer.getInteger("poised.commit.queue", DEFAULT_QUEUE));
+    }
+
+    /**
+     * Starts a writer.
+     *
+     * @param store where the changes are saved
+     * @param changes the people and projects that have changed
+     * @param window milliseconds to wait for more requests after the first of a group, 0 to save straight away
+     * @param count most requests saved in one group
+     * @param queue requests that can be waiting before asking to save waits too
+     */
+    public GroupCommitter(ProjectStore store, ChangeSet changes, long window, int count, int queue){
+        this.store = store;
+        this.changes = changes;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, window));
+        this.count = Math.max(1, count);
+        this.requests = new ArrayBlockingQueue<>(Math.max(1, queue));
+        writer = new Thread(this::write, "project-writer");
+        // Closing waits for it, so it doesn't need to keep the program running
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Asks for everything changed so far to be saved, waiting only if the queue is full.
+     *
+     * @return completes once the changes are saved, or with the error if they couldn't be
+     */
+    public CompletableFuture<Void> commit(){
+        Request request = new Request();
+        if (closed){
+            // Nothing will take it off the queue, so it is saved here instead
+            saveGroup(List.of(request));
+            return request.saved;
+        }
+        if (!requests.offer(request)){
+            Metrics.COMMITS_BLOCKED.increment();
+            try {
+                requests.put(request);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                request.saved.completeExceptionally(e);
+                return request.saved;
+            }
+        }
+        // If it was closed in the meantime the queue may already have been emptied for the last time.
+        // Whichever of this and close() takes the request off the queue saves it
+        if (closed && requests.remove(request)){
+            saveGroup(List.of(request));
+        }
+        return request.saved;
+    }
+
+    /**
+     * Waits until everything changed so far is saved. A failure has already been reported.
+     */
+    public void flush(){
+        try {
+            commit().join();
+        } catch (CompletionException e) {
+            // Reported by the writer, and the changes will be tried again
+        }
+    }
+
+    /**
+     * Saves anything still waiting, and anything changed without asking, and stops
+     * the writer. Later requests are saved as they are made.
+     */
+    @Override
+    public synchronized void close(){
+        if (closed){
+            return;
+        }
+        closed = true;
+        // Not interrupted, as that would close the file it may be writing to
+        try {
+            requests.put(stop);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Anything asked for while the writer was stopping
+        List<Request> left = new ArrayList<>();
+        requests.drainTo(left);
+        left.remove(stop);
+        saveGroup(left);
+    }
+
+    // The writer thread, saving a group at a time until it is stopped
+    private void write(){
+        List<Request> group = new ArrayList<>(count);
+        boolean stopping = false;
+        while (!stopping){
+            try {
+                group.add(requests.take());
+                long deadline = System.nanoTime() + windowNanos;
+                while (group.size() < count && !group.contains(stop)){
+                    requests.drainTo(group, count - group.size());
+                    long wait = deadline - System.nanoTime();
+                    if (group.size() >= count || wait <= 0 || group.contains(stop)){
+                        break;
+                    }
+                    Request next = requests.poll(wait, TimeUnit.NANOSECONDS);
+                    if (next == null){
+                        break;
+                    }
+                    group.add(next);
+                }
+            } catch (InterruptedException e) {
+                // Only the program stopping interrupts it, anything already taken is still saved
+                stopping = true;
+            }
+            stopping |= group.remove(stop);
+            if (!group.isEmpty()){
+                saveGroup(group);
+                group.clear();
+            }
+        }
+    }
+
+    // Saves everything changed so far and completes the requests of the group
+    private void saveGroup(List<Request> group){
+        Exception failure;
+        synchronized (saving) {
+            failure = save(store, changes);
+        }
+        long now = System.nanoTime();
+        for (Request request : group){
+            Metrics.COMMIT.record(now - request.start);
+            if (failure == null){
+                request.saved.complete(null);
+            }
+            else {
+                request.saved.completeExceptionally(failure);
+            }
+        }
+    }
+
+    /**
+     * Saves every person and project that has changed since the last save, straight away.
+     * If they can't be saved they stay marked as changed so they are tried again next time.
+     *
+     * @param store where the changes are saved
+     * @param changes the people and projects that have changed
+     * @return null if they were saved, otherwise the error, which has been reported
+     */
+    static Exception save(ProjectStore store, ChangeSet changes){
+        List<Person> changedPeople = changes.drainPeople();
+        List<Project> changedProjects = changes.drainProjects();
+        if (changedPeople.isEmpty() && changedProjects.isEmpty()){
+            return null;
+        }
+        long start = System.nanoTime();
+        try {
+            store.save(changedPeople, changedProjects);
+            Metrics.RECORDS_SAVED.add(changedPeople.size() + changedProjects.size());
+            return null;
+        } catch (IOException | RuntimeException e) {
+            // In case of error writing to the store, or a record it couldn't write
+            System.err.println("Error saving projects to file: " + e);
+            changedPeople.forEach(changes::personChanged);
+            changedProjects.forEach(changes::projectChanged);
+            return e;
+        } finally {
+            Metrics.SAVE.recordSince(start);
+        }
+    }
+
+    /**
+     * A request to save, and when it was made.
+     */
+    private static final class Request {
+        private final long start = System.nanoTime();
+        private final CompletableFuture<Void> saved = new CompletableFuture<>();
+    }
+}
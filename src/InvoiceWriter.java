@@ -0,0 +1,216 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes the completed project files for many finalised projects at once, e.g.
+ * at the end of a quarter.
+ * <p>
+ * Invoices are rendered in batches on a small pool of threads. The pool's queue
+ * is bounded and a full queue makes the caller render the batch itself, so a huge
+ * number of projects never builds up a huge backlog of work. Each thread reuses
+ * one buffer and encoder, and the files are written with a FileChannel rather than
+ * a FileWriter per file. The invoices can also be written one after another into
+ * a single archive file instead of a file each, which is written in job order as
+ * the batches are finished.
+ *
+ * @author Calum Gilchrist
+ */
+public class InvoiceWriter implements Closeable {
+    // Projects rendered by each task, enough that handing out the work costs little
+    static final int BATCH_SIZE = 256;
+    // Placed between invoices in an archive
+    private static final String SEPARATOR = "\n\n========================================\n\n";
+    private static final AtomicInteger THREADS = new AtomicInteger();
+    // Each pool thread renders into its own buffers, so they are only made once per thread
+    private static final ThreadLocal<Renderer> RENDERER = ThreadLocal.withInitial(Renderer::new);
+
+    private final ThreadPoolExecutor pool;
+    private final int threads;
+
+    /**
+     * Create a writer with a thread for each processor.
+     */
+    public InvoiceWriter(){
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads the number of threads rendering and writing invoices
+     */
+    public InvoiceWriter(int threads){
+        this.threads = Math.max(1, threads);
+        this.pool = new ThreadPoolExecutor(this.threads, this.threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(this.threads * 2), task -> {
+                    Thread thread = new Thread(task, "invoice-writer-" + THREADS.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * @param project a finalised project
+     * @return the name of its completed project file, where x is the job number so there is one per job
+     */
+    public static String fileName(Project project){
+        return "Completed project " + project.getJobNumber() + ".txt";
+    }
+
+    /**
+     * Writes the completed project file for one project.
+     *
+     * @param project the finalised project
+     * @param date the completion date
+     * @param directory the folder the file is written to
+     */
+    public static void writeFile(Project project, LocalDate date, Path directory) throws IOException {
+        RENDERER.get().writeFile(project, date, directory);
+    }
+
+    /**
+     * Writes a completed project file for each project, spread across the pool.
+     *
+     * @param finalised the finalised projects
+     * @param date the completion date
+     * @param directory the folder the files are written to
+     */
+    public void writeFiles(List<Project> finalised, LocalDate date, Path directory) throws IOException {
+        List<Future<?>> written = new ArrayList<>();
+        for (int from = 0; from < finalised.size(); from += BATCH_SIZE){
+            List<Project> batch = finalised.subList(from, Math.min(from + BATCH_SIZE, finalised.size()));
+            written.add(pool.submit(() -> {
+                Renderer renderer = RENDERER.get();
+                for (Project project : batch){
+                    renderer.writeFile(project, date, directory);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> batch : written){
+            await(batch);
+        }
+    }
+
+    /**
+     * Writes the invoices of all the projects one after another into one file,
+     * in the order given. An archive that already exists is added to.
+     *
+     * @param finalised the finalised projects
+     * @param date the completion date
+     * @param archive the file the invoices are written to
+     */
+    public void writeArchive(List<Project> finalised, LocalDate date, Path archive) throws IOException {
+        try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            // Batches are rendered to bytes on the pool and written here in order, only a few are waited on
+            // at a time so the rendered invoices never take much memory
+            ArrayDeque<Future<ByteBuffer>> rendered = new ArrayDeque<>();
+            for (int from = 0; from < finalised.size(); from += BATCH_SIZE){
+                List<Project> batch = finalised.subList(from, Math.min(from + BATCH_SIZE, finalised.size()));
+                rendered.add(pool.submit(() -> RENDERER.get().render(batch, date)));
+                while (rendered.size() > threads * 2){
+                    writeFully(channel, await(rendered.poll()));
+                }
+            }
+            while (!rendered.isEmpty()){
+                writeFully(channel, await(rendered.poll()));
+            }
+            channel.force(false);
+        }
+    }
+
+    @Override
+    public void close(){
+        pool.shutdown();
+    }
+
+    private static <T> T await(Future<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing invoices", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause){
+                throw cause;
+            }
+            throw new IOException("Unable to write invoices", e.getCause());
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer bytes) throws IOException {
+        Metrics.BYTES_WRITTEN.add(bytes.remaining());
+        while (bytes.hasRemaining()){
+            channel.write(bytes);
+        }
+    }
+
+    /**
+     * The buffers one thread renders invoices into.
+     */
+    private static final class Renderer {
+        private final StringBuilder invoice = new StringBuilder(1024);
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private ByteBuffer bytes = ByteBuffer.allocate(2048);
+
+        void writeFile(Project project, LocalDate date, Path directory) throws IOException {
+            invoice.setLength(0);
+            ProjectSerializer.appendCompleted(project, date, invoice);
+            ByteBuffer encoded = encode();
+            try (FileChannel channel = FileChannel.open(directory.resolve(fileName(project)),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeFully(channel, encoded);
+            }
+        }
+
+        // The bytes of a batch are copied out, as they are written after this thread has moved on
+        ByteBuffer render(List<Project> batch, LocalDate date){
+            invoice.setLength(0);
+            for (Project project : batch){
+                ProjectSerializer.appendCompleted(project, date, invoice);
+                invoice.append(SEPARATOR);
+            }
+            ByteBuffer encoded = encode();
+            ByteBuffer copy = ByteBuffer.allocate(encoded.remaining());
+            copy.put(encoded).flip();
+            return copy;
+        }
+
+        // Encodes the invoice into the reused byte buffer, growing it if the invoice doesn't fit
+        private ByteBuffer encode(){
+            CharBuffer chars = CharBuffer.wrap(invoice);
+            while (true){
+                encoder.reset();
+                bytes.clear();
+                CoderResult result = encoder.encode(chars, bytes, true);
+                if (!result.isOverflow()){
+                    result = encoder.flush(bytes);
+                }
+                if (!result.isOverflow()){
+                    return bytes.flip();
+                }
+                bytes = ByteBuffer.allocate(bytes.capacity() * 2);
+                chars.rewind();
+            }
+        }
+    }
+}
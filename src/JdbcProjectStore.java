@@ -0,0 +1,424 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the people and projects in a database through JDBC, e.g. an embedded
+ * H2 or SQLite database (the driver has to be on the class path).
+ * <p>
+ * People and projects have a table each, projects refer to the people by id and
+ * are indexed by deadline and completion as well as their job number. Finalised
+ * projects are recorded in a table of their own. Changes are written as batches
+ * of prepared statements that update the rows that already exist and then insert
+ * the rest, so only the people and projects that changed are written.
+ * Connections are kept in a small pool so several sessions can use the store at once.
+ *
+ * @author Calum Gilchrist
+ */
+public class JdbcProjectStore implements ProjectStore {
+    // Rows sent to the database in each batch
+    private static final int BATCH_SIZE = 500;
+    // Rows fetched from the database at a time while loading
+    private static final int FETCH_SIZE = 1000;
+    private static final int POOL_SIZE = 4;
+
+    // Tables and indexes that are created if the database doesn't have them yet, in this order.
+    // IF NOT EXISTS isn't understood by every database for an index, so the metadata is checked instead
+    private static final String[][] TABLES = {
+            {"person", "CREATE TABLE person (id INTEGER PRIMARY KEY, role VARCHAR(20) NOT NULL,"
+                    + " name VARCHAR(255) NOT NULL, phone_number VARCHAR(50), email_address VARCHAR(255),"
+                    + " physical_address VARCHAR(1000))"},
+            {"project", "CREATE TABLE project (job_number INTEGER PRIMARY KEY, job_name VARCHAR(255),"
+                    + " build_type VARCHAR(100), physical_address VARCHAR(1000), erf_number INTEGER,"
+                    + " fee_pence BIGINT NOT NULL, paid_pence BIGINT NOT NULL, deadline DATE,"
+                    + " architect_id INTEGER NOT NULL REFERENCES person(id),"
+                    + " contractor_id INTEGER NOT NULL REFERENCES person(id),"
+                    + " customer_id INTEGER NOT NULL REFERENCES person(id), completed BOOLEAN NOT NULL)"},
+            {"completed_project", "CREATE TABLE completed_project (job_number INTEGER PRIMARY KEY"
+                    + " REFERENCES project(job_number), completion_date DATE NOT NULL,"
+                    + " amount_owed_pence BIGINT NOT NULL)"}
+    };
+    // Table, index name and the statement creating it
+    private static final String[][] INDEXES = {
+            {"project", "project_deadline", "CREATE INDEX project_deadline ON project (deadline)"},
+            {"project", "project_completed", "CREATE INDEX project_completed ON project (completed)"}
+    };
+    // The key is the last parameter of both statements so a row is bound the same way for either
+    private static final String UPDATE_PERSON = "UPDATE person SET role = ?, name = ?, phone_number = ?,"
+            + " email_address = ?, physical_address = ? WHERE id = ?";
+    private static final String INSERT_PERSON = "INSERT INTO person (role, name, phone_number, email_address,"
+            + " physical_address, id) VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_PROJECT = "UPDATE project SET job_name = ?, build_type = ?,"
+            + " physical_address = ?, erf_number = ?, fee_pence = ?, paid_pence = ?, deadline = ?, architect_id = ?,"
+            + " contractor_id = ?, customer_id = ?, completed = ? WHERE job_number = ?";
+    private static final String INSERT_PROJECT = "INSERT INTO project (job_name, build_type, physical_address,"
+            + " erf_number, fee_pence, paid_pence, deadline, architect_id, contractor_id, customer_id, completed,"
+            + " job_number) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_COMPLETED = "UPDATE completed_project SET completion_date = ?,"
+            + " amount_owed_pence = ? WHERE job_number = ?";
+    private static final String INSERT_COMPLETED = "INSERT INTO completed_project (completion_date,"
+            + " amount_owed_pence, job_number) VALUES (?, ?, ?)";
+    private static final String SELECT_PEOPLE = "SELECT id, role, name, phone_number, email_address,"
+            + " physical_address FROM person ORDER BY id";
+    private static final String SELECT_PROJECTS = "SELECT job_number, job_name, build_type, physical_address,"
+            + " erf_number, fee_pence, paid_pence, deadline, architect_id, contractor_id, customer_id, completed"
+            + " FROM project ORDER BY job_number";
+
+    private final ConnectionPool pool;
+
+    /**
+     * Connects to the database and creates the tables if they don't exist yet.
+     *
+     * @param url JDBC url, e.g. jdbc:h2:./poised or jdbc:sqlite:poised.db
+     * @param user database user, may be null
+     * @param password database password, may be null
+     */
+    public JdbcProjectStore(String url, String user, String password) throws IOException {
+        pool = new ConnectionPool(url, user, password, POOL_SIZE);
+        Connection connection = borrow();
+        try (Statement statement = connection.createStatement()) {
+            DatabaseMetaData metaData = connection.getMetaData();
+            for (String[] table : TABLES){
+                if (!tableExists(metaData, table[0])){
+                    statement.execute(table[1]);
+                }
+            }
+            for (String[] index : INDEXES){
+                if (!indexExists(metaData, index[0], index[1])){
+                    statement.execute(index[2]);
+                }
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            throw new IOException("Unable to create the projects tables", e);
+        } finally {
+            pool.release(connection);
+        }
+    }
+
+    /**
+     * Reads the people and then the projects, a block of rows at a time rather than all at once.
+     */
+    @Override
+    public void load(PersonRegistry people, ProjectRepository projects) throws IOException {
+        Connection connection = borrow();
+        try {
+            try (PreparedStatement select = streaming(connection, SELECT_PEOPLE);
+                 ResultSet rows = select.executeQuery()) {
+                while (rows.next()){
+                    Person person = new Person(rows.getString(2), rows.getString(3), rows.getString(4),
+                            rows.getString(5), rows.getString(6));
+                    person.setId(rows.getInt(1));
+                    people.put(person);
+                }
+            }
+            try (PreparedStatement select = streaming(connection, SELECT_PROJECTS);
+                 ResultSet rows = select.executeQuery()) {
+                while (rows.next()){
+                    java.sql.Date deadline = rows.getDate(8);
+                    Project project = new Project(rows.getInt(1), rows.getString(2), rows.getString(3),
+                            rows.getString(4), rows.getInt(5), PaymentLedger.toPounds(rows.getLong(6)),
+                            PaymentLedger.toPounds(rows.getLong(7)), deadline == null ? null : deadline.toLocalDate(),
+                            person(people, rows.getInt(9)), person(people, rows.getInt(10)),
+                            person(people, rows.getInt(11)), rows.getBoolean(12));
+                    projects.add(project);
+                }
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            throw new IOException("Unable to load projects from the database", e);
+        } finally {
+            pool.release(connection);
+        }
+    }
+
+    @Override
+    public void save(Iterable<Person> changedPeople, Iterable<Project> changedProjects) throws IOException {
+        List<Person> personRows = new ArrayList<>();
+        changedPeople.forEach(personRows::add);
+        List<Project> projectRows = new ArrayList<>();
+        changedProjects.forEach(projectRows::add);
+        Connection connection = borrow();
+        try {
+            // People first as the projects refer to them
+            upsert(connection, UPDATE_PERSON, INSERT_PERSON, personRows, JdbcProjectStore::bindPerson);
+            upsert(connection, UPDATE_PROJECT, INSERT_PROJECT, projectRows, JdbcProjectStore::bindProject);
+            connection.commit();
+        } catch (SQLException e) {
+            rollback(connection);
+            throw new IOException("Unable to save projects to the database", e);
+        } finally {
+            pool.release(connection);
+        }
+    }
+
+    @Override
+    public void saveCompleted(Project project, LocalDate date) throws IOException {
+        saveCompleted(List.of(project), date, null);
+    }
+
+    /**
+     * Records all the completions in one transaction, batched like any other save.
+     * The database rows are the record of completion, so no archive file is written.
+     */
+    @Override
+    public void saveCompleted(List<Project> finalised, LocalDate date, Path archive) throws IOException {
+        Connection connection = borrow();
+        try {
+            // The project rows have to exist before their completions can refer to them
+            upsert(connection, UPDATE_PROJECT, INSERT_PROJECT, finalised, JdbcProjectStore::bindProject);
+            upsert(connection, UPDATE_COMPLETED, INSERT_COMPLETED, finalised, (statement, completed) -> {
+                statement.setDate(1, java.sql.Date.valueOf(date));
+                statement.setLong(2, completed.getLedger().outstanding());
+                statement.setInt(3, completed.getJobNumber());
+            });
+            connection.commit();
+        } catch (SQLException e) {
+            rollback(connection);
+            throw new IOException("Unable to save " + finalised.size() + " completed projects", e);
+        } finally {
+            pool.release(connection);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            pool.close();
+        } catch (SQLException e) {
+            throw new IOException("Unable to close the database connections", e);
+        }
+    }
+
+    /**
+     * Sets the parameters of an update or insert statement from a person or project.
+     */
+    private interface Binder<T> {
+        void bind(PreparedStatement statement, T row) throws SQLException;
+    }
+
+    /**
+     * Updates the rows that already exist in batches, then inserts any that didn't.
+     * Works the same on every database rather than relying on MERGE or ON CONFLICT.
+     */
+    private static <T> void upsert(Connection connection, String updateSql, String insertSql, List<T> rows,
+                                   Binder<T> binder) throws SQLException {
+        if (rows.isEmpty()){
+            return;
+        }
+        List<T> missing = new ArrayList<>();
+        try (PreparedStatement update = connection.prepareStatement(updateSql)) {
+            for (int start = 0; start < rows.size(); start += BATCH_SIZE){
+                List<T> batch = rows.subList(start, Math.min(rows.size(), start + BATCH_SIZE));
+                for (T row : batch){
+                    binder.bind(update, row);
+                    update.addBatch();
+                }
+                int[] counts = update.executeBatch();
+                for (int i = 0; i < counts.length; i++){
+                    // SUCCESS_NO_INFO means the driver doesn't say, the row is taken to have been updated
+                    if (counts[i] == 0){
+                        missing.add(batch.get(i));
+                    }
+                }
+            }
+        }
+        if (missing.isEmpty()){
+            return;
+        }
+        try (PreparedStatement insert = connection.prepareStatement(insertSql)) {
+            for (int start = 0; start < missing.size(); start += BATCH_SIZE){
+                for (T row : missing.subList(start, Math.min(missing.size(), start + BATCH_SIZE))){
+                    binder.bind(insert, row);
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+        }
+    }
+
+    private static void bindPerson(PreparedStatement statement, Person person) throws SQLException {
+        statement.setString(1, person.getRole());
+        statement.setString(2, person.getName());
+        statement.setString(3, person.getPhoneNumber());
+        statement.setString(4, person.getEmailAddress());
+        statement.setString(5, person.getPhysicalAddress());
+        statement.setInt(6, person.getId());
+    }
+
+    private static void bindProject(PreparedStatement statement, Project project) throws SQLException {
+        statement.setString(1, project.getJobName());
+        statement.setString(2, project.getBuildType());
+        statement.setString(3, project.getPhysicalAddress());
+        statement.setInt(4, project.getErfNumber());
+        statement.setLong(5, project.getLedger().fee());
+        statement.setLong(6, project.getLedger().paid());
+        if (project.getDeadline() == null){
+            statement.setNull(7, Types.DATE);
+        }
+        else {
+            statement.setDate(7, java.sql.Date.valueOf(project.getDeadline()));
+        }
+        statement.setInt(8, project.getArchitect().getId());
+        statement.setInt(9, project.getContractor().getId());
+        statement.setInt(10, project.getCustomer().getId());
+        statement.setBoolean(11, project.getCompleted());
+        statement.setInt(12, project.getJobNumber());
+    }
+
+    // Databases store unquoted names in upper or lower case, so both are looked for
+    private static boolean tableExists(DatabaseMetaData metaData, String table) throws SQLException {
+        for (String name : new String[] {table, table.toUpperCase(Locale.ROOT)}){
+            try (ResultSet tables = metaData.getTables(null, null, name, null)) {
+                if (tables.next()){
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean indexExists(DatabaseMetaData metaData, String table, String index) throws SQLException {
+        for (String name : new String[] {table, table.toUpperCase(Locale.ROOT)}){
+            try (ResultSet indexes = metaData.getIndexInfo(null, null, name, false, false)) {
+                while (indexes.next()){
+                    if (index.equalsIgnoreCase(indexes.getString("INDEX_NAME"))){
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    // Forward only query that fetches a block of rows at a time instead of the whole table
+    private static PreparedStatement streaming(Connection connection, String sql) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+                ResultSet.CONCUR_READ_ONLY);
+        statement.setFetchSize(FETCH_SIZE);
+        return statement;
+    }
+
+    private static Person person(PersonRegistry people, int id) throws SQLException {
+        Person person = people.get(id);
+        if (person == null){
+            throw new SQLException("Project refers to unknown person id " + id);
+        }
+        return person;
+    }
+
+    private Connection borrow() throws IOException {
+        try {
+            return pool.borrow();
+        } catch (SQLException e) {
+            throw new IOException("Unable to connect to the projects database", e);
+        }
+    }
+
+    private static void rollback(Connection connection){
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            System.err.println("Error rolling back projects database changes");
+        }
+    }
+
+    /**
+     * A fixed number of connections that are handed out and returned instead of being
+     * opened for every save. Connections are opened when first needed and don't auto commit.
+     */
+    static class ConnectionPool implements AutoCloseable {
+        private final String url;
+        private final String user;
+        private final String password;
+        private final int size;
+        private final BlockingQueue<Connection> idle;
+        // Connections opened so far, never more than the size of the pool
+        private final AtomicInteger opened = new AtomicInteger();
+
+        ConnectionPool(String url, String user, String password, int size){
+            this.url = url;
+            this.user = user;
+            this.password = password;
+            this.size = size;
+            this.idle = new ArrayBlockingQueue<>(size);
+        }
+
+        /**
+         * Gets an idle connection, opens a new one if the pool isn't full, otherwise waits for one to be returned.
+         */
+        Connection borrow() throws SQLException {
+            Connection connection = idle.poll();
+            if (connection == null){
+                if (opened.incrementAndGet() <= size){
+                    try {
+                        connection = DriverManager.getConnection(url, user, password);
+                        connection.setAutoCommit(false);
+                        return connection;
+                    } catch (SQLException e) {
+                        opened.decrementAndGet();
+                        throw e;
+                    }
+                }
+                opened.decrementAndGet();
+                try {
+                    connection = idle.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted waiting for a database connection", e);
+                }
+            }
+            // A connection that has been dropped by the database is replaced
+            if (!connection.isValid(2)){
+                discard(connection);
+                return borrow();
+            }
+            return connection;
+        }
+
+        /**
+         * Returns a connection to the pool.
+         */
+        void release(Connection connection){
+            try {
+                if (connection.isClosed() || !idle.offer(connection)){
+                    discard(connection);
+                }
+            } catch (SQLException e) {
+                discard(connection);
+            }
+        }
+
+        private void discard(Connection connection){
+            opened.decrementAndGet();
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                // The connection is being thrown away anyway
+            }
+        }
+
+        @Override
+        public void close() throws SQLException {
+            Connection connection;
+            while ((connection = idle.poll()) != null){
+                opened.decrementAndGet();
+                connection.close();
+            }
+        }
+    }
+}
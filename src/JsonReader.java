@@ -0,0 +1,223 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the JSON sent to the {@link ProjectServer}, which only needs small
+ * request bodies so it doesn't need a library.
+ * <p>
+ * Objects are read as Maps in the order of their keys, arrays as Lists, numbers
+ * as Doubles and true, false and null as themselves.
+ *
+ * @author Calum Gilchrist
+ */
+public class JsonReader {
+    private final String json;
+    private int position;
+
+    private JsonReader(String json){
+        this.json = json;
+    }
+
+    /**
+     * Reads a JSON document.
+     *
+     * @param json the document
+     * @return the value it holds
+     * @throws IllegalArgumentException if it isn't valid JSON
+     */
+    public static Object parse(String json){
+        JsonReader reader = new JsonReader(json);
+        Object value = reader.value();
+        reader.skipSpace();
+        if (reader.position < json.length()){
+            throw reader.error("Unexpected text after the end");
+        }
+        return value;
+    }
+
+    /**
+     * Reads a JSON object, e.g. the body of a request.
+     *
+     * @param json the document
+     * @return the object's fields by name
+     * @throws IllegalArgumentException if it isn't a valid JSON object
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> parseObject(String json){
+        Object value = parse(json);
+        if (!(value instanceof Map)){
+            throw new IllegalArgumentException("Expected a JSON object");
+        }
+        return (Map<String, Object>) value;
+    }
+
+    private Object value(){
+        skipSpace();
+        if (position >= json.length()){
+            throw error("Unexpected end");
+        }
+        char c = json.charAt(position);
+        switch (c) {
+            case '{' -> {
+                return object();
+            }
+            case '[' -> {
+                return array();
+            }
+            case '"' -> {
+                return string();
+            }
+            case 't' -> {
+                return literal("true", Boolean.TRUE);
+            }
+            case 'f' -> {
+                return literal("false", Boolean.FALSE);
+            }
+            case 'n' -> {
+                return literal("null", null);
+            }
+            default -> {
+                if (c == '-' || (c >= '0' && c <= '9')){
+                    return number();
+                }
+                throw error("Unexpected '" + c + "'");
+            }
+        }
+    }
+
+    private Map<String, Object> object(){
+        Map<String, Object> fields = new LinkedHashMap<>();
+        position++;
+        skipSpace();
+        if (peek() == '}'){
+            position++;
+            return fields;
+        }
+        while (true){
+            skipSpace();
+            if (peek() != '"'){
+                throw error("Expected a field name");
+            }
+            String name = string();
+            skipSpace();
+            expect(':');
+            fields.put(name, value());
+            skipSpace();
+            if (peek() == ','){
+                position++;
+            }
+            else {
+                expect('}');
+                return fields;
+            }
+        }
+    }
+
+    private List<Object> array(){
+        List<Object> values = new ArrayList<>();
+        position++;
+        skipSpace();
+        if (peek() == ']'){
+            position++;
+            return values;
+        }
+        while (true){
+            values.add(value());
+            skipSpace();
+            if (peek() == ','){
+                position++;
+            }
+            else {
+                expect(']');
+                return values;
+            }
+        }
+    }
+
+    private String string(){
+        position++;
+        StringBuilder value = new StringBuilder();
+        while (position < json.length()){
+            char c = json.charAt(position++);
+            if (c == '"'){
+                return value.toString();
+            }
+            if (c != '\\'){
+                value.append(c);
+                continue;
+            }
+            if (position >= json.length()){
+                break;
+            }
+            char escaped = json.charAt(position++);
+            switch (escaped) {
+                case '"', '\\', '/' -> value.append(escaped);
+                case 'b' -> value.append('\b');
+                case 'f' -> value.append('\f');
+                case 'n' -> value.append('\n');
+                case 'r' -> value.append('\r');
+                case 't' -> value.append('\t');
+                case 'u' -> {
+                    if (position + 4 > json.length()){
+                        throw error("Incomplete \\u escape");
+                    }
+                    try {
+                        value.append((char) Integer.parseInt(json.substring(position, position + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("Invalid \\u escape");
+                    }
+                    position += 4;
+                }
+                default -> throw error("Invalid escape \\" + escaped);
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    private Double number(){
+        int start = position;
+        if (peek() == '-'){
+            position++;
+        }
+        while (position < json.length() && "0123456789.eE+-".indexOf(json.charAt(position)) >= 0){
+            position++;
+        }
+        try {
+            return Double.valueOf(json.substring(start, position));
+        } catch (NumberFormatException e) {
+            throw error("Invalid number " + json.substring(start, position));
+        }
+    }
+
+    private Object literal(String word, Object value){
+        if (!json.startsWith(word, position)){
+            throw error("Unexpected '" + json.charAt(position) + "'");
+        }
+        position += word.length();
+        return value;
+    }
+
+    private void expect(char c){
+        if (peek() != c){
+            throw error("Expected '" + c + "'");
+        }
+        position++;
+    }
+
+    // The next character, or 0 at the end
+    private char peek(){
+        return position < json.length() ? json.charAt(position) : 0;
+    }
+
+    private void skipSpace(){
+        while (position < json.length() && Character.isWhitespace(json.charAt(position))){
+            position++;
+        }
+    }
+
+    private IllegalArgumentException error(String message){
+        return new IllegalArgumentException("Invalid JSON at character " + position + ": " + message);
+    }
+}
@@ -0,0 +1,204 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how long an operation takes, in buckets that grow with the time so
+ * that percentiles are always within about 6% whether the operation takes
+ * nanoseconds or minutes (the same layout as an HDR histogram).
+ * <p>
+ * Times below 16 ns have a bucket each. Above that every power of two is split
+ * into 16 buckets, so a time is put in a bucket from the position of its highest
+ * bit and the four bits after it, without any searching. Recording is a couple
+ * of atomic adds, so it is cheap enough to leave on all the time and any number
+ * of threads can record at once.
+ * <p>
+ * For operations that take less time than reading the clock twice, such as a
+ * lookup by job number, only one in every few of them can be timed: every one
+ * is still counted, but the percentiles and mean come from the ones timed.
+ * <pre>
+ * long start = histogram.start();
+ * ... the operation ...
+ * histogram.recordSince(start);
+ * </pre>
+ *
+ * @author Calum Gilchrist
+ */
+public class LatencyHistogram {
+    // Bits of a time kept after its highest bit, 16 buckets for each power of two
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    // Enough buckets for any positive long
+    private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BITS) * SUB_BUCKETS;
+
+    // Returned by start() when this operation isn't one of the sample being timed
+    private static final long NOT_TIMED = Long.MIN_VALUE;
+
+    private final String name;
+    // One in this many operations is timed
+    private final int sampleEvery;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    // Every operation, and the ones that were timed
+    private final LongAdder count = new LongAdder();
+    private final LongAdder timed = new LongAdder();
+    // Picks which operations are timed. Not atomic, as a lost increment only changes which one is timed next
+    private int tick;
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param name name of the operation being timed, e.g. load
+     */
+    public LatencyHistogram(String name){
+        this(name, 1);
+    }
+
+    /**
+     * @param name name of the operation being timed, e.g. lookup
+     * @param sampleEvery time one in this many operations
+     */
+    public LatencyHistogram(String name, int sampleEvery){
+        this.name = name;
+        this.sampleEvery = Math.max(1, sampleEvery);
+    }
+
+    /**
+     * Called when an operation starts, to be passed to {@link #recordSince} when it ends.
+     * Operations that aren't timed are counted here, so ending them costs nothing.
+     *
+     * @return the time now, unless the operation isn't one of the ones timed
+     */
+    public long start(){
+        if (sampleEvery > 1 && ++tick % sampleEvery != 0){
+            count.increment();
+            return NOT_TIMED;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Counts an operation and records the time since it started, if it was timed.
+     *
+     * @param start the value returned by {@link #start} or System.nanoTime() when the operation started
+     */
+    public void recordSince(long start){
+        if (start == NOT_TIMED){
+            // Already counted by start()
+            return;
+        }
+        record(System.nanoTime() - start);
+    }
+
+    /**
+     * Records how long an operation took.
+     *
+     * @param nanos the time taken in nanoseconds
+     */
+    public void record(long nanos){
+        if (nanos < 0){
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucket(nanos));
+        count.increment();
+        timed.increment();
+        total.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    /**
+     * @return the name of the operation
+     */
+    public String getName(){
+        return name;
+    }
+
+    /**
+     * @return the number of times recorded
+     */
+    public long count(){
+        return count.sum();
+    }
+
+    /**
+     * @return the number of times that were timed, the same as count() unless only some are timed
+     */
+    public long timed(){
+        return timed.sum();
+    }
+
+    /**
+     * @return the mean time in nanoseconds, 0 if nothing has been timed
+     */
+    public double mean(){
+        long times = timed.sum();
+        return times == 0 ? 0 : (double) total.sum() / times;
+    }
+
+    /**
+     * @return the longest time recorded in nanoseconds, of the ones timed
+     */
+    public long max(){
+        return max.get();
+    }
+
+    /**
+     * Finds the time that a fraction of the recorded times were at or below.
+     *
+     * @param fraction e.g. 0.99 for the 99th percentile
+     * @return the highest time in the bucket holding that percentile, in nanoseconds, 0 if nothing has been recorded
+     */
+    public long percentile(double fraction){
+        long[] snapshot = new long[BUCKETS];
+        long times = 0;
+        for (int i = 0; i < BUCKETS; i++){
+            snapshot[i] = counts.get(i);
+            times += snapshot[i];
+        }
+        if (times == 0){
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * times));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++){
+            seen += snapshot[i];
+            if (seen >= rank){
+                // Never more than the longest time actually seen
+                return Math.min(highest(i), max());
+            }
+        }
+        return max();
+    }
+
+    /**
+     * Clears everything recorded, times recorded while it is being cleared may be lost.
+     */
+    public void reset(){
+        for (int i = 0; i < BUCKETS; i++){
+            counts.set(i, 0);
+        }
+        count.reset();
+        timed.reset();
+        total.reset();
+        max.reset();
+    }
+
+    static int bucket(long nanos){
+        if (nanos < SUB_BUCKETS){
+            return (int) nanos;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BITS;
+        int sub = (int) (nanos >>> shift) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + shift * SUB_BUCKETS + sub;
+    }
+
+    // The highest time that goes in a bucket
+    static long highest(int bucket){
+        if (bucket < SUB_BUCKETS){
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        long sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        long lowest = (SUB_BUCKETS + sub) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
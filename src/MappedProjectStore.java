@@ -0,0 +1,420 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the people and projects in a memory mapped file of fixed size records,
+ * with their text in a second mapped file (the string arena), so opening the
+ * store is mapping the two files and reading the records straight out of them
+ * with nothing to parse. Changes are written into the mappings and forced to
+ * disk before {@link #save} returns.
+ * <p>
+ * Every person and project has a record slot of two copies. A change is written
+ * to the older copy with the next sequence number and a CRC32 of the copy, so if
+ * the program or machine stops part way through writing it the other copy is
+ * still whole, and loading takes the newest copy whose CRC matches. Text is
+ * appended to the arena and forced before the records that refer to it are
+ * written, so a whole record never points at text that isn't on disk. Text that
+ * hasn't changed is shared with the copy before, so payments and new deadlines
+ * add nothing to the arena. Each record is saved whole or not at all, but a save
+ * of several records isn't: after a crash some of them can be the old version.
+ * <p>
+ * Records file: a header of magic, version and slot size, then the slots.
+ * Each 64 byte copy is: sequence (long), kind, completed, two spare bytes,
+ * job number or person id, ERF number, deadline as an epoch day, fee and paid
+ * in pence (longs), the three person ids, the position and length of its text in
+ * the arena, then the CRC32 of everything before it. In the arena each piece of
+ * text is its length in bytes (-1 for null) followed by its UTF-8 bytes.
+ * <p>
+ * Finalised projects are written to a 'Completed project (x).txt' file each, as
+ * with the text file store. If the records file doesn't exist yet it is made
+ * from the projects text file, when one is given.
+ *
+ * @author Calum Gilchrist
+ */
+public class MappedProjectStore implements ProjectStore {
+    // "PMAP" at the start of the records file
+    private static final int MAGIC = 0x504D4150;
+    private static final int VERSION = 1;
+    private static final int HEADER = 64;
+    private static final int COPY = 64;
+    private static final int SLOT = 2 * COPY;
+    private static final byte PERSON = 1;
+    private static final byte PROJECT = 2;
+    // Stored as the deadline of a project without one
+    private static final int NO_DEADLINE = Integer.MIN_VALUE;
+    // Where each field is within a copy
+    private static final int SEQUENCE = 0;
+    private static final int KIND = 8;
+    private static final int COMPLETED = 9;
+    private static final int KEY = 12;
+    private static final int ERF = 16;
+    private static final int DEADLINE = 20;
+    private static final int FEE = 24;
+    private static final int PAID = 32;
+    private static final int ARCHITECT = 40;
+    private static final int CONTRACTOR = 44;
+    private static final int CUSTOMER = 48;
+    private static final int TEXT_POSITION = 52;
+    private static final int TEXT_LENGTH = 56;
+    private static final int CRC = 60;
+    private static final int INITIAL_SLOTS = 1024;
+    private static final int INITIAL_ARENA = 64 * 1024;
+
+    private final Path file;
+    private final Path importFile;
+    private final boolean created;
+    private final FileChannel recordChannel;
+    private final FileChannel arenaChannel;
+    private MappedByteBuffer records;
+    private MappedByteBuffer arena;
+    // Slots handed out, and the end of the text in the arena
+    private int slotCount;
+    private int arenaEnd;
+    // Sequence number of the last save, each save writes its copies with the next one
+    private long sequence;
+    // Slots with a whole copy, and the slots whose second copy is the newest
+    private final BitSet written = new BitSet();
+    private final BitSet secondCopy = new BitSet();
+    // Slots of the people by id and projects by job number
+    private final ProjectRepository.JobNumberIndex personSlots = new ProjectRepository.JobNumberIndex();
+    private final ProjectRepository.JobNumberIndex projectSlots = new ProjectRepository.JobNumberIndex();
+    // Copy being written, and the text of a record as it would go into the arena
+    private final ByteBuffer copy = ByteBuffer.allocate(COPY);
+    private final ByteBuffer text = ByteBuffer.allocate(4096);
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Opens the store, creating the files if they don't exist.
+     *
+     * @param file the records file, the arena is kept next to it with .strings on the end
+     * @param importFile the projects text file to make a new store from, may be null
+     */
+    public MappedProjectStore(Path file, Path importFile) throws IOException {
+        this.file = file;
+        this.importFile = importFile;
+        created = !Files.exists(file) || Files.size(file) < HEADER;
+        recordChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        arenaChannel = FileChannel.open(Path.of(file + ".strings"), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        records = recordChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+                Math.max(recordChannel.size(), HEADER + (long) INITIAL_SLOTS * SLOT));
+        arena = arenaChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(arenaChannel.size(), INITIAL_ARENA));
+        if (created){
+            records.putInt(0, MAGIC);
+            records.putInt(4, VERSION);
+            records.putInt(8, SLOT);
+            records.force();
+        }
+        else if (records.getInt(0) != MAGIC || records.getInt(4) != VERSION || records.getInt(8) != SLOT){
+            close();
+            throw new IOException(file + " is not a projects records file");
+        }
+    }
+
+    /**
+     * Reads the newest whole copy of every record, people first as the projects refer to them.
+     * A new store is filled from the projects text file instead.
+     */
+    @Override
+    public synchronized void load(PersonRegistry people, ProjectRepository projects) throws IOException {
+        if (created){
+            if (importFile != null && Files.exists(importFile)){
+                TextProjectStore text = new TextProjectStore(importFile);
+                text.load(people, projects);
+                text.close();
+                save(people.all(), projects.all());
+            }
+            return;
+        }
+        int slots = (records.capacity() - HEADER) / SLOT;
+        // Newest copy of each project, read once all the people are
+        int[] projectCopies = new int[slots];
+        int projectCount = 0;
+        byte[] bytes = new byte[COPY];
+        for (int slot = 0; slot < slots; slot++){
+            int first = copyPosition(slot, 0);
+            int second = copyPosition(slot, 1);
+            long firstSequence = isWhole(first, bytes) ? records.getLong(first + SEQUENCE) : 0;
+            long secondSequence = isWhole(second, bytes) ? records.getLong(second + SEQUENCE) : 0;
+            if (firstSequence == 0 && secondSequence == 0){
+                continue;
+            }
+            int position = secondSequence > firstSequence ? second : first;
+            written.set(slot);
+            secondCopy.set(slot, secondSequence > firstSequence);
+            sequence = Math.max(sequence, Math.max(firstSequence, secondSequence));
+            slotCount = slot + 1;
+            // The arena ends after the last text any whole copy refers to, anything after it was never used
+            arenaEnd = Math.max(arenaEnd, Math.max(textEnd(first, firstSequence), textEnd(second, secondSequence)));
+            int key = records.getInt(position + KEY);
+            if (records.get(position + KIND) == PERSON){
+                String[] details = readText(records.getInt(position + TEXT_POSITION), 5);
+                Person person = new Person(details[0], details[1], details[2], details[3], details[4]);
+                person.setId(key);
+                people.put(person);
+                personSlots.put(key, slot);
+            }
+            else {
+                projectCopies[projectCount++] = position;
+                projectSlots.put(key, slot);
+            }
+        }
+        for (int i = 0; i < projectCount; i++){
+            Project project = readProject(projectCopies[i], people);
+            if (!projects.add(project)){
+                System.err.println("Duplicate project number " + project.getJobNumber() + " skipped.");
+            }
+        }
+    }
+
+    private Project readProject(int position, PersonRegistry people) throws IOException {
+        int deadline = records.getInt(position + DEADLINE);
+        String[] text = readText(records.getInt(position + TEXT_POSITION), 3);
+        return new Project(records.getInt(position + KEY), text[0], text[1], text[2],
+                records.getInt(position + ERF), PaymentLedger.toPounds(records.getLong(position + FEE)),
+                PaymentLedger.toPounds(records.getLong(position + PAID)),
+                deadline == NO_DEADLINE ? null : LocalDate.ofEpochDay(deadline),
+                knownPerson(people, records.getInt(position + ARCHITECT)),
+                knownPerson(people, records.getInt(position + CONTRACTOR)),
+                knownPerson(people, records.getInt(position + CUSTOMER)), records.get(position + COMPLETED) == 1);
+    }
+
+    private static Person knownPerson(PersonRegistry people, int id) throws IOException {
+        Person person = people.get(id);
+        if (person == null){
+            throw new IOException("Unknown person id " + id + " in the projects records file");
+        }
+        return person;
+    }
+
+    /**
+     * Writes the text of every change to the arena and forces it, then writes each
+     * record to its older copy and forces the records.
+     */
+    @Override
+    public synchronized void save(Iterable<Person> changedPeople, Iterable<Project> changedProjects) throws IOException {
+        sequence++;
+        int arenaStart = arenaEnd;
+        List<Integer> slots = new ArrayList<>();
+        List<ByteBuffer> copies = new ArrayList<>();
+        for (Person person : changedPeople){
+            int slot = slotFor(personSlots, person.getId());
+            text.clear();
+            putText(person.getRole());
+            putText(person.getName());
+            putText(person.getPhoneNumber());
+            putText(person.getEmailAddress());
+            putText(person.getPhysicalAddress());
+            clearCopy();
+            copy.putLong(sequence).put(PERSON).put((byte) 0).putShort((short) 0).putInt(person.getId());
+            slots.add(slot);
+            copies.add(finishCopy(slot));
+        }
+        for (Project project : changedProjects){
+            int slot = slotFor(projectSlots, project.getJobNumber());
+            text.clear();
+            putText(project.getJobName());
+            putText(project.getBuildType());
+            putText(project.getPhysicalAddress());
+            LocalDate deadline = project.getDeadline();
+            clearCopy();
+            copy.putLong(sequence).put(PROJECT).put(project.getCompleted() ? (byte) 1 : (byte) 0).putShort((short) 0)
+                    .putInt(project.getJobNumber()).putInt(project.getErfNumber())
+                    .putInt(deadline == null ? NO_DEADLINE : (int) deadline.toEpochDay())
+                    .putLong(project.ledger.fee()).putLong(project.ledger.paid())
+                    .putInt(project.getArchitect().getId()).putInt(project.getContractor().getId())
+                    .putInt(project.getCustomer().getId());
+            slots.add(slot);
+            copies.add(finishCopy(slot));
+        }
+        if (slots.isEmpty()){
+            return;
+        }
+        // Only the pages written are forced, nothing if all the text was already there
+        if (arenaEnd > arenaStart){
+            arena.force(arenaStart, arenaEnd - arenaStart);
+        }
+        int first = Integer.MAX_VALUE;
+        int last = 0;
+        for (int i = 0; i < slots.size(); i++){
+            int slot = slots.get(i);
+            // The older copy is overwritten, and becomes the newest once it is whole
+            boolean second = written.get(slot) && !secondCopy.get(slot);
+            int position = copyPosition(slot, second ? 1 : 0);
+            records.put(position, copies.get(i), 0, COPY);
+            first = Math.min(first, position);
+            last = Math.max(last, position + COPY);
+            written.set(slot);
+            secondCopy.set(slot, second);
+        }
+        records.force(first, last - first);
+        Metrics.BYTES_WRITTEN.add((long) slots.size() * COPY);
+    }
+
+    // Puts the record's text where it goes in the copy, appending it to the arena unless it is unchanged, and adds the CRC
+    private ByteBuffer finishCopy(int slot) throws IOException {
+        text.flip();
+        int length = text.remaining();
+        int textPosition = -1;
+        if (written.get(slot)){
+            int current = copyPosition(slot, secondCopy.get(slot) ? 1 : 0);
+            if (records.getInt(current + TEXT_LENGTH) == length
+                    && arena.slice(records.getInt(current + TEXT_POSITION), length).equals(text)){
+                textPosition = records.getInt(current + TEXT_POSITION);
+            }
+        }
+        if (textPosition < 0){
+            textPosition = arenaEnd;
+            ensureArena(arenaEnd + length);
+            arena.put(arenaEnd, text, 0, length);
+            arenaEnd += length;
+            Metrics.BYTES_WRITTEN.add(length);
+        }
+        copy.position(TEXT_POSITION);
+        copy.putInt(textPosition).putInt(length);
+        crc.reset();
+        crc.update(copy.array(), 0, CRC);
+        copy.putInt((int) crc.getValue());
+        return ByteBuffer.wrap(copy.array().clone());
+    }
+
+    // The slot of a person or project, giving it the next free slot if it hasn't been saved before
+    private int slotFor(ProjectRepository.JobNumberIndex slots, int key) throws IOException {
+        int slot = slots.get(key);
+        if (slot == ProjectRepository.JobNumberIndex.NO_SLOT){
+            ensureRecords(slotCount + 1);
+            slot = slotCount++;
+            slots.put(key, slot);
+        }
+        return slot;
+    }
+
+    private void clearCopy(){
+        Arrays.fill(copy.array(), (byte) 0);
+        copy.clear();
+    }
+
+    private void putText(String value) throws IOException {
+        if (value == null){
+            text.putInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (text.remaining() < 4 + bytes.length){
+            throw new IOException("Text of a record is too long to save: " + value.length() + " characters");
+        }
+        text.putInt(bytes.length).put(bytes);
+    }
+
+    // Reads the pieces of text of a record one after another from the arena
+    private String[] readText(int position, int count) throws IOException {
+        String[] values = new String[count];
+        for (int i = 0; i < count; i++){
+            int length = arena.getInt(position);
+            position += 4;
+            if (length < 0){
+                continue;
+            }
+            if (position + length > arena.capacity()){
+                throw new IOException("Text outside the projects string arena at " + position);
+            }
+            byte[] bytes = new byte[length];
+            arena.get(position, bytes);
+            values[i] = new String(bytes, StandardCharsets.UTF_8);
+            position += length;
+        }
+        return values;
+    }
+
+    // Whether a copy has been written and is whole, its CRC matching what was written
+    private boolean isWhole(int position, byte[] bytes){
+        if (records.getLong(position + SEQUENCE) == 0){
+            return false;
+        }
+        records.get(position, bytes);
+        crc.reset();
+        crc.update(bytes, 0, CRC);
+        return (int) crc.getValue() == records.getInt(position + CRC);
+    }
+
+    private int textEnd(int position, long copySequence){
+        return copySequence == 0 ? 0 : records.getInt(position + TEXT_POSITION) + records.getInt(position + TEXT_LENGTH);
+    }
+
+    private static int copyPosition(int slot, int copy){
+        return HEADER + slot * SLOT + copy * COPY;
+    }
+
+    // Maps a bigger records file if the slots don't fit
+    private void ensureRecords(int slots) throws IOException {
+        long needed = HEADER + (long) slots * SLOT;
+        if (needed > records.capacity()){
+            records.force();
+            records = recordChannel.map(FileChannel.MapMode.READ_WRITE, 0, grow(records.capacity(), needed));
+        }
+    }
+
+    // Maps a bigger arena if the text doesn't fit
+    private void ensureArena(long needed) throws IOException {
+        if (needed > arena.capacity()){
+            arena.force();
+            arena = arenaChannel.map(FileChannel.MapMode.READ_WRITE, 0, grow(arena.capacity(), needed));
+        }
+    }
+
+    private long grow(long capacity, long needed) throws IOException {
+        long grown = Math.max(needed, capacity * 2);
+        if (grown > Integer.MAX_VALUE){
+            grown = Integer.MAX_VALUE;
+            if (needed > grown){
+                throw new IOException(file + " is full");
+            }
+        }
+        return grown;
+    }
+
+    @Override
+    public void saveCompleted(Project project, LocalDate date) throws IOException {
+        InvoiceWriter.writeFile(project, date, Path.of(""));
+    }
+
+    /**
+     * Writes the completed project files on a pool of threads, or all of them into one archive.
+     */
+    @Override
+    public void saveCompleted(List<Project> finalised, LocalDate date, Path archive) throws IOException {
+        try (InvoiceWriter invoices = new InvoiceWriter()) {
+            if (archive == null){
+                invoices.writeFiles(finalised, date, Path.of(""));
+            }
+            else {
+                invoices.writeArchive(finalised, date, archive);
+            }
+        }
+    }
+
+    /**
+     * Forces the mappings and closes the files, the mappings are let go when they are garbage collected.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (recordChannel.isOpen()){
+            arena.force();
+            records.force();
+        }
+        arenaChannel.close();
+        recordChannel.close();
+    }
+}
@@ -0,0 +1,246 @@
+import java.beans.ConstructorProperties;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms for the operations of the program, so it can
+ * be seen where the time goes when something is slow.
+ * <p>
+ * Loading, saving, lookups by job number, queries, finalising and the wait for
+ * changes to be saved are each timed in a {@link LatencyHistogram}, and the
+ * records and bytes read and written are counted. Lookups take less time than
+ * reading the clock, so every one is counted but only one in 64 is timed.
+ * Counters are LongAdders, which don't make threads wait for each other, so the
+ * metrics are always on. They can be seen from the show stats menu option,
+ * over JMX and in a text dump written every few seconds when the program is run
+ * with -Dpoised.metrics.dump=&lt;seconds&gt; (to poisedMetrics.log, or the file
+ * given with -Dpoised.metrics.file).
+ *
+ * @author Calum Gilchrist
+ */
+public class Metrics implements MetricsMXBean {
+    /** Reading the people and projects from the store. */
+    public static final LatencyHistogram LOAD = new LatencyHistogram("load");
+    /** Saving changed people and projects to the store. */
+    public static final LatencyHistogram SAVE = new LatencyHistogram("save");
+    /** Finding a project by job number, which is quicker than reading the clock so only some are timed. */
+    public static final LatencyHistogram LOOKUP = new LatencyHistogram("lookup", 64);
+    /** Overdue, unfinished, name and search queries. */
+    public static final LatencyHistogram QUERY = new LatencyHistogram("query");
+    /** Finalising projects and writing their invoices. */
+    public static final LatencyHistogram FINALISE = new LatencyHistogram("finalise");
+    /** From asking for changes to be saved to them being saved by the {@link GroupCommitter}. */
+    public static final LatencyHistogram COMMIT = new LatencyHistogram("commit");
+    private static final LatencyHistogram[] OPERATIONS = {LOAD, SAVE, LOOKUP, QUERY, FINALISE, COMMIT};
+
+    /** People and projects read from the store. */
+    public static final LongAdder RECORDS_LOADED = new LongAdder();
+    /** People and projects written to the store. */
+    public static final LongAdder RECORDS_SAVED = new LongAdder();
+    /** Bytes written to the journal, projects file and invoices. */
+    public static final LongAdder BYTES_WRITTEN = new LongAdder();
+    /** Projects finalised. */
+    public static final LongAdder PROJECTS_FINALISED = new LongAdder();
+    /** Requests to save changes that had to wait because the group commit queue was full. */
+    public static final LongAdder COMMITS_BLOCKED = new LongAdder();
+    /** Displayed projects and invoices found in the {@link RenderCache}. */
+    public static final LongAdder RENDER_CACHE_HITS = new LongAdder();
+    /** Displayed projects and invoices that had to be rendered. */
+    public static final LongAdder RENDER_CACHE_MISSES = new LongAdder();
+    /** Entries dropped from the render cache to make room. */
+    public static final LongAdder RENDER_CACHE_EVICTIONS = new LongAdder();
+
+    private static final Metrics INSTANCE = new Metrics();
+    private static ScheduledExecutorService dumper;
+
+    /**
+     * Registers the metrics with the platform MBean server, reporting rather than
+     * failing if JMX isn't available.
+     */
+    public static void register(){
+        try {
+            ObjectName name = new ObjectName("poised:type=Metrics");
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)){
+                ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, name);
+            }
+        } catch (JMException | SecurityException e) {
+            System.err.println("Unable to register metrics with JMX: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Starts appending the report to a file every few seconds, if asked for with -Dpoised.metrics.dump.
+     */
+    public static synchronized void startDumpIfConfigured(){
+        String seconds = System.getProperty("poised.metrics.dump");
+        if (seconds == null || dumper != null){
+            return;
+        }
+        long period;
+        try {
+            period = Long.parseLong(seconds.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("poised.metrics.dump should be a number of seconds, not " + seconds);
+            return;
+        }
+        Path file = Path.of(System.getProperty("poised.metrics.file", "poisedMetrics.log"));
+        dumper = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(() -> dump(file), period, period, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Appends the report to a file, with the time it was written.
+     *
+     * @param file the file to append to
+     */
+    public static void dump(Path file){
+        try {
+            Files.writeString(file, "----- " + LocalDateTime.now() + " -----\n" + report() + "\n",
+                    StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            System.err.println("Unable to write metrics to " + file);
+        }
+    }
+
+    /**
+     * @return the counters and a line for each operation with its count, mean and percentiles in microseconds
+     */
+    public static String report(){
+        StringBuilder report = new StringBuilder(1024);
+        report.append(String.format("%-10s %10s %10s %10s %10s %10s %10s %10s%n",
+                "operation", "count", "timed", "mean us", "p50 us", "p99 us", "p99.9 us", "max us"));
+        for (LatencyHistogram operation : OPERATIONS){
+            report.append(String.format("%-10s %10d %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n", operation.getName(),
+                    operation.count(), operation.timed(), operation.mean() / 1e3, operation.percentile(0.5) / 1e3,
+                    operation.percentile(0.99) / 1e3, operation.percentile(0.999) / 1e3, operation.max() / 1e3));
+        }
+        for (Map.Entry<String, Long> counter : counters().entrySet()){
+            report.append(String.format("%-20s %,d%n", counter.getKey(), counter.getValue()));
+        }
+        return report.toString();
+    }
+
+    private static Map<String, Long> counters(){
+        Map<String, Long> counters = new LinkedHashMap<>();
+        counters.put("recordsLoaded", RECORDS_LOADED.sum());
+        counters.put("recordsSaved", RECORDS_SAVED.sum());
+        counters.put("bytesWritten", BYTES_WRITTEN.sum());
+        counters.put("projectsFinalised", PROJECTS_FINALISED.sum());
+        counters.put("commitsBlocked", COMMITS_BLOCKED.sum());
+        counters.put("renderCacheHits", RENDER_CACHE_HITS.sum());
+        counters.put("renderCacheMisses", RENDER_CACHE_MISSES.sum());
+        counters.put("renderCacheEvictions", RENDER_CACHE_EVICTIONS.sum());
+        counters.put("renderCacheEntries", (long) RenderCache.shared().count());
+        counters.put("renderCacheChars", RenderCache.shared().size());
+        return counters;
+    }
+
+    @Override
+    public Map<String, Long> getCounters(){
+        return counters();
+    }
+
+    @Override
+    public Map<String, Latency> getLatencies(){
+        Map<String, Latency> latencies = new LinkedHashMap<>();
+        for (LatencyHistogram operation : OPERATIONS){
+            latencies.put(operation.getName(), new Latency(operation.count(), operation.timed(), operation.mean() / 1e3,
+                    operation.percentile(0.5) / 1e3, operation.percentile(0.99) / 1e3,
+                    operation.percentile(0.999) / 1e3, operation.max() / 1e3));
+        }
+        return latencies;
+    }
+
+    @Override
+    public long getRenderCacheCapacity(){
+        return RenderCache.shared().getCapacity();
+    }
+
+    @Override
+    public void setRenderCacheCapacity(long characters){
+        RenderCache.shared().setCapacity(characters);
+    }
+
+    @Override
+    public String getReport(){
+        return report();
+    }
+
+    @Override
+    public void reset(){
+        for (LatencyHistogram operation : OPERATIONS){
+            operation.reset();
+        }
+        RECORDS_LOADED.reset();
+        RECORDS_SAVED.reset();
+        BYTES_WRITTEN.reset();
+        PROJECTS_FINALISED.reset();
+        COMMITS_BLOCKED.reset();
+        RENDER_CACHE_HITS.reset();
+        RENDER_CACHE_MISSES.reset();
+        RENDER_CACHE_EVICTIONS.reset();
+    }
+
+    /**
+     * How often an operation has run and how long it took, in microseconds.
+     */
+    public static class Latency {
+        private final long count;
+        private final long timed;
+        private final double mean;
+        private final double p50;
+        private final double p99;
+        private final double p999;
+        private final double max;
+
+        @ConstructorProperties({"count", "timed", "mean", "p50", "p99", "p999", "max"})
+        public Latency(long count, long timed, double mean, double p50, double p99, double p999, double max){
+            this.count = count;
+            this.timed = timed;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p99 = p99;
+            this.p999 = p999;
+            this.max = max;
+        }
+
+        public long getCount(){
+            return count;
+        }
+        public long getTimed(){
+            return timed;
+        }
+        public double getMean(){
+            return mean;
+        }
+        public double getP50(){
+            return p50;
+        }
+        public double getP99(){
+            return p99;
+        }
+        public double getP999(){
+            return p999;
+        }
+        public double getMax(){
+            return max;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+import java.util.Map;
+
+/**
+ * Management interface for the program's {@link Metrics}, registered as
+ * poised:type=Metrics so it can be read with JConsole or any JMX client.
+ *
+ * @author Calum Gilchrist
+ */
+public interface MetricsMXBean {
+
+    /**
+     * @return the value of each counter, e.g. recordsSaved, by name
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * @return the count and latency percentiles of each timed operation, in microseconds, by name
+     */
+    Map<String, Metrics.Latency> getLatencies();
+
+    /**
+     * @return the number of characters of rendered projects and invoices the render cache can hold
+     */
+    long getRenderCacheCapacity();
+
+    /**
+     * Resizes the render cache, e.g. when the hit and miss counters show it is too small.
+     *
+     * @param characters the number of characters to hold, 0 to stop caching
+     */
+    void setRenderCacheCapacity(long characters);
+
+    /**
+     * @return the same text as the periodic dump and the show stats menu option
+     */
+    String getReport();
+
+    /**
+     * Clears all the counters and histograms.
+     */
+    void reset();
+}
@@ -0,0 +1,264 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Keeps the fee and the payments made for a project in pence, so there are no
+ * rounding errors however many small payments are made.
+ * <p>
+ * Each payment is kept as an entry that never changes, linked to the payment
+ * before it, and holding the fee and the total paid once it was made. Every
+ * change, a payment or the fee or total being corrected, adds an entry with
+ * compare and set rather than locks, so any number of sessions (or the bank feed
+ * in batch mode) can change the same project at once without any change being
+ * lost, and the fee and amount paid are always read from the same entry. The
+ * amount still owed is always available without adding up the payments.
+ * <p>
+ * The projects file only holds the total paid, so the entries are for payments
+ * made since the projects were loaded, and only the most recent {@link #HISTORY}
+ * or so are kept.
+ *
+ * @author Calum Gilchrist
+ */
+public class PaymentLedger {
+    /** Number of the most recent payments that are always kept. */
+    public static final int HISTORY = 256;
+
+    private static final AtomicReferenceFieldUpdater<PaymentLedger, Payment> LATEST =
+            AtomicReferenceFieldUpdater.newUpdater(PaymentLedger.class, Payment.class, "latest");
+
+    // Fee and amount paid in pence when the ledger was made, used until the first entry is added
+    private final long openingFee;
+    private final long openingPaid;
+    // Most recent entry, each entry links to the one before it
+    private volatile Payment latest;
+    // Project the ledger belongs to, told about payments so it is saved, may be null
+    private final Project project;
+
+    /**
+     * Create a ledger that doesn't belong to a project.
+     *
+     * @param fee total fee in pence
+     * @param paid amount already paid in pence
+     */
+    public PaymentLedger(long fee, long paid){
+        this(null, fee, paid);
+    }
+
+    /**
+     * Create a ledger for a project.
+     *
+     * @param project the project the payments are for
+     * @param fee total fee in pence
+     * @param paid amount already paid in pence
+     */
+    public PaymentLedger(Project project, long fee, long paid){
+        this.project = project;
+        this.openingFee = fee;
+        this.openingPaid = paid;
+    }
+
+    /**
+     * Converts an amount in pounds, as entered or saved to file, to pence.
+     *
+     * @param pounds the amount in pounds
+     * @return the amount in pence, rounded to the nearest penny
+     */
+    public static long toPence(double pounds){
+        return Math.round(pounds * 100);
+    }
+
+    /**
+     * Converts an amount in pence back to pounds for display and saving.
+     *
+     * @param pence the amount in pence
+     * @return the amount in pounds
+     */
+    public static double toPounds(long pence){
+        return pence / 100.0;
+    }
+
+    /**
+     * Records a payment.
+     *
+     * @param pence the amount paid in pence
+     */
+    public void record(long pence){
+        long time = System.currentTimeMillis();
+        Payment previous;
+        Payment payment;
+        do {
+            previous = latest;
+            payment = new Payment(pence, time, true, fee(previous), paid(previous) + pence, trim(previous));
+        } while (!LATEST.compareAndSet(this, previous, payment));
+        if (project != null){
+            project.changed();
+        }
+    }
+
+    /**
+     * Records a batch of payments, e.g. from the bank feed. The whole batch is added
+     * to the ledger at once, so the running total is only updated once.
+     *
+     * @param pence the amounts paid in pence, in the order they were made
+     * @param offset position of the first payment in the array
+     * @param count number of payments
+     */
+    public void recordAll(long[] pence, int offset, int count){
+        if (count == 0){
+            return;
+        }
+        long time = System.currentTimeMillis();
+        Payment previous;
+        Payment batch;
+        do {
+            // Entries can't be changed, so the batch is linked up again if another change got in first
+            previous = latest;
+            long fee = fee(previous);
+            long paid = paid(previous);
+            batch = trim(previous);
+            for (int i = offset; i < offset + count; i++){
+                paid += pence[i];
+                batch = new Payment(pence[i], time, true, fee, paid, batch);
+            }
+        } while (!LATEST.compareAndSet(this, previous, batch));
+        if (project != null){
+            project.changed();
+        }
+    }
+
+    /**
+     * @return total fee in pence
+     */
+    public long fee(){
+        return fee(latest);
+    }
+
+    /**
+     * Changes the fee, e.g. when the project is corrected by hand. Payments made at the same time aren't lost.
+     *
+     * @param fee the new total fee in pence
+     */
+    public void setFee(long fee){
+        Payment previous;
+        do {
+            previous = latest;
+        } while (!LATEST.compareAndSet(this, previous,
+                new Payment(0, System.currentTimeMillis(), false, fee, paid(previous), trim(previous))));
+    }
+
+    /**
+     * @return total paid in pence
+     */
+    public long paid(){
+        return paid(latest);
+    }
+
+    /**
+     * Sets the total paid without recording a payment, used when a project is corrected by hand.
+     * Payments recorded after it are added to the new total.
+     *
+     * @param paid the total paid in pence
+     */
+    public void setPaid(long paid){
+        Payment previous;
+        do {
+            previous = latest;
+        } while (!LATEST.compareAndSet(this, previous,
+                new Payment(0, System.currentTimeMillis(), false, fee(previous), paid, trim(previous))));
+    }
+
+    /**
+     * @return the amount still owed in pence, negative if the customer has paid too much
+     */
+    public long outstanding(){
+        // The fee and amount paid from the same entry, so a change between reading them can't be seen half done
+        Payment current = latest;
+        return fee(current) - paid(current);
+    }
+
+    /**
+     * @return the payments among at least the last {@link #HISTORY} changes to the ledger, oldest first
+     */
+    public List<Payment> history(){
+        List<Payment> payments = new ArrayList<>();
+        for (Payment payment = latest; payment != null; payment = payment.previous){
+            if (payment.payment){
+                payments.add(payment);
+            }
+        }
+        Collections.reverse(payments);
+        return payments;
+    }
+
+    private long fee(Payment current){
+        return current == null ? openingFee : current.fee;
+    }
+
+    private long paid(Payment current){
+        return current == null ? openingPaid : current.paid;
+    }
+
+    /**
+     * Gives the entry a new one should link to. Once twice the history has built up
+     * the newest entries are copied into a shorter chain and the rest are left to be
+     * collected, so each entry is copied at most once on average.
+     */
+    private static Payment trim(Payment previous){
+        if (previous == null || previous.length < 2 * HISTORY){
+            return previous;
+        }
+        Payment[] kept = new Payment[HISTORY];
+        Payment entry = previous;
+        for (int i = HISTORY - 1; i >= 0; i--){
+            kept[i] = entry;
+            entry = entry.previous;
+        }
+        Payment copy = null;
+        for (Payment old : kept){
+            copy = new Payment(old.pence, old.time, old.payment, old.fee, old.paid, copy);
+        }
+        return copy;
+    }
+
+    /**
+     * A single payment, or a correction to the fee or total paid, which never changes once it has been recorded.
+     */
+    public static final class Payment {
+        private final long pence;
+        private final long time;
+        // False for a correction, which isn't listed in the history
+        private final boolean payment;
+        // Fee and total paid once this entry was added
+        private final long fee;
+        private final long paid;
+        private final Payment previous;
+        // Number of entries in the chain up to and including this one
+        private final int length;
+
+        Payment(long pence, long time, boolean payment, long fee, long paid, Payment previous){
+            this.pence = pence;
+            this.time = time;
+            this.payment = payment;
+            this.fee = fee;
+            this.paid = paid;
+            this.previous = previous;
+            this.length = previous == null ? 1 : previous.length + 1;
+        }
+
+        /**
+         * @return the amount paid in pence
+         */
+        public long getPence(){
+            return pence;
+        }
+
+        /**
+         * @return when the payment was recorded, in milliseconds since 1970
+         */
+        public long getTime(){
+            return time;
+        }
+    }
+}
@@ -1,3 +1,5 @@
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
 /**
  * Used to create/make changes to people involved in a project.
  *
@@ -5,11 +7,22 @@
  */
 public class Person {
     // Attributes
+    // Id given by the PersonRegistry, used to refer to the person when saving projects
+    int id;
     String role;
     String name;
     String phoneNumber;
     String emailAddress;
     String physicalAddress;
+    // Their name as it is indexed by the project repository, null until it is needed
+    volatile String nameKey;
+    // Registry the person belongs to, told when they change so they are saved
+    PersonRegistry registry;
+    // Number of times the person has changed, and whether they are waiting to be saved (see ChangeSet)
+    volatile long version;
+    volatile int dirty;
+    private static final AtomicLongFieldUpdater<Person> VERSION =
+            AtomicLongFieldUpdater.newUpdater(Person.class, "version");
 
     // Constructor
     /**
@@ -30,23 +43,47 @@ public class Person {
     }
 
     // Setters
+    public void setId(int newId) {
+        id = newId;
+    }
     public void setRole(String newRole) {
-        role = newRole;
+        // The registry finds people by role and name, so it changes the role and its index together
+        if (registry != null){
+            registry.changeRole(this, newRole);
+        }
+        else {
+            role = newRole;
+        }
+        changed();
     }
     public void setName(String newName) {
-        name = newName;
+        // The registry renames the person and updates the indexes of their name together
+        if (registry != null){
+            registry.rename(this, newName);
+        }
+        else {
+            name = newName;
+            nameKey = null;
+        }
+        changed();
     }
     public void setPhoneNumber(String newPhoneNumber) {
         phoneNumber = newPhoneNumber;
+        changed();
     }
     public void setEmailAddress(String newEmailAddress) {
         emailAddress = newEmailAddress;
+        changed();
     }
     public void setPhysicalAddress(String newPhysicalAddress) {
         physicalAddress = newPhysicalAddress;
+        changed();
     }
 
     // Getters
+    public int getId() {
+        return id;
+    }
     public String getRole() {
         return role;
     }
@@ -62,6 +99,19 @@ public class Person {
     public String getPhysicalAddress() {
         return physicalAddress;
     }
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Records that the person has changed so they are saved with the next changes.
+     */
+    void changed(){
+        VERSION.incrementAndGet(this);
+        if (registry != null){
+            registry.changes.personChanged(this);
+        }
+    }
 
     /**
      * * Information about the person formatted to an easily readable format.
@@ -77,4 +127,16 @@ public class Person {
                 "\nAddress:         " + physicalAddress;
 
     }
+
+    /**
+     * Creates a single line String containing all information about the person.
+     * This is saved to file once and projects refer to it by the persons id.
+     *
+     * @return string containing the persons id and details
+     */
+    public String toFile() {
+        StringBuilder line = new StringBuilder(96);
+        ProjectSerializer.appendRecord(this, line);
+        return line.toString();
+    }
 }
@@ -0,0 +1,213 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps a single copy of each person involved in the projects.
+ * <p>
+ * People are found by their role and name, so an architect that works on many
+ * projects is only stored once and every project refers to the same Person.
+ * Each person is also given an id which is used when projects are saved to file.
+ *
+ * @author Calum Gilchrist
+ */
+public class PersonRegistry {
+    // People in the order they were registered
+    private final List<Person> people = new ArrayList<>();
+    // People by their id
+    private final Map<Integer, Person> byId = new HashMap<>();
+    // People by role and name
+    private final Map<String, Person> byRoleAndName = new HashMap<>();
+    private int nextId = 1;
+    // People that have changed and need saving
+    final ChangeSet changes;
+    // Repository whose name indexes are told when someone is renamed, may be null
+    private final ProjectRepository projects;
+
+    public PersonRegistry(){
+        this(new ChangeSet());
+    }
+
+    /**
+     * @param changes where people that change are recorded, usually shared with the project repository
+     */
+    public PersonRegistry(ChangeSet changes){
+        this(changes, null);
+    }
+
+    /**
+     * @param changes where people that change are recorded, usually shared with the project repository
+     * @param projects the repository holding the projects these people are involved in, so its
+     *                 name indexes follow people when they are renamed
+     */
+    public PersonRegistry(ChangeSet changes, ProjectRepository projects){
+        this.changes = changes;
+        this.projects = projects;
+    }
+
+    /**
+     * Returns the registered person with the same role and name, or registers
+     * this person if there isn't one. The details of an existing person are kept.
+     * Someone new is marked as changed so they get saved.
+     *
+     * @param person the person to look for
+     * @return the single shared copy of the person
+     */
+    public synchronized Person intern(Person person){
+        Person existing = byRoleAndName.get(key(person.getRole(), person.getName()));
+        if (existing != null){
+            return existing;
+        }
+        add(person);
+        changes.personChanged(person);
+        return person;
+    }
+
+    /**
+     * Registers a person entered by the user. If they already exist their
+     * contact details are updated to the ones entered.
+     *
+     * @return the single shared copy of the person
+     */
+    public synchronized Person register(String role, String name, String phoneNumber,
+                                        String emailAddress, String physicalAddress){
+        Person existing = byRoleAndName.get(key(role, name));
+        if (existing != null){
+            existing.setPhoneNumber(phoneNumber);
+            existing.setEmailAddress(emailAddress);
+            existing.setPhysicalAddress(physicalAddress);
+            return existing;
+        }
+        Person person = new Person(role, name, phoneNumber, emailAddress, physicalAddress);
+        add(person);
+        changes.personChanged(person);
+        return person;
+    }
+
+    /**
+     * Stores a person read from file. If a person with the same id is already
+     * registered their details are replaced, so every project sees the change.
+     * As the person has just been read they aren't marked as changed.
+     *
+     * @param person the person read from file, with their id set
+     * @return the single shared copy of the person
+     */
+    public synchronized Person put(Person person){
+        Person existing = byId.get(person.getId());
+        if (existing == null){
+            add(person);
+            return person;
+        }
+        // Someone added while loading an older file is already saved once they are found in the store
+        changes.personSaved(existing);
+        String oldName = existing.getName();
+        byRoleAndName.remove(key(existing.getRole(), oldName));
+        existing.role = person.getRole();
+        existing.name = person.getName();
+        existing.nameKey = null;
+        existing.phoneNumber = person.getPhoneNumber();
+        existing.emailAddress = person.getEmailAddress();
+        existing.physicalAddress = person.getPhysicalAddress();
+        byRoleAndName.put(key(existing.getRole(), existing.getName()), existing);
+        if (projects != null){
+            projects.renamePerson(existing, oldName);
+        }
+        return existing;
+    }
+
+    /**
+     * Renames a person, so they are found by their new name here and in the repository's name index.
+     *
+     * @param person the person to rename
+     * @param newName their new name
+     */
+    synchronized void rename(Person person, String newName){
+        String oldName = person.getName();
+        if (byRoleAndName.get(key(person.getRole(), oldName)) == person){
+            byRoleAndName.remove(key(person.getRole(), oldName));
+        }
+        person.name = newName;
+        person.nameKey = null;
+        byRoleAndName.put(key(person.getRole(), newName), person);
+        if (projects != null){
+            projects.renamePerson(person, oldName);
+        }
+    }
+
+    /**
+     * Changes a person's role, so they are found under their new role.
+     *
+     * @param person the person whose role changes
+     * @param newRole their new role
+     */
+    synchronized void changeRole(Person person, String newRole){
+        if (byRoleAndName.get(key(person.getRole(), person.getName())) == person){
+            byRoleAndName.remove(key(person.getRole(), person.getName()));
+        }
+        person.role = newRole;
+        byRoleAndName.put(key(newRole, person.getName()), person);
+    }
+
+    /**
+     * @param id the persons id
+     * @return the person or null if there is no one with that id
+     */
+    public synchronized Person get(int id){
+        return byId.get(id);
+    }
+
+    /**
+     * @param role Architect, Contractor or Customer
+     * @param name the persons name
+     * @return the person or null if there is no one with that role and name
+     */
+    public synchronized Person find(String role, String name){
+        return byRoleAndName.get(key(role, name));
+    }
+
+    /**
+     * @param role Architect, Contractor or Customer
+     * @return every person with that role, in the order they were registered
+     */
+    public synchronized List<Person> withRole(String role){
+        List<Person> matches = new ArrayList<>();
+        for (Person person : people){
+            if (person.getRole().equals(role)){
+                matches.add(person);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * @return every person in the order they were registered
+     */
+    public synchronized List<Person> all(){
+        return Collections.unmodifiableList(new ArrayList<>(people));
+    }
+
+    /**
+     * @return the number of people registered
+     */
+    public synchronized int size(){
+        return people.size();
+    }
+
+    private void add(Person person){
+        // People read from file keep their id, anyone new gets the next free one
+        if (person.getId() == 0){
+            person.setId(nextId);
+        }
+        nextId = Math.max(nextId, person.getId() + 1);
+        person.registry = this;
+        people.add(person);
+        byId.put(person.getId(), person);
+        byRoleAndName.put(key(person.getRole(), person.getName()), person);
+    }
+
+    private static String key(String role, String name){
+        return role + '\u0000' + name;
+    }
+}
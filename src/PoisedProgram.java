@@ -1,10 +1,18 @@
 import java.io.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.InputMismatchException;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Scanner;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Predicate;
 
 /**
  * <H1>Poised Program</H1>
@@ -15,36 +23,117 @@ import java.util.Scanner;
  * · Add new projects to their folio of work
  * · Make modifications to existing projects/contractors
  * · View overdue and unfinished projects
+ * · Search for projects by name, address or ERF number
  * · Finalise projects
+ * · Serve the projects to the site offices' own tools over HTTP
  * <P>
  * It will read existing projects from a text file and save any changes
- * to the projects text file. It also creates an Array to store projects in.
+ * to a journal that is folded back into the projects text file, or keep them in a database
+ * if one is given. Projects are stored in a repository that indexes
+ * them by their job number.
  *
  * @author Calum Gilchrist
  * @version 1.0
  */
 public class PoisedProgram {
-    // List to store Project objects that is dynamically extended as new objects are added
-    static LinkedList<Project> projectList = new LinkedList<>();
+    // People and projects that have changed since they were last saved
+    static final ChangeSet changes = new ChangeSet();
+    // Repository that stores the Project objects and indexes them by job number
+    static ProjectRepository projects = new ProjectRepository(changes);
+    // Registry that keeps one shared copy of each person involved in the projects
+    static PersonRegistry people = new PersonRegistry(changes, projects);
+    // Where the people and projects are saved, the projects text file unless a database url is given
+    // with -Dpoised.db (and -Dpoised.db.user / -Dpoised.db.password if it needs them), or a records
+    // file to memory map with -Dpoised.mapped
+    static ProjectStore store;
+    // Saves changes on a thread of its own, grouping those made close together, once the projects are loaded
+    static GroupCommitter committer;
     // scanner to get user input
     public static final Scanner sc = new Scanner(System.in);
+    // Format dates are entered and saved in, created once as it is used for every project
+    static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+    // Projects with nothing left to pay, for finalising in bulk
+    static final Predicate<Project> FULLY_PAID = project -> project.getLedger().outstanding() <= 0;
+    // Number of projects shown at a time when viewing overdue or unfinished projects
+    static final int REPORT_PAGE_SIZE = 20;
     /**
      * Will run the methods to read the projects from file into the program
-     * before running the main menu method
+     * before running the main menu method.
+     * <p>
+     * Started with "--batch file" (or "--batch -" for standard input) it will
+     * instead apply the commands in the file and exit, see {@link BatchRunner}.
+     * Started with "--serve [port]" it will serve the projects over HTTP until
+     * it is stopped, see {@link ProjectServer}.
      */
     public static void main(String[] args) {
         /*
          * This will run the display menu method and then whatever other
          * method is required based on the users choice
          */
+        try {
+            store = openStore();
+        } catch (IOException e) {
+            System.err.println("Error opening projects store: " + e.getMessage());
+            return;
+        }
+        // the metrics can be read over JMX, and dumped to a file if asked for
+        Metrics.register();
+        Metrics.startDumpIfConfigured();
         // reads existing projects from the text file into the program
         readFromFile();
+        // changes are saved from here on without the menu waiting for them
+        committer = new GroupCommitter(store, changes);
+        if (args.length == 2 && args[0].equals("--batch")) {
+            BatchRunner.run(args[1]);
+            writeToFile();
+            return;
+        }
+        if (args.length >= 1 && args[0].equals("--serve")) {
+            serve(args.length > 1 ? Integer.parseInt(args[1]) : 8080);
+            return;
+        }
         mainMenu(sc);
     }
+    /**
+     * Serves the projects over HTTP on localhost, saving everything and closing the store when the program is stopped.
+     *
+     * @param port the port to serve on
+     */
+    private static void serve(int port){
+        ProjectServer server;
+        try {
+            server = new ProjectServer(port);
+        } catch (IOException e) {
+            System.err.println("Unable to serve on port " + port + ": " + e.getMessage());
+            writeToFile();
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            writeToFile();
+        }));
+        System.out.println("Serving projects on http://localhost:" + server.getPort() + "/projects, press Ctrl+C to stop");
+    }
+    /**
+     * Opens the database store if a url has been given, the memory mapped store if a records
+     * file has been given (made from the projects text file the first time), otherwise the projects text file.
+     */
+    static ProjectStore openStore() throws IOException {
+        String url = System.getProperty("poised.db");
+        String mapped = System.getProperty("poised.mapped");
+        if (url == null && mapped != null){
+            return new MappedProjectStore(Paths.get(mapped), Paths.get("poisedProjects.txt"));
+        }
+        if (url == null){
+            return new TextProjectStore(Paths.get("poisedProjects.txt"));
+        }
+        return new JdbcProjectStore(url, System.getProperty("poised.db.user"), System.getProperty("poised.db.password"));
+    }
     /**
      * Gets the users choice from the displayed menu method and then triggers
-     * the appropriate action. It will write projects to file when the
-     * user chooses to 'exit'.
+     * the appropriate action. Each action returns here when it is finished so
+     * the menu can run for any number of actions. It will write projects to
+     * file and return when the user chooses to 'exit'.
      */
     public static void mainMenu(Scanner sc){
         // Menu loop
@@ -86,10 +175,18 @@ public class PoisedProgram {
                     System.out.println("----- Finalise project -----");
                     finaliseProject();
                 }
+                case "10" -> {
+                    System.out.println("----- Search projects -----");
+                    searchProjects();
+                }
+                case "11" -> {
+                    System.out.println("----- Stats -----");
+                    showStats();
+                }
                 case "9" -> {
                     System.out.println("exiting program, goodbye");
                     writeToFile();
-                    System.exit(0);
+                    return;
                 }
                 default -> System.out.println("Menu choice not recognised." +
                         "\nEnter your choice again");
@@ -112,6 +209,8 @@ public class PoisedProgram {
         System.out.println("7. View unfinished Projects");
         System.out.println("8. Finalise a project");
         System.out.println("9. Exit");
+        System.out.println("10. Search projects");
+        System.out.println("11. Show stats");
         System.out.println("====================");
         System.out.print("Enter choice: ");
     }
@@ -122,6 +221,17 @@ public class PoisedProgram {
      * It will also display the project on the screen when it has been created.
      */
     public static void addProject() {
+        // Asks for the project again until it has been entered correctly
+        while (!enterProject()) {
+            System.out.println("Please enter the project information again.");
+        }
+    }
+    /**
+     * Gathers the information for a new project from the user and adds it.
+     *
+     * @return true if the project was added, false if something was entered incorrectly
+     */
+    private static boolean enterProject() {
         /*
         This will gather all the required data to create a new project
         and then add the Project to the Project list
@@ -131,6 +241,11 @@ public class PoisedProgram {
             System.out.print("Project number: ");
             int jobNumber = sc.nextInt();
             sc.nextLine();
+            // Job numbers have to be unique so they can be used to look up the project
+            if (projects.contains(jobNumber)){
+                System.out.println("Project number " + jobNumber + " already exists.");
+                return false;
+            }
             System.out.print("Project name: ");
             String jobName = sc.nextLine();
             System.out.print("Building type: ");
@@ -156,16 +271,18 @@ public class PoisedProgram {
             // Create the project object
             Project newJob = new Project(jobNumber,jobName,buildType,physicalAddress,erfNumber,totalFee,
                     totalPaid,deadline,architect,contractor,customer,completed);
-            // Adds project to the list
-            // currently adding the toString() method of the project object, want all information added.
-            projectList.add(newJob);
+            // Adds project to the repository, as it is new it has to be saved along with any new people
+            projects.add(newJob);
+            changes.projectChanged(newJob);
+            saveChanges();
             System.out.print(newJob);
             System.out.print(newJob.toFile());
+            return true;
         }
         catch (InputMismatchException ime){
-            System.out.println("Incorrect input type, please enter the project information again.");
-            sc.next();
-            addProject();
+            System.out.println("Incorrect input type.");
+            sc.nextLine();
+            return false;
         }
 
     }
@@ -177,10 +294,8 @@ public class PoisedProgram {
     public static LocalDate getDate(String date){
         LocalDate dateFormatted = null;
         try {
-            //Create the DateTimeFormatter matching the input string format
-            DateTimeFormatter format = DateTimeFormatter.ofPattern("dd/MM/yyyy");
-            //Using parse method to convert the string to LocalDate object
-            dateFormatted = LocalDate.parse(date, format);
+            //Using parse method with the dd/MM/yyyy formatter to convert the string to LocalDate object
+            dateFormatted = LocalDate.parse(date, DATE_FORMAT);
         }
         // If the String pattern is invalid or unable to be parsed
         catch (IllegalArgumentException | DateTimeParseException e) {
@@ -190,7 +305,8 @@ public class PoisedProgram {
     }
     /**
      *  Creates a person.
-     *  This will gather the information about the person from the user
+     *  This will gather the information about the person from the user. If the person
+     *  is already registered their details are updated and the shared copy is used.
      * @param role passes whether it is Architect, Contractor or Customer
      * @return the Person object
      */
@@ -209,7 +325,7 @@ public class PoisedProgram {
         System.out.print("Address: ");
         String personPhysicalAddress = sc.nextLine();
 
-        return new Person(role,personName,personNumber,personEmailAddress,personPhysicalAddress);
+        return people.register(role,personName,personNumber,personEmailAddress,personPhysicalAddress);
     }
     /**
      * Modifies the due date of a selected project
@@ -225,28 +341,25 @@ public class PoisedProgram {
             // "If" will run as long as number entered isn't 0, otherwise "else" will return to main menu
             if (jobNumberToAmend == 0){
                 System.out.println("Returning to main menu.");
-                mainMenu(sc);
             }
             else {
-                // Iterates through the Project list till the Project numbers match and then
+                // Looks the project up from its number and then
                 // gets the new due date from the user and amends the Project
-                for (Project newJob : projectList) {
-                    if (newJob.getJobNumber() == jobNumberToAmend) {
-                        System.out.print("New due date (dd/mm/yyyy): ");
-                        String date = sc.nextLine();
-                        LocalDate newDueDate = getDate(date);
-                        newJob.setDeadline(newDueDate);
-                        // saves the changes to file
-                        writeToFile();
-                        System.out.println("Due date updated. Returning to main menu.");
-                        mainMenu(sc);
-                    }
+                Project newJob = projects.find(jobNumberToAmend);
+                if (newJob != null) {
+                    System.out.print("New due date (dd/mm/yyyy): ");
+                    String date = sc.nextLine();
+                    LocalDate newDueDate = getDate(date);
+                    newJob.setDeadline(newDueDate);
+                    // saves the changes to file
+                    saveChanges();
+                    System.out.println("Due date updated. Returning to main menu.");
                 }
             }
         }
         catch (InputMismatchException ime) {
             System.out.println("Project number not recognised. Returning to main menu.");
-            mainMenu(sc);
+            sc.nextLine();
         }
     }
     /**
@@ -260,23 +373,22 @@ public class PoisedProgram {
         System.out.print("Project number you wish to update payment for: ");
         int jobNumberToAmend = sc.nextInt();
         sc.nextLine();
-        // Iterates through the Project list till the Project numbers match then
+        // Looks the project up from its number then
         // gets the amount from the user that has to be added to the paid amount
         // before updating this for the project.
-        for (Project newJob : projectList) {
-            if (newJob.getJobNumber() == jobNumberToAmend) {
-                System.out.print("Amount to add to paid amount: ");
-                double newPayment = sc.nextDouble();
-                double newAmountPaid = newJob.getTotalPaid() + newPayment;
-                newJob.setTotalPaid(newAmountPaid);
-                // Displays amount paid and still owed
-                System.out.println("Total amount Paid: £" + newJob.getTotalPaid());
-                System.out.println("Total still owed:  £" + (newJob.getTotalFee()-newJob.getTotalPaid()));
-                // saves the changes to file
-                writeToFile();
-                // prompt to return to main menu
-                promptEnterKey(sc);
-            }
+        Project newJob = projects.find(jobNumberToAmend);
+        if (newJob != null) {
+            System.out.print("Amount to add to paid amount: ");
+            double newPayment = sc.nextDouble();
+            sc.nextLine();
+            addPayment(newJob, newPayment);
+            // Displays amount paid and still owed
+            System.out.println("Total amount Paid: £" + newJob.getTotalPaid());
+            System.out.println("Total still owed:  £" + PaymentLedger.toPounds(newJob.getLedger().outstanding()));
+            // saves the changes to file
+            saveChanges();
+            // prompt to return to main menu
+            promptEnterKey(sc);
         }
     }
     /**
@@ -287,32 +399,30 @@ public class PoisedProgram {
         Update a contractors details from their name
          */
         System.out.println("----Current Contractors----\n");
-        for (Project newJob : projectList){
-            System.out.println(newJob.getContractor().getName());
+        // the name index lists each contractor working on a project once
+        for (String contractor : projects.names("Contractor")){
+            System.out.println(contractor);
         }
         System.out.print("Type the name of the contractor you wish to update the contact details for" +
                 " as it appears above: ");
         String contractorName = sc.nextLine();
-        // Iterates through the Project list till the Contractor name matches
-        // then gets the new contact information from the user before
-        // writing this to the Contractor object.
-        for (Project newJob : projectList) {
-            if (newJob.getContractor().getName().equals(contractorName)) {
-                System.out.print("Phone number: ");
-                String newNumber = sc.nextLine();
-                System.out.print("Email: ");
-                String newEmailAddress = sc.nextLine();
-                System.out.print("Address: ");
-                String newPhysicalAddress = sc.nextLine();
+        // Every project shares the same Contractor object, so the new contact
+        // information only has to be written to it once.
+        if (findContractor(contractorName) != null) {
+            System.out.print("Phone number: ");
+            String newNumber = sc.nextLine();
+            System.out.print("Email: ");
+            String newEmailAddress = sc.nextLine();
+            System.out.print("Address: ");
+            String newPhysicalAddress = sc.nextLine();
 
-                newJob.getContractor().setPhoneNumber(newNumber);
-                newJob.getContractor().setEmailAddress(newEmailAddress);
-                newJob.getContractor().setPhysicalAddress(newPhysicalAddress);
-            }
+            updateContractor(contractorName, newNumber, newEmailAddress, newPhysicalAddress);
+            // saves the changes to file
+            saveChanges();
+        }
+        else {
+            System.out.println("Contractor " + contractorName + " not found.");
         }
-        // saves the changes to file
-        writeToFile();
-        mainMenu(sc);
     }
     /**
      * Make amendments to elements of the project
@@ -328,116 +438,150 @@ public class PoisedProgram {
             sc.nextLine();
             // "If" will run as long as number entered isn't 0, otherwise "else" will return to main menu
             if (jobNumberToAmend!=0){
-                // Iterates through the Project list till the Project numbers match and then
+                // Looks the project up from its number and then
                 // gets the new due date from the user and amends the Project
-                for (Project newJob : projectList) {
-                    if (newJob.getJobNumber() == jobNumberToAmend) {
-                        System.out.print("What do you wish to amend?: ");
-                        System.out.println("1. Project Name");
-                        System.out.println("2. Build Type");
-                        System.out.println("3. Address");
-                        System.out.println("4. ERF Number");
-                        System.out.println("5. Total Fee");
-                        System.out.println("6. Return to main menu");
-                        // message that is used after changes made to project
-                        String main = "returning to main menu";
-                        // Menu loop
-                        while(true){
-                            // get users choice
-                            String menuChoice = sc.nextLine();
-                            switch (menuChoice) {
-                                case "1" -> {
-                                    System.out.println("Enter new name for the project:");
-                                    String jobName = sc.nextLine();
-                                    newJob.setJobName(jobName);
-                                    writeToFile();
-                                    System.out.println("Name updated.");
-                                    System.out.println(main);
-                                    mainMenu(sc);
-                                }
-                                case "2" -> {
-                                    System.out.println("Enter the new build type:");
-                                    String buildType = sc.nextLine();
-                                    newJob.setBuildType(buildType);
-                                    writeToFile();
-                                    System.out.println("Type updated.");
-                                    System.out.println(main);
-                                    mainMenu(sc);
-                                }
-                                case "3" -> {
-                                    System.out.println("Enter the new address:");
-                                    String jobAddress = sc.nextLine();
-                                    newJob.setPhysicalAddress(jobAddress);
-                                    writeToFile();
-                                    System.out.println("Address updated.");
-                                    System.out.println(main);
-                                    mainMenu(sc);
-                                }
-                                case "4" -> {
-                                    System.out.println("Enter the new ERF number:");
-                                    int erfNumber = sc.nextInt();
-                                    newJob.setErfNumber(erfNumber);
-                                    writeToFile();
-                                    System.out.println("ERF updated.");
-                                    System.out.println(main);
-                                    mainMenu(sc);
-                                }
-                                case "5" -> {
-                                    System.out.println("Enter the new total fee:");
-                                    double jobFee = sc.nextDouble();
-                                    newJob.setTotalFee(jobFee);
-                                    writeToFile();
-                                    System.out.println("Total Fee updated.");
-                                    System.out.println(main);
-                                    mainMenu(sc);
-                                } case "6" ->{
-                                    System.out.println(main);
-                                    mainMenu(sc);
-                                }
-                                default -> System.out.println("Menu choice not recognised." +
-                                        "\nEnter your choice again");
+                Project newJob = projects.find(jobNumberToAmend);
+                if (newJob != null) {
+                    System.out.print("What do you wish to amend?: ");
+                    System.out.println("1. Project Name");
+                    System.out.println("2. Build Type");
+                    System.out.println("3. Address");
+                    System.out.println("4. ERF Number");
+                    System.out.println("5. Total Fee");
+                    System.out.println("6. Return to main menu");
+                    // message that is used after changes made to project
+                    String main = "returning to main menu";
+                    // Menu loop
+                    while(true){
+                        // get users choice
+                        String menuChoice = sc.nextLine();
+                        switch (menuChoice) {
+                            case "1" -> {
+                                System.out.println("Enter new name for the project:");
+                                String jobName = sc.nextLine();
+                                newJob.setJobName(jobName);
+                                saveChanges();
+                                System.out.println("Name updated.");
+                                System.out.println(main);
+                                return;
+                            }
+                            case "2" -> {
+                                System.out.println("Enter the new build type:");
+                                String buildType = sc.nextLine();
+                                newJob.setBuildType(buildType);
+                                saveChanges();
+                                System.out.println("Type updated.");
+                                System.out.println(main);
+                                return;
                             }
+                            case "3" -> {
+                                System.out.println("Enter the new address:");
+                                String jobAddress = sc.nextLine();
+                                newJob.setPhysicalAddress(jobAddress);
+                                saveChanges();
+                                System.out.println("Address updated.");
+                                System.out.println(main);
+                                return;
+                            }
+                            case "4" -> {
+                                System.out.println("Enter the new ERF number:");
+                                int erfNumber = sc.nextInt();
+                                sc.nextLine();
+                                newJob.setErfNumber(erfNumber);
+                                saveChanges();
+                                System.out.println("ERF updated.");
+                                System.out.println(main);
+                                return;
+                            }
+                            case "5" -> {
+                                System.out.println("Enter the new total fee:");
+                                double jobFee = sc.nextDouble();
+                                sc.nextLine();
+                                newJob.setTotalFee(jobFee);
+                                saveChanges();
+                                System.out.println("Total Fee updated.");
+                                System.out.println(main);
+                                return;
+                            } case "6" ->{
+                                System.out.println(main);
+                                return;
+                            }
+                            default -> System.out.println("Menu choice not recognised." +
+                                    "\nEnter your choice again");
                         }
                     }
                 }
             } else {
                 System.out.println("Returning to main menu.");
-                mainMenu(sc);
             }
         }
         catch (InputMismatchException ime) {
             System.out.println("Project number not recognised. Returning to main menu.");
-            sc.next();
-        }
-        finally{
-            mainMenu(sc);
+            sc.nextLine();
         }
     }
     /**
-     * Displays all the projects that their due dates have passed.
+     * Displays all the unfinished projects that their due dates have passed.
      */
     public static void viewOverdueProjects(){
-        // creates today's date as a variable
-        LocalDate todayDate = LocalDate.now();
-        // iterates through the projects list and if the due date has passed the project will be displayed
-        for (Project newJob : projectList) {
-            if (todayDate.isAfter(newJob.getDeadline())){
-                System.out.println(newJob);
-                System.out.println("------------------------");
-            }
-        }
-        promptEnterKey(sc);
+        // the deadline index gives the projects whose due date has passed, as of today
+        showReport(new ProjectReport(projects).overdue(LocalDate.now()), "Total overdue projects: ");
     }
     /**
      * Displays the projects which are marked unfinished.
      */
     public static void viewUnfinishedProjects(){
-        // iterates through the projects list and if the due date has passed the project will be displayed
-        for (Project newJob : projectList) {
-            if (!newJob.completed){
-                System.out.println(newJob);
-                System.out.println("------------------------");
+        // the status bitmap gives the unfinished projects so completed ones are never looked at
+        showReport(new ProjectReport(projects).unfinished(), "Total unfinished projects: ");
+    }
+    /**
+     * Finds projects from part of their name, address, build type or ERF number,
+     * for when the project number isn't known.
+     */
+    public static void searchProjects(){
+        System.out.print("Search for (part of the job name, address, build type or ERF number): ");
+        String query = sc.nextLine();
+        // the search index allows for the start of words and small typos
+        showReport(new ProjectReport(projects).search(query), "Projects found: ");
+    }
+    /**
+     * Displays how many times loading, saving, lookups, queries and finalising have
+     * run and how long they took, along with the records and bytes written.
+     */
+    public static void showStats(){
+        System.out.print(Metrics.report());
+        promptEnterKey(sc);
+    }
+    /**
+     * Displays a report a page at a time, followed by the number of projects in it
+     * and the amount still owed on them.
+     *
+     * @param report the projects to display
+     * @param total label for the number of projects
+     */
+    public static void showReport(ProjectReport report, String total){
+        // Written through a buffer rather than a println for every line, System.out is flushed but not closed
+        Writer console = new BufferedWriter(new OutputStreamWriter(System.out));
+        try {
+            long count = report.count();
+            for (int page = 0; (long) page * REPORT_PAGE_SIZE < count; page++){
+                report.page(page, REPORT_PAGE_SIZE).write(ReportFormat.CONSOLE, console);
+                console.flush();
+                if ((long) (page + 1) * REPORT_PAGE_SIZE < count){
+                    System.out.println("Press \"ENTER\" for the next page or \"q\" to stop...");
+                    if (sc.nextLine().trim().equalsIgnoreCase("q")){
+                        break;
+                    }
+                }
             }
+            console.write(total + count + "\n");
+            console.write("Amount outstanding: £");
+            StringBuilder outstanding = new StringBuilder();
+            ReportFormat.appendPounds(report.totalOutstanding(), outstanding);
+            console.append(outstanding).append('\n');
+            console.flush();
+        } catch (IOException e) {
+            System.err.println("Error displaying projects");
         }
         promptEnterKey(sc);
     }
@@ -451,106 +595,295 @@ public class PoisedProgram {
         System.out.print("Project number you wish to finalise: ");
         int jobNumberToFinalise = sc.nextInt();
         sc.nextLine();
-        // Iterates through the Project list till the Project numbers match
+        // Looks the project up from its number
         // then displays all required information
-        for (Project newJob : projectList) {
-            if (newJob.getJobNumber() == jobNumberToFinalise) {
-                System.out.println("----- Finalised Project -----");
-                System.out.println(newJob.getCustomer());
-                newJob.setCompleted(true);
-                // calculates the amount still owed
-                double amountOwed = newJob.getTotalFee() - newJob.getTotalPaid();
-                if (amountOwed > 0) {
-                    // if total owed is more than zero it will show amount owed
-                    System.out.println("Amount still to be paid: £" + amountOwed);
+        Project newJob = projects.find(jobNumberToFinalise);
+        if (newJob != null) {
+            // Gets the completion date (today's date), marks the project completed and writes the invoice
+            LocalDate date = LocalDate.now();
+            // Checked and finalised under the project's lock so a server request can't finalise it at the same time
+            double[] owed = new double[1];
+            boolean[] finalised = new boolean[1];
+            projects.update(jobNumberToFinalise, finalising -> {
+                if (!finalising.getCompleted()){
+                    owed[0] = finalise(finalising, date);
+                    finalised[0] = true;
                 }
-                else{
-                    System.out.println("Fully Paid");
-                }
-                // Gets and displays the completion date (today's date)
-                LocalDate date = LocalDate.now();
-                // sets the format of how the date will display
-                DateTimeFormatter format = DateTimeFormatter.ofPattern("dd/MM/yyyy");
-                System.out.println("Completion date: " + date.format(format));
-                // write to file
-                finalisedToFile(newJob,date);
+            });
+            if (!finalised[0]){
+                // Finalising it again would write a second invoice
+                System.out.println("Project number " + jobNumberToFinalise + " is already finalised.");
                 promptEnterKey(sc);
-                mainMenu(sc);
+                return;
+            }
+            double amountOwed = owed[0];
+            saveChanges();
+            System.out.println("----- Finalised Project -----");
+            System.out.println(newJob.getCustomer());
+            if (amountOwed > 0) {
+                // if total owed is more than zero it will show amount owed
+                System.out.println("Amount still to be paid: £" + amountOwed);
             }
+            else{
+                System.out.println("Fully Paid");
+            }
+            // Displays the completion date
+            System.out.println("Completion date: " + date.format(DATE_FORMAT));
+            promptEnterKey(sc);
         }
     }
     /**
-     * Reads existing projects from the text file where they are stored and
-     * creates object for them adding to the Project List.
+     * Adds a payment to the amount paid for a project.
+     * Used by both the menu and batch mode.
+     *
+     * @param project the project being paid for
+     * @param payment the amount paid
+     */
+    static void addPayment(Project project, double payment){
+        // The ledger adds payments atomically so payments made by two sessions at once aren't lost
+        project.getLedger().record(PaymentLedger.toPence(payment));
+    }
+    /**
+     * Updates the contact details of a contractor. Used by both the menu and batch mode.
+     *
+     * @param name the contractors name
+     * @return the updated contractor or null if there is no contractor with that name
+     */
+    static Person updateContractor(String name, String phoneNumber, String emailAddress, String physicalAddress){
+        Person contractor = findContractor(name);
+        if (contractor != null) {
+            // the details are changed together so two updates at once (e.g. from the server) don't mix
+            synchronized (contractor) {
+                contractor.setPhoneNumber(phoneNumber);
+                contractor.setEmailAddress(emailAddress);
+                contractor.setPhysicalAddress(physicalAddress);
+            }
+        }
+        return contractor;
+    }
+    /**
+     * Finds a contractor by name, falling back to the name index so case and spacing don't have to match.
+     *
+     * @param name the contractors name
+     * @return the contractor or null if there is no contractor with that name
+     */
+    static Person findContractor(String name){
+        Person contractor = people.find("Contractor", name);
+        return contractor != null ? contractor : projects.findPerson("Contractor", name);
+    }
+    /**
+     * Marks a project as completed and writes its invoice. Used by both the menu and batch mode.
+     *
+     * @param project the project to finalise
+     * @param date the completion date
+     * @return the amount still owed by the customer
+     */
+    static double finalise(Project project, LocalDate date){
+        long start = System.nanoTime();
+        project.setCompleted(true);
+        finalisedToFile(project, date);
+        Metrics.FINALISE.recordSince(start);
+        Metrics.PROJECTS_FINALISED.increment();
+        // the amount still owed comes from the running totals in the ledger
+        return PaymentLedger.toPounds(project.getLedger().outstanding());
+    }
+    /**
+     * Finalises every unfinished project that passes a check, e.g. {@link #FULLY_PAID}.
+     *
+     * @param which the check, the unfinished projects are read from the status bitmap
+     * @param date the completion date
+     * @param archive file to write all the invoices to, or null for a file each
+     * @return the projects that were finalised
+     */
+    static List<Project> finaliseAll(Predicate<Project> which, LocalDate date, Path archive){
+        List<Project> candidates = new ArrayList<>();
+        for (Project project : projects.unfinished()) {
+            if (which.test(project)) {
+                candidates.add(project);
+            }
+        }
+        return finaliseProjects(candidates, which, date, archive);
+    }
+    /**
+     * Finalises a set of projects by job number, any that are unknown or already finalised are skipped.
+     *
+     * @param jobNumbers the projects to finalise
+     * @param date the completion date
+     * @param archive file to write all the invoices to, or null for a file each
+     * @return the projects that were finalised
+     */
+    static List<Project> finaliseAll(Collection<Integer> jobNumbers, LocalDate date, Path archive){
+        List<Project> candidates = new ArrayList<>();
+        for (int jobNumber : new TreeSet<>(jobNumbers)) {
+            Project project = projects.find(jobNumber);
+            if (project != null && !project.getCompleted()) {
+                candidates.add(project);
+            }
+        }
+        return finaliseProjects(candidates, project -> true, date, archive);
+    }
+    /**
+     * Marks the projects completed, then writes all their invoices in one go and saves the changes once.
+     * Each project is checked again and marked under its lock, as another session may have finalised or
+     * changed it since it was picked, so no project is finalised twice.
+     */
+    private static List<Project> finaliseProjects(List<Project> candidates, Predicate<Project> which,
+                                                  LocalDate date, Path archive){
+        long start = System.nanoTime();
+        List<Project> finalised = new ArrayList<>(candidates.size());
+        for (Project candidate : candidates) {
+            projects.update(candidate.getJobNumber(), project -> {
+                if (!project.getCompleted() && which.test(project)) {
+                    project.setCompleted(true);
+                    finalised.add(project);
+                }
+            });
+        }
+        try {
+            store.saveCompleted(finalised, date, archive);
+        } catch (IOException e) {
+            System.err.println("Error writing completed projects: " + e.getMessage());
+        }
+        saveChanges();
+        Metrics.FINALISE.recordSince(start);
+        Metrics.PROJECTS_FINALISED.add(finalised.size());
+        return finalised;
+    }
+    /**
+     * Reads existing people and projects from the store, the projects text file
+     * unless a database has been chosen, and adds them to the repository.
      */
     private static void readFromFile(){
-        /*
-        This method will read through the text file and add each project that exists in it to the Project List
-         */
+        long start = System.nanoTime();
         try {
-            BufferedReader reader = new BufferedReader(new FileReader("poisedProjects.txt"));
-            String project;
-            // reads each line of the text file, splits it and then uses each array to create project objects
-            while((project = reader.readLine()) != null) {
-                // Splits each line into an Array so Project objects can then be created from it
-                String[] pj = project.split("\\|");
-                // create each "Person" so they can be added to the project object in the next step
-                Person architect = new Person(pj[8],pj[9],pj[10],pj[11],pj[12]);
-                Person contractor = new Person(pj[13],pj[14],pj[15],pj[16],pj[17]);
-                Person customer = new Person(pj[18],pj[19],pj[20],pj[21],pj[22]);
-                // converts the string date to a date format so calculations can be done on it
-                LocalDate dueDate = getDate(pj[7]);
-                // checks if project is completed and sets true or false
-                boolean completed;
-                if(pj[23].equals("true")){
-                    completed = true;
-                }else{
-                    completed=false;
-                }
-
-                // Create the project object, some array elements are converted to Integer or Double from a String
-                Project existingJob = new Project(Integer.parseInt(pj[0]),pj[1],pj[2],pj[3],Integer.parseInt(pj[4]),
-                        Double.parseDouble(pj[5]),Double.parseDouble(pj[6]),dueDate,
-                        architect,contractor,customer,completed);
-                // Adds project to the list
-                // currently adding the toString() method of the project object, want all information added.
-                projectList.add(existingJob);
-            }
-            reader.close();
+            store.load(people, projects);
         } catch (IOException e) {
-            // In case no file exists this will display.
-            System.err.println("No existing projects file found.");
+            System.err.println("Error reading projects: " + e.getMessage());
         }
+        Metrics.LOAD.recordSince(start);
+        Metrics.RECORDS_LOADED.add(people.size() + projects.size());
     }
     /**
-     * Writes the projects stored in the Project List to file.
+     * Creates a project from a line of the projects text file.
+     *
+     * @param project the line from the text file
+     * @return the Project object
+     */
+    static Project parseProject(String project){
+        return parseProject(project, people);
+    }
+    /**
+     * Creates a project from a line of the projects text file, with its people from a registry.
+     *
+     * @param project the line from the text file
+     * @param people the people the project's ids refer to, where people in the older format are registered
+     * @return the Project object
+     */
+    static Project parseProject(String project, PersonRegistry people){
+        // Splits each line into an Array so Project objects can then be created from it
+        String[] pj = project.split("\\|");
+        if (pj.length == ProjectFileLoader.FIELD_COUNT){
+            // The people are referred to by their id
+            return new Project(Integer.parseInt(pj[0]),pj[1],pj[2],pj[3],Integer.parseInt(pj[4]),
+                    Double.parseDouble(pj[5]),Double.parseDouble(pj[6]),getDate(pj[7]),
+                    knownPerson(people, pj[8]),knownPerson(people, pj[9]),knownPerson(people, pj[10]),pj[11].equals("true"));
+        }
+        // Older format lines have every detail of each "Person", the shared copy is used if they already exist
+        Person architect = people.intern(new Person(pj[8],pj[9],pj[10],pj[11],pj[12]));
+        Person contractor = people.intern(new Person(pj[13],pj[14],pj[15],pj[16],pj[17]));
+        Person customer = people.intern(new Person(pj[18],pj[19],pj[20],pj[21],pj[22]));
+        // converts the string date to a date format so calculations can be done on it
+        LocalDate dueDate = getDate(pj[7]);
+        // checks if project is completed and sets true or false
+        boolean completed;
+        if(pj[23].equals("true")){
+            completed = true;
+        }else{
+            completed=false;
+        }
+
+        // Create the project object, some array elements are converted to Integer or Double from a String
+        return new Project(Integer.parseInt(pj[0]),pj[1],pj[2],pj[3],Integer.parseInt(pj[4]),
+                Double.parseDouble(pj[5]),Double.parseDouble(pj[6]),dueDate,
+                architect,contractor,customer,completed);
+    }
+    /**
+     * Creates a person from a person line of the projects text file.
+     *
+     * @param person the line from the text file
+     * @return the Person object with its id set
+     */
+    static Person parsePerson(String person){
+        String[] pn = person.split("\\|");
+        Person newPerson = new Person(pn[2],pn[3],pn[4],pn[5],pn[6]);
+        newPerson.setId(Integer.parseInt(pn[1]));
+        return newPerson;
+    }
+    // Finds a registered person from the id saved with a project
+    private static Person knownPerson(PersonRegistry people, String id){
+        Person person = people.get(Integer.parseInt(id));
+        if (person == null){
+            throw new IllegalArgumentException("Unknown person id " + id);
+        }
+        return person;
+    }
+    /**
+     * Saves every person and project that has changed since the last save, on the
+     * writer thread once it has started (see {@link GroupCommitter}) so this doesn't wait for the disk.
+     * If they can't be saved they stay marked as changed so they are tried again next time.
+     *
+     * @return completes once the changes are saved, or with the error if they couldn't be
+     */
+    static CompletableFuture<Void> saveChanges(){
+        if (committer != null){
+            return committer.commit();
+        }
+        Exception failure = GroupCommitter.save(store, changes);
+        return failure == null ? CompletableFuture.completedFuture(null) : CompletableFuture.failedFuture(failure);
+    }
+    /**
+     * Saves every person and project that has changed and waits until they are saved.
+     * A failure has already been reported, and the changes will be tried again.
+     */
+    static void saveChangesAndWait(){
+        try {
+            saveChanges().join();
+        } catch (CompletionException e) {
+            // Reported when saving failed
+        }
+    }
+    /**
+     * Saves anything that has changed, waiting for the writer to finish, brings the store
+     * up to date (rewriting the projects file for the text file store) and closes it.
      */
     private static void writeToFile(){
+        if (committer != null){
+            committer.close();
+        }
+        else {
+            saveChanges();
+        }
         try {
-            BufferedWriter writer = new BufferedWriter(new FileWriter("poisedProjects.txt"));
-            for (Project project : projectList) {
-                writer.write(project.toFile() + "\n");
-            }
-            writer.close();
-
+            store.checkpoint(people, projects);
+        } catch (IOException e) {
+            // The journal is left as it was, so nothing that was saved is lost
+            System.err.println("Error rewriting projects file");
+        }
+        try {
+            store.close();
         } catch (IOException e) {
             // In case of error writing to the text file
             System.err.println("Error saving projects to file");
         }
     }
     /**
-     * Saves completed job information to a text file
+     * Saves completed job information to the store, a 'Completed project (x).txt' file for the text file store.
      *
      * @param newJob project object
      */
     private static void finalisedToFile(Project newJob,LocalDate date){
         try {
-            // Creates a 'Completed project (x)' file to save the information to. Where x=job number so that
-            // multiple can exist, one for each job.
-            BufferedWriter writer = new BufferedWriter(new FileWriter
-                    (String.format("Completed project %s.txt",newJob.getJobNumber())));
-            writer.write(newJob.completedToFile(date));
-            writer.close();
+            store.saveCompleted(newJob, date);
         } catch (IOException e) {
             // In case of error writing to the text file
             System.err.println("Error writing to file");
@@ -562,6 +895,5 @@ public class PoisedProgram {
     public static void promptEnterKey(Scanner sc){
         System.out.println("Press \"ENTER\" to return to main menu...");
         sc.nextLine();
-        mainMenu(sc);
     }
 }
\ No newline at end of file
@@ -1,5 +1,5 @@
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 /*
 * Class for creating/making changes to projects
 *
@@ -7,18 +7,26 @@ import java.time.format.DateTimeFormatter;
  */
 public class Project {
     // Attributes
-    int jobNumber;
+    // The key the repository and the stores find the project by, so it can't change
+    final int jobNumber;
     String jobName;
     String buildType;
     String physicalAddress;
     int erfNumber;
-    double totalFee;
-    double totalPaid;
+    // Fee and payments in pence
+    final PaymentLedger ledger;
     LocalDate deadline;
     Person architect;
     Person contractor;
     Person customer;
     boolean completed;
+    // Repository the project is stored in, told about changes so its indexes stay up to date
+    ProjectRepository repository;
+    // Number of times the project has changed, and whether it is waiting to be saved (see ChangeSet)
+    volatile long version;
+    volatile int dirty;
+    private static final AtomicLongFieldUpdater<Project> VERSION =
+            AtomicLongFieldUpdater.newUpdater(Project.class, "version");
 
     // Constructor
     /**
@@ -44,8 +52,7 @@ public class Project {
         this.buildType = buildType;
         this.physicalAddress = physicalAddress;
         this.erfNumber = erfNumber;
-        this.totalFee = totalFee;
-        this.totalPaid = totalPaid;
+        this.ledger = new PaymentLedger(this, PaymentLedger.toPence(totalFee), PaymentLedger.toPence(totalPaid));
         this.deadline = deadline;
         this.architect = architect;
         this.contractor = contractor;
@@ -57,48 +64,86 @@ public class Project {
     }
 
     // Setters
-    public void setJobNumber(int newJobNumber){
-        jobNumber = newJobNumber;
-    }
     public void setJobName(String newJobName){
         // If the job name is not given by the user it will generate a name by combining
         // the building type and the users name.
-        if (newJobName.equals("")){
-            this.jobName=this.buildType+ " " + this.customer.name;
-        }
-        else{
-            this.jobName = newJobName;
-        }
+        changeSearched(() -> {
+            if (newJobName.equals("")){
+                this.jobName=this.buildType+ " " + this.customer.name;
+            }
+            else{
+                this.jobName = newJobName;
+            }
+        });
+        changed();
     }
     public void setBuildType(String newBuildType){
-        this.buildType = newBuildType;
+        changeSearched(() -> this.buildType = newBuildType);
+        changed();
     }
     public void setPhysicalAddress(String newPhysicalAddress){
-        physicalAddress = newPhysicalAddress;
+        changeSearched(() -> physicalAddress = newPhysicalAddress);
+        changed();
     }
     public void setErfNumber(int newErfNumber) {
-        erfNumber = newErfNumber;
+        changeSearched(() -> erfNumber = newErfNumber);
+        changed();
     }
     public void setTotalFee(double newTotalFee) {
-        totalFee = newTotalFee;
+        ledger.setFee(PaymentLedger.toPence(newTotalFee));
+        changed();
     }
     public void setTotalPaid(double newTotalPaid) {
-        totalPaid = newTotalPaid;
+        // Payments should be recorded in the ledger, this replaces the total without keeping a record
+        ledger.setPaid(PaymentLedger.toPence(newTotalPaid));
+        changed();
     }
     public void setDeadline(LocalDate newDeadline) {
-        deadline = newDeadline;
+        // The repository changes the deadline and its index together
+        if (repository != null){
+            repository.changeDeadline(this, newDeadline);
+        }
+        else {
+            deadline = newDeadline;
+        }
+        changed();
     }
     public void setArchitect(Person newArchitect) {
-        architect = newArchitect;
+        // The repository changes the person and its name index together
+        if (repository != null){
+            repository.changePerson(this, "Architect", newArchitect);
+        }
+        else {
+            architect = newArchitect;
+        }
+        changed();
     }
     public void setContractor(Person newContractor) {
-        contractor = newContractor;
+        if (repository != null){
+            repository.changePerson(this, "Contractor", newContractor);
+        }
+        else {
+            contractor = newContractor;
+        }
+        changed();
     }
     public void setCustomer(Person newCustomer) {
-        customer = newCustomer;
+        if (repository != null){
+            repository.changePerson(this, "Customer", newCustomer);
+        }
+        else {
+            customer = newCustomer;
+        }
+        changed();
     }
     public void setCompleted(boolean newCompleted) {
-        completed = newCompleted;
+        if (repository != null){
+            repository.changeCompleted(this, newCompleted);
+        }
+        else {
+            completed = newCompleted;
+        }
+        changed();
     }
 
     // Getters
@@ -118,10 +163,38 @@ public class Project {
         return erfNumber;
     }
     public double getTotalFee() {
-        return totalFee;
+        return PaymentLedger.toPounds(ledger.fee());
     }
     public double getTotalPaid() {
-        return totalPaid;
+        return PaymentLedger.toPounds(ledger.paid());
+    }
+    public PaymentLedger getLedger() {
+        return ledger;
+    }
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Makes a change to a field that is searched, through the repository so its search index is updated too.
+     */
+    private void changeSearched(Runnable change){
+        if (repository != null){
+            repository.changeSearched(this, change);
+        }
+        else {
+            change.run();
+        }
+    }
+
+    /**
+     * Records that the project has changed so it is saved with the next changes.
+     */
+    void changed(){
+        VERSION.incrementAndGet(this);
+        if (repository != null){
+            repository.changes.projectChanged(this);
+        }
     }
     public LocalDate getDeadline() {
         return deadline;
@@ -147,68 +220,31 @@ public class Project {
      */
     // Methods
     public String toString() {
-        // Default format that the projects will be displayed to the user
-        return
-                "\nJob Number:      " + jobNumber +
-                "\nJob Name:        " + jobName +
-                "\nBuild Type:      " + buildType +
-                "\nProject Address: " + physicalAddress +
-                "\nERF Number:      " + erfNumber +
-                "\nProject Total:   " + totalFee +
-                "\nAmount Paid:     " + totalPaid +
-                "\nBuild Deadline:  " + dateOutput(deadline) +
-                "\nArchitect:       " + architect.name +
-                "\nContractor:      " + contractor.name +
-                "\nCustomer:        " + customer.name;
+        // Default format that the projects will be displayed to the user, kept while the project is unchanged
+        return RenderCache.shared().display(this);
     }
 
     /**
-     * Creates a single line String containing all information about a job
-     * and people involved. This is what will be saved to file so that jobs
-     * can be saved and viewed/modified in future.
+     * Creates a single line String containing all information about a job.
+     * The people involved are saved separately and referred to by their id.
+     * This is what will be saved to file so that jobs can be saved and
+     * viewed/modified in future.
      *
-     * @return string containing all information about job and people involved
+     * @return string containing all information about job and the ids of the people involved
      */
     public String toFile() {
         // Formats the project in a way that it can be written to the text file
-        return
-                jobNumber+"|"+jobName+"|"+buildType+"|"+physicalAddress+"|"+erfNumber+"|"+totalFee+"|"+
-                totalPaid+"|"+dateOutput(deadline)+"|"+
-                architect.role+"|"+architect.name+"|"+architect.phoneNumber+"|"+
-                architect.emailAddress+"|"+architect.physicalAddress+"|"+
-                contractor.role+"|"+contractor.name+"|"+contractor.phoneNumber+"|"+
-                contractor.emailAddress+"|"+contractor.physicalAddress+"|"+
-                customer.role+"|"+customer.name+"|"+customer.phoneNumber+"|"+
-                customer.emailAddress+"|"+customer.physicalAddress+"|"+completed;
-    }
-    public String completedToFile(LocalDate date){
-        return
-                        "Job Number:      " + jobNumber +
-                        "\nJob Name:        " + jobName +
-                        "\nBuild Type:      " + buildType +
-                        "\nProject Address: " + physicalAddress +
-                        "\nERF Number:      " + erfNumber +
-                        "\nProject Total:   " + totalFee +
-                        "\nAmount Paid:     " + totalPaid +
-                        "\nAmount Owed:     " + (totalFee-totalPaid) +
-                        "\nBuild Deadline:  " + dateOutput(deadline) +
-                        "\nCompletion Date: " + dateOutput(date) +
-                        "\n\n-----Architect-----" + "\n" + architect +
-                        "\n\n-----Contractor-----" + "\n" + contractor +
-                        "\n\n-----Customer-----"+  "\n" + customer;
+        StringBuilder line = new StringBuilder(128);
+        ProjectSerializer.appendRecord(this, line);
+        return line.toString();
     }
-
     /**
-     * Format todays date into an easily readable format.
+     * Creates the details saved to the completed project file when a project is finalised.
      *
-     * @param date the current date
-     * @return the current date formatted to an easily readable format
+     * @param date the completion date
+     * @return the project, amount owed and people involved
      */
-    private String dateOutput(LocalDate date){
-        // This will take the date and convert it to a String in a format that is easily readable
-        DateTimeFormatter format = DateTimeFormatter.ofPattern("dd/MM/yyyy");
-        return date.format(format);
-
-
+    public String completedToFile(LocalDate date){
+        return RenderCache.shared().completed(this, date);
     }
 }
@@ -0,0 +1,101 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.Random;
+
+/**
+ * Writes a made up projects file for testing how the program copes with a large folio.
+ * <p>
+ * Architects and contractors are shared between many projects, as they are in the
+ * real folio, customers are mostly unique and most of the older projects are completed.
+ * <p>
+ * Usage: java ProjectDataGenerator &lt;number of projects&gt; &lt;file&gt; [seed]
+ *
+ * @author Calum Gilchrist
+ */
+public class ProjectDataGenerator {
+    private static final String[] BUILD_TYPES = {"house", "flat", "bungalow", "office", "shop", "warehouse"};
+    private static final String[] JOB_NAMES = {"New Home", "Renovation", "Extension", "Conversion", "New Build"};
+    private static final String[] STREETS = {"Carmichael Place", "Globe Place", "Maxwood Place", "High Street",
+            "Fintry Place", "Whitehirst Park", "Bank Street", "Main Road", "Castle Street", "Church Lane"};
+    private static final String[] TOWNS = {"Irvine", "Kilwinning", "Kilmarnock", "Ayr", "Troon", "Glasgow"};
+    private static final String[] FIRST_NAMES = {"Calum", "Dominic", "James", "Sarah", "Fiona", "Mike",
+            "Anne", "Gary", "Lesley", "Euan"};
+    private static final String[] SURNAMES = {"Gilchrist", "Smith", "Anderson", "Munro", "Mackie", "Campbell",
+            "Stewart", "Reid", "Fraser", "Ross"};
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2){
+            System.out.println("Usage: java ProjectDataGenerator <number of projects> <file> [seed]");
+            return;
+        }
+        int count = Integer.parseInt(args[0]);
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+        generate(count, Paths.get(args[1]), seed);
+        System.out.println(count + " projects written to " + args[1]);
+    }
+
+    /**
+     * Writes a projects file in the current format, the people first and then the projects.
+     *
+     * @param count number of projects
+     * @param file file to write to
+     * @param seed seed for the random numbers so the same file can be made again
+     */
+    public static void generate(int count, Path file, long seed) throws IOException {
+        Random random = new Random(seed);
+        // Few architects, more contractors and roughly one customer for every two projects
+        int architects = Math.max(1, count / 500);
+        int contractors = Math.max(1, count / 100);
+        int customers = Math.max(1, count / 2);
+        LocalDate today = LocalDate.now();
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            int id = 1;
+            for (int i = 0; i < architects; i++){
+                writePerson(writer, id++, "Architect", name(random, i), random);
+            }
+            for (int i = 0; i < contractors; i++){
+                writePerson(writer, id++, "Contractor", SURNAMES[i % SURNAMES.length] + " Builders " + i, random);
+            }
+            for (int i = 0; i < customers; i++){
+                writePerson(writer, id++, "Customer", name(random, i), random);
+            }
+            for (int job = 1; job <= count; job++){
+                // Older jobs come first in the file, spread from ten years ago to two years ahead
+                LocalDate deadline = today.minusDays(3650).plusDays((long) job * 4380 / count + random.nextInt(60));
+                boolean completed = deadline.isBefore(today) && random.nextInt(100) < 95;
+                double fee = 50_000 + random.nextInt(950) * 1000.0;
+                double paid = completed ? fee - random.nextInt(3) * 1000.0 : random.nextInt((int) (fee / 1000)) * 1000.0;
+                writer.write(job + "|" + JOB_NAMES[random.nextInt(JOB_NAMES.length)] + "|"
+                        + BUILD_TYPES[random.nextInt(BUILD_TYPES.length)] + "|" + address(random) + "|"
+                        + (1 + random.nextInt(99_999)) + "|" + fee + "|" + paid + "|"
+                        + deadline.format(PoisedProgram.DATE_FORMAT) + "|"
+                        + (1 + random.nextInt(architects)) + "|"
+                        + (1 + architects + random.nextInt(contractors)) + "|"
+                        + (1 + architects + contractors + random.nextInt(customers)) + "|" + completed + "\n");
+            }
+        }
+    }
+
+    private static void writePerson(BufferedWriter writer, int id, String role, String name, Random random)
+            throws IOException {
+        String email = name.toLowerCase().replace(' ', '.') + "@example.com";
+        writer.write("person|" + id + "|" + role + "|" + name + "|01294 " + (100_000 + random.nextInt(900_000))
+                + "|" + email + "|" + address(random) + "\n");
+    }
+
+    private static String name(Random random, int number){
+        return FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " " + SURNAMES[random.nextInt(SURNAMES.length)]
+                + " " + number;
+    }
+
+    private static String address(Random random){
+        String town = TOWNS[random.nextInt(TOWNS.length)];
+        return (1 + random.nextInt(200)) + " " + STREETS[random.nextInt(STREETS.length)] + ", " + town
+                + ", KA" + (1 + random.nextInt(30)) + " " + random.nextInt(10) + "XH";
+    }
+}
@@ -0,0 +1,362 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Loads the projects text file by memory mapping it and parsing it in parallel.
+ * <p>
+ * The people at the start of the file are read first, then the rest of the file
+ * is cut into chunks that always end on a line ending, each chunk is parsed on
+ * the fork join pool and the results are joined back together in the same order
+ * as the lines in the file. Files in the older format, where every line holds
+ * the full details of all three people, can still be loaded.
+ *
+ * @author Calum Gilchrist
+ */
+public class ProjectFileLoader {
+    // Number of fields in a project line, the people are referred to by their id
+    static final int FIELD_COUNT = 12;
+    // Number of fields in a project line of the older format that had the people's details on every line
+    static final int LEGACY_FIELD_COUNT = 24;
+    // Number of fields in a person line
+    static final int PERSON_FIELD_COUNT = 7;
+    // Smallest chunk worth handing to another thread
+    private static final long MIN_CHUNK = 1 << 20;
+
+    /**
+     * Loads every project from a projects text file.
+     *
+     * @param file the projects text file
+     * @param people registry the people in the file are added to
+     * @return the projects in the order they appear in the file
+     */
+    public static List<Project> load(Path file, PersonRegistry people) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size == 0){
+                return new ArrayList<>();
+            }
+            long start = loadPeople(channel, size, people);
+            if (start == size){
+                return new ArrayList<>();
+            }
+            long[] bounds = chunkBounds(channel, start, size);
+            List<Project> projects = ForkJoinPool.commonPool().invoke(
+                    new ChunkTask(channel, bounds, 0, bounds.length - 1, people));
+            // People from older format lines are swapped for the shared copy in file order,
+            // so the first details seen for a person are the ones kept
+            for (Project project : projects){
+                project.setArchitect(people.intern(project.getArchitect()));
+                project.setContractor(people.intern(project.getContractor()));
+                project.setCustomer(people.intern(project.getCustomer()));
+            }
+            return projects;
+        }
+    }
+
+    /**
+     * Reads the person lines at the start of the file into the registry.
+     *
+     * @return the offset of the first line that isn't a person
+     */
+    private static long loadPeople(FileChannel channel, long size, PersonRegistry people) throws IOException {
+        long position = 0;
+        byte[] line = new byte[512];
+        int[] starts = new int[LEGACY_FIELD_COUNT];
+        int[] ends = new int[LEGACY_FIELD_COUNT];
+        while (position < size){
+            long windowSize = Math.min(MIN_CHUNK, size - position);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+            boolean readAny = false;
+            while (window.hasRemaining()){
+                int length = 0;
+                boolean complete = false;
+                while (window.hasRemaining()){
+                    byte b = window.get();
+                    if (b == '\n'){
+                        complete = true;
+                        break;
+                    }
+                    if (length == line.length){
+                        line = Arrays.copyOf(line, line.length * 2);
+                    }
+                    line[length++] = b;
+                }
+                if (!complete && position + windowSize < size){
+                    // Line carries on past the window so the window is moved along to it
+                    break;
+                }
+                if (!isPerson(line, length)){
+                    return position;
+                }
+                addPerson(people, line, length, starts, ends);
+                position += length + (complete ? 1 : 0);
+                readAny = true;
+            }
+            if (!readAny){
+                // A single line longer than the window, left for the project chunks
+                return position;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Splits the file into chunks of roughly equal size, moving each boundary
+     * forward to just after the next line ending so no line is split.
+     *
+     * @return offsets where each chunk starts, followed by the end of the file
+     */
+    private static long[] chunkBounds(FileChannel channel, long start, long size) throws IOException {
+        int parallelism = ForkJoinPool.commonPool().getParallelism();
+        long target = Math.max(MIN_CHUNK, (size - start) / (parallelism * 4L) + 1);
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(start);
+        long position = start + target;
+        while (position < size){
+            // Reads a small window to find the next line ending after the target position
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                    Math.min(64 * 1024, size - position));
+            long boundary = -1;
+            while (window.hasRemaining()){
+                if (window.get() == '\n'){
+                    boundary = position + window.position();
+                    break;
+                }
+            }
+            if (boundary == -1){
+                // No line ending in this window, keep looking further on
+                position += window.capacity();
+                continue;
+            }
+            if (boundary < size){
+                bounds.add(boundary);
+            }
+            position = boundary + target;
+        }
+        bounds.add(size);
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++){
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Parses a range of chunks, splitting the range in half until it is down to a single chunk.
+     */
+    private static class ChunkTask extends RecursiveTask<List<Project>> {
+        private static final long serialVersionUID = 1L;
+        private final FileChannel channel;
+        private final long[] bounds;
+        private final int from;
+        private final int to;
+        private final PersonRegistry people;
+
+        ChunkTask(FileChannel channel, long[] bounds, int from, int to, PersonRegistry people){
+            this.channel = channel;
+            this.bounds = bounds;
+            this.from = from;
+            this.to = to;
+            this.people = people;
+        }
+
+        @Override
+        protected List<Project> compute(){
+            if (to - from == 1){
+                try {
+                    return parseChunk(channel.map(FileChannel.MapMode.READ_ONLY, bounds[from],
+                            bounds[to] - bounds[from]), people);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Unable to map projects file", e);
+                }
+            }
+            int middle = (from + to) >>> 1;
+            ChunkTask left = new ChunkTask(channel, bounds, from, middle, people);
+            ChunkTask right = new ChunkTask(channel, bounds, middle, to, people);
+            left.fork();
+            List<Project> rightProjects = right.compute();
+            List<Project> projects = left.join();
+            // Left comes first so the file order is kept
+            projects.addAll(rightProjects);
+            return projects;
+        }
+    }
+
+    /**
+     * Parses every line in a mapped chunk of the file.
+     */
+    static List<Project> parseChunk(MappedByteBuffer chunk, PersonRegistry people){
+        List<Project> projects = new ArrayList<>();
+        // Reused for every line in the chunk
+        byte[] line = new byte[512];
+        int[] starts = new int[LEGACY_FIELD_COUNT];
+        int[] ends = new int[LEGACY_FIELD_COUNT];
+        int length = 0;
+        while (chunk.hasRemaining()){
+            byte b = chunk.get();
+            if (b == '\n'){
+                addLine(projects, people, line, length, starts, ends);
+                length = 0;
+                continue;
+            }
+            if (length == line.length){
+                byte[] bigger = new byte[line.length * 2];
+                System.arraycopy(line, 0, bigger, 0, length);
+                line = bigger;
+            }
+            line[length++] = b;
+        }
+        // Last line of the file may not have a line ending
+        addLine(projects, people, line, length, starts, ends);
+        return projects;
+    }
+
+    private static void addLine(List<Project> projects, PersonRegistry people, byte[] line, int length,
+                                int[] starts, int[] ends){
+        // Windows line endings
+        if (length > 0 && line[length - 1] == '\r'){
+            length--;
+        }
+        if (length == 0){
+            return;
+        }
+        if (isPerson(line, length)){
+            addPerson(people, line, length, starts, ends);
+            return;
+        }
+        try {
+            projects.add(parseLine(line, length, starts, ends, people));
+        } catch (RuntimeException e) {
+            // A bad line is skipped rather than stopping the whole file loading
+            System.err.println("Unable to read project: " + new String(line, 0, length, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void addPerson(PersonRegistry people, byte[] line, int length, int[] starts, int[] ends){
+        if (length > 0 && line[length - 1] == '\r'){
+            length--;
+        }
+        try {
+            if (split(line, length, starts, ends) != PERSON_FIELD_COUNT){
+                throw new IllegalArgumentException("Expected " + PERSON_FIELD_COUNT + " fields");
+            }
+            Person person = new Person(text(line, starts, ends, 2), text(line, starts, ends, 3),
+                    text(line, starts, ends, 4), text(line, starts, ends, 5), text(line, starts, ends, 6));
+            person.setId(number(line, starts[1], ends[1]));
+            people.put(person);
+        } catch (RuntimeException e) {
+            System.err.println("Unable to read person: " + new String(line, 0, length, StandardCharsets.UTF_8));
+        }
+    }
+
+    // Person lines start with "person|"
+    private static boolean isPerson(byte[] line, int length){
+        return length > 7 && line[0] == 'p' && line[6] == '|'
+                && new String(line, 0, 6, StandardCharsets.US_ASCII).equals("person");
+    }
+
+    /**
+     * Finds where each field starts and ends, splitting on the '|' character
+     * without using regular expressions.
+     *
+     * @return the number of fields found
+     */
+    private static int split(byte[] line, int length, int[] starts, int[] ends){
+        int field = 0;
+        starts[0] = 0;
+        for (int i = 0; i < length; i++){
+            if (line[i] == '|'){
+                if (field == starts.length - 1){
+                    throw new IllegalArgumentException("Too many fields");
+                }
+                ends[field] = i;
+                starts[++field] = i + 1;
+            }
+        }
+        ends[field] = length;
+        return field + 1;
+    }
+
+    /**
+     * Creates a project from a single line. The people are looked up in the
+     * registry from their ids, or created from their details for a line in the older format.
+     */
+    static Project parseLine(byte[] line, int length, int[] starts, int[] ends, PersonRegistry people){
+        int fields = split(line, length, starts, ends);
+        if (fields == FIELD_COUNT){
+            boolean completed = ends[11] - starts[11] == 4 && line[starts[11]] == 't';
+            return new Project(number(line, starts[0], ends[0]), text(line, starts, ends, 1),
+                    text(line, starts, ends, 2), text(line, starts, ends, 3), number(line, starts[4], ends[4]),
+                    Double.parseDouble(text(line, starts, ends, 5)), Double.parseDouble(text(line, starts, ends, 6)),
+                    date(line, starts[7], ends[7]), person(people, line, starts[8], ends[8]),
+                    person(people, line, starts[9], ends[9]), person(people, line, starts[10], ends[10]), completed);
+        }
+        if (fields != LEGACY_FIELD_COUNT){
+            throw new IllegalArgumentException("Expected " + FIELD_COUNT + " fields but found " + fields);
+        }
+        Person architect = new Person(text(line, starts, ends, 8), text(line, starts, ends, 9),
+                text(line, starts, ends, 10), text(line, starts, ends, 11), text(line, starts, ends, 12));
+        Person contractor = new Person(text(line, starts, ends, 13), text(line, starts, ends, 14),
+                text(line, starts, ends, 15), text(line, starts, ends, 16), text(line, starts, ends, 17));
+        Person customer = new Person(text(line, starts, ends, 18), text(line, starts, ends, 19),
+                text(line, starts, ends, 20), text(line, starts, ends, 21), text(line, starts, ends, 22));
+        boolean completed = ends[23] - starts[23] == 4 && line[starts[23]] == 't';
+        return new Project(number(line, starts[0], ends[0]), text(line, starts, ends, 1),
+                text(line, starts, ends, 2), text(line, starts, ends, 3), number(line, starts[4], ends[4]),
+                Double.parseDouble(text(line, starts, ends, 5)), Double.parseDouble(text(line, starts, ends, 6)),
+                date(line, starts[7], ends[7]), architect, contractor, customer, completed);
+    }
+
+    private static Person person(PersonRegistry people, byte[] line, int start, int end){
+        Person person = people.get(number(line, start, end));
+        if (person == null){
+            throw new IllegalArgumentException("Unknown person id");
+        }
+        return person;
+    }
+
+    private static String text(byte[] line, int[] starts, int[] ends, int field){
+        return new String(line, starts[field], ends[field] - starts[field], StandardCharsets.UTF_8);
+    }
+
+    // Reads a whole number straight from the bytes
+    private static int number(byte[] line, int start, int end){
+        if (start == end){
+            throw new NumberFormatException("Empty number");
+        }
+        boolean negative = line[start] == '-';
+        int value = 0;
+        for (int i = negative ? start + 1 : start; i < end; i++){
+            int digit = line[i] - '0';
+            if (digit < 0 || digit > 9){
+                throw new NumberFormatException("Not a number");
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    // Reads a dd/MM/yyyy date straight from the bytes, anything else goes through getDate
+    private static LocalDate date(byte[] line, int start, int end){
+        if (end - start == 10 && line[start + 2] == '/' && line[start + 5] == '/'){
+            try {
+                return LocalDate.of(number(line, start + 6, end), number(line, start + 3, start + 5),
+                        number(line, start, start + 2));
+            } catch (DateTimeException | NumberFormatException e) {
+                // Falls through so the usual message is shown for the bad date
+            }
+        }
+        return PoisedProgram.getDate(new String(line, start, end - start, StandardCharsets.UTF_8));
+    }
+}
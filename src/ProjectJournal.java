@@ -0,0 +1,414 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Append only journal of changes made to projects.
+ * <p>
+ * Instead of rewriting the whole projects file after every change, each changed
+ * project or person is appended to the journal as a single line in the same format
+ * as the projects file. Appending doesn't force the journal to disk, {@link #sync} does,
+ * once for all the records appended since the last one: a save of many records is
+ * one force, and threads that sync while another's force is running wait for it and
+ * then share a single force for everything they appended. Once the journal grows large
+ * enough it is folded into a fresh snapshot of the projects file on a background thread,
+ * and when the program exits the snapshot is rewritten from the projects in memory.
+ * On start up the snapshot is read first and then the journal is replayed over it,
+ * the last line for a job number or person id wins.
+ *
+ * @author Calum Gilchrist
+ */
+public class ProjectJournal {
+    // Number of records in the journal before it is folded into the snapshot
+    private static final int COMPACT_AFTER = 1000;
+
+    private final Path snapshotFile;
+    private final Path journalFile;
+    // Journal that is being folded into the snapshot by the background compaction
+    private final Path compactingFile;
+    private FileChannel channel;
+    // Records appended and records known to be on disk, counted since the journal was created
+    private long appendedRecords;
+    private long syncedRecords;
+    // Whether a thread is forcing the journal, which it does without holding the lock
+    private boolean syncing;
+    private int journalRecords;
+    // Encodes every record appended, only used while holding the lock
+    private final ProjectSerializer serializer = new ProjectSerializer();
+    // Single background thread used to fold the journal into the snapshot
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "journal-compaction");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Future<?> compaction;
+
+    /**
+     * Create a journal for a projects snapshot file.
+     *
+     * @param snapshotFile name of the projects file the journal belongs to
+     */
+    public ProjectJournal(String snapshotFile){
+        this.snapshotFile = Paths.get(snapshotFile);
+        this.journalFile = Paths.get(snapshotFile + ".journal");
+        this.compactingFile = Paths.get(snapshotFile + ".journal.compacting");
+    }
+
+    /**
+     * Opens the journal so records can be appended to it.
+     */
+    public synchronized void open() throws IOException {
+        if (channel == null){
+            channel = FileChannel.open(journalFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            // A record torn by a crash part way through a write is cut off so new records start on a fresh line
+            long complete = completeLength(journalFile);
+            if (complete < channel.size()){
+                channel.truncate(complete);
+            }
+            journalRecords = countLines(journalFile);
+        }
+    }
+
+    /**
+     * Reads the records that have to be replayed over the snapshot, in the order they were written.
+     * A journal left over from an interrupted compaction is replayed first.
+     *
+     * @return journal lines, oldest first
+     */
+    public List<String> replay() throws IOException {
+        List<String> records = new ArrayList<>();
+        readLines(compactingFile, records, true);
+        readLines(journalFile, records, true);
+        return records;
+    }
+
+    /**
+     * Appends a person's record to the journal.
+     *
+     * @param person the person, written in the projects file format
+     */
+    public synchronized void append(Person person) throws IOException {
+        write(serializer.encodeLine(person));
+    }
+
+    /**
+     * Appends a project's record to the journal.
+     *
+     * @param project the project, written in the projects file format
+     */
+    public synchronized void append(Project project) throws IOException {
+        write(serializer.encodeLine(project));
+    }
+
+    // Writes an encoded record, must hold the lock
+    private void write(ByteBuffer line) throws IOException {
+        open();
+        int length = line.remaining();
+        while (line.hasRemaining()){
+            channel.write(line);
+        }
+        Metrics.BYTES_WRITTEN.add(length);
+        appendedRecords++;
+        journalRecords++;
+        if (journalRecords >= COMPACT_AFTER){
+            compactInBackground();
+        }
+    }
+
+    /**
+     * Forces the records appended so far to disk, returning once they are there.
+     * If another thread is already forcing the journal this waits for it, and as its
+     * force may have started before these records were appended, one of the waiting
+     * threads then forces everything appended by all of them.
+     */
+    public void sync() throws IOException {
+        FileChannel forcing;
+        long target;
+        synchronized (this) {
+            target = appendedRecords;
+            while (syncing && syncedRecords < target){
+                awaitSync();
+            }
+            if (syncedRecords >= target || channel == null){
+                return;
+            }
+            syncing = true;
+            // Whatever the other waiting threads appended is forced too
+            target = appendedRecords;
+            forcing = channel;
+        }
+        try {
+            // Appending can carry on while the disk catches up
+            forcing.force(false);
+        } finally {
+            synchronized (this) {
+                syncing = false;
+                syncedRecords = Math.max(syncedRecords, target);
+                notifyAll();
+            }
+        }
+    }
+
+    // Waits for the thread forcing the journal to finish, must hold the lock
+    private void awaitSync() throws IOException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the projects journal to be forced");
+        }
+    }
+
+    /**
+     * Moves the current journal aside and folds it into the snapshot on the background thread.
+     * Nothing happens if a compaction is still running.
+     */
+    public synchronized void compactInBackground() throws IOException {
+        if (compaction != null && !compaction.isDone()){
+            return;
+        }
+        // A journal left from a compaction that didn't finish has to be folded first
+        if (Files.exists(compactingFile)){
+            compaction = compactor.submit(this::foldCompactingJournal);
+            return;
+        }
+        sync();
+        // Another thread may have started forcing the channel since, it can't be closed under it
+        while (syncing){
+            awaitSync();
+        }
+        channel.close();
+        channel = null;
+        Files.move(journalFile, compactingFile, StandardCopyOption.ATOMIC_MOVE);
+        journalRecords = 0;
+        open();
+        compaction = compactor.submit(this::foldCompactingJournal);
+    }
+
+    /**
+     * Forces the journal to disk and stops the background compaction thread.
+     */
+    public synchronized void close() throws IOException {
+        awaitCompaction();
+        compactor.shutdown();
+        if (channel != null){
+            sync();
+            while (syncing){
+                awaitSync();
+            }
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Writes a complete snapshot of the projects and clears the journal, used when the
+     * program exits so the projects file is in the current format and the journal starts
+     * empty next time. Nothing is written if the journal has nothing in it.
+     *
+     * @param records writes every person and project in the projects file format
+     */
+    public synchronized void checkpoint(SnapshotWriter records) throws IOException {
+        awaitCompaction();
+        boolean journalled = Files.exists(compactingFile)
+                || (Files.exists(journalFile) && Files.size(journalFile) > 0);
+        if (!journalled){
+            return;
+        }
+        writeSnapshot(records);
+        // Everything in the journal is now in the snapshot
+        if (channel != null){
+            while (syncing){
+                awaitSync();
+            }
+            channel.close();
+            channel = null;
+        }
+        Files.deleteIfExists(compactingFile);
+        Files.deleteIfExists(journalFile);
+        journalRecords = 0;
+        syncedRecords = appendedRecords;
+    }
+
+    /**
+     * Folds the journal being compacted into the snapshot file.
+     * Works only on the files so the projects in memory can keep changing while it runs,
+     * and only the journal is held in memory, the snapshot is copied a line at a time.
+     */
+    private void foldCompactingJournal(){
+        try {
+            // The last line for each person and job number is the one that is kept
+            Map<String, String> people = new LinkedHashMap<>();
+            Map<String, String> projects = new LinkedHashMap<>();
+            List<String> journal = new ArrayList<>();
+            readLines(compactingFile, journal, true);
+            for (String line : journal){
+                if (isPerson(line)){
+                    people.put(keyOf(line, 2), line);
+                }
+                else {
+                    projects.put(keyOf(line, 1), line);
+                }
+            }
+            journal.clear();
+            writeSnapshot(writer -> {
+                if (Files.exists(snapshotFile)){
+                    try (BufferedReader reader = Files.newBufferedReader(snapshotFile, StandardCharsets.UTF_8)) {
+                        String line;
+                        while ((line = reader.readLine()) != null){
+                            if (line.isEmpty()){
+                                continue;
+                            }
+                            if (isPerson(line)){
+                                String newer = people.remove(keyOf(line, 2));
+                                writeLine(writer, newer == null ? line : newer);
+                            }
+                            else {
+                                // People have to come before the projects that refer to them
+                                writeLines(writer, people);
+                                String newer = projects.remove(keyOf(line, 1));
+                                writeLine(writer, newer == null ? line : newer);
+                            }
+                        }
+                    }
+                }
+                // Anyone and any project that isn't in the snapshot yet
+                writeLines(writer, people);
+                writeLines(writer, projects);
+            });
+            Files.deleteIfExists(compactingFile);
+        } catch (IOException e) {
+            // The journal stays in place so it will be replayed or folded next time
+            System.err.println("Error compacting projects journal");
+        }
+    }
+
+    private static void writeLine(Writer writer, String line) throws IOException {
+        writer.write(line);
+        writer.write('\n');
+    }
+
+    // Writes the lines and forgets them, so they are only written once
+    private static void writeLines(Writer writer, Map<String, String> lines) throws IOException {
+        for (String line : lines.values()){
+            writeLine(writer, line);
+        }
+        lines.clear();
+    }
+
+    /**
+     * Writes the snapshot to a temporary file and then moves it over the old one,
+     * so a crash part way through never leaves a half written projects file.
+     */
+    private void writeSnapshot(SnapshotWriter records) throws IOException {
+        Path temp = Paths.get(snapshotFile + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             BufferedWriter writer = new BufferedWriter(Channels.newWriter(out, StandardCharsets.UTF_8))) {
+            records.writeTo(writer);
+            writer.flush();
+            out.force(false);
+            Metrics.BYTES_WRITTEN.add(out.size());
+        }
+        try {
+            Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void awaitCompaction(){
+        if (compaction != null){
+            try {
+                compaction.get();
+            } catch (Exception e) {
+                System.err.println("Error waiting for projects journal compaction");
+            }
+            compaction = null;
+        }
+    }
+
+    static boolean isPerson(String line){
+        return line.startsWith("person|");
+    }
+
+    // Job number is the first field of a project line, "person|id" is the start of a person line
+    private static String keyOf(String line, int fields){
+        int end = -1;
+        for (int i = 0; i < fields; i++){
+            end = line.indexOf('|', end + 1);
+            if (end < 0){
+                return line;
+            }
+        }
+        return line.substring(0, end);
+    }
+
+    /**
+     * Reads the lines of a file. In a journal a last line without a line ending is a record
+     * torn by a crash so it is left out.
+     */
+    private static void readLines(Path file, List<String> lines, boolean journal) throws IOException {
+        if (!Files.exists(file)){
+            return;
+        }
+        boolean torn = journal && completeLength(file) < Files.size(file);
+        int first = lines.size();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null){
+                if (!line.isEmpty()){
+                    lines.add(line);
+                }
+            }
+        }
+        if (torn && lines.size() > first){
+            lines.remove(lines.size() - 1);
+        }
+    }
+
+    // Length of the file up to and including its last line ending
+    private static long completeLength(Path file) throws IOException {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            long position = in.size();
+            ByteBuffer single = ByteBuffer.allocate(1);
+            while (position > 0){
+                single.clear();
+                in.read(single, position - 1);
+                if (single.get(0) == '\n'){
+                    return position;
+                }
+                position--;
+            }
+            return 0;
+        }
+    }
+
+    private static int countLines(Path file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        readLines(file, lines, true);
+        return lines.size();
+    }
+
+    /**
+     * Writes the lines of a snapshot, one record per line, straight to the snapshot file.
+     */
+    public interface SnapshotWriter {
+        void writeTo(Writer writer) throws IOException;
+    }
+}
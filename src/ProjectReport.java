@@ -0,0 +1,361 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDate;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A listing of projects picked out by filters, which is streamed from the
+ * repository rather than copied out of it first.
+ * <p>
+ * Filters that the repository indexes (overdue, unfinished, the people's names and search) are combined as
+ * bitmaps of slots, the others are checked against each project as it is streamed.
+ * Rows can be sorted and split into pages, and are written to the console, CSV or
+ * JSON through one reused buffer. The aggregates (count, amount outstanding and
+ * projects per contractor) cover every matching project whatever the page, and
+ * are worked out on a parallel stream once the folio is large enough for it to help.
+ * <pre>
+ * new ProjectReport(projects).unfinished().contractor("Bob").sortBy(ProjectReport.BY_DEADLINE)
+ *         .page(0, 20).write(ReportFormat.CSV, writer);
+ * </pre>
+ *
+ * @author Calum Gilchrist
+ */
+public class ProjectReport {
+    /** Sorts projects by job number. */
+    public static final Comparator<Project> BY_JOB_NUMBER = Comparator.comparingInt(Project::getJobNumber);
+    /** Sorts projects by deadline, earliest first. */
+    public static final Comparator<Project> BY_DEADLINE = Comparator.comparing(Project::getDeadline,
+            Comparator.nullsLast(Comparator.naturalOrder())).thenComparing(BY_JOB_NUMBER);
+    /** Sorts projects by the amount still owed, largest first. */
+    public static final Comparator<Project> BY_OUTSTANDING = Comparator.<Project>comparingLong(
+            project -> project.ledger.outstanding()).reversed().thenComparing(BY_JOB_NUMBER);
+    /** Sorts projects by job name. */
+    public static final Comparator<Project> BY_NAME = Comparator.comparing(Project::getJobName,
+            String.CASE_INSENSITIVE_ORDER).thenComparing(BY_JOB_NUMBER);
+
+    // Below this many projects the aggregates are quicker on one thread than split between several
+    static final int PARALLEL_THRESHOLD = 10_000;
+    // Rows are built up to about this many characters before being copied to the Writer
+    private static final int FLUSH_SIZE = 8192;
+
+    private final ProjectRepository projects;
+    // Slots that pass the indexed filters, null until one is used
+    private BitSet slots;
+    // Filters checked against each project, null if there are none
+    private Predicate<Project> filter;
+    // Order of the rows, null to keep the order the projects were added
+    private Comparator<Project> order;
+    private long skip;
+    private long limit = Long.MAX_VALUE;
+
+    /**
+     * Create a report of every project, use the filters to narrow it down.
+     *
+     * @param projects the repository the projects are streamed from
+     */
+    public ProjectReport(ProjectRepository projects){
+        this.projects = projects;
+    }
+
+    /**
+     * Only includes unfinished projects whose deadline is before a date.
+     *
+     * @param date the date to check against, usually today
+     * @return this report
+     */
+    public ProjectReport overdue(LocalDate date){
+        restrict(projects.deadlineBefore(date));
+        restrict(projects.unfinishedSlots());
+        return this;
+    }
+
+    /**
+     * Only includes projects that haven't been finalised.
+     *
+     * @return this report
+     */
+    public ProjectReport unfinished(){
+        restrict(projects.unfinishedSlots());
+        return this;
+    }
+
+    /**
+     * Only includes projects with an architect of the given name, ignoring case and extra spaces.
+     *
+     * @param name the architect's name
+     * @return this report
+     */
+    public ProjectReport architect(String name){
+        restrict(projects.personSlots("Architect", name));
+        return this;
+    }
+
+    /**
+     * Only includes projects with a contractor of the given name, ignoring case and extra spaces.
+     *
+     * @param name the contractor's name
+     * @return this report
+     */
+    public ProjectReport contractor(String name){
+        restrict(projects.personSlots("Contractor", name));
+        return this;
+    }
+
+    /**
+     * Only includes projects with a customer of the given name, ignoring case and extra spaces.
+     *
+     * @param name the customer's name
+     * @return this report
+     */
+    public ProjectReport customer(String name){
+        restrict(projects.personSlots("Customer", name));
+        return this;
+    }
+
+    /**
+     * Only includes projects found by searching their job name, address, build type
+     * and ERF number (see {@link ProjectRepository#search}).
+     *
+     * @param query e.g. "carmichael pl"
+     * @return this report
+     */
+    public ProjectReport search(String query){
+        restrict(projects.searchSlots(query));
+        return this;
+    }
+
+    /**
+     * Only includes projects of a build type, ignoring case.
+     *
+     * @param buildType e.g. House
+     * @return this report
+     */
+    public ProjectReport buildType(String buildType){
+        return where(project -> buildType.equalsIgnoreCase(project.buildType));
+    }
+
+    /**
+     * Only includes projects that pass a check, on top of any other filters.
+     *
+     * @param check the check each project must pass
+     * @return this report
+     */
+    public ProjectReport where(Predicate<Project> check){
+        filter = filter == null ? check : filter.and(check);
+        return this;
+    }
+
+    /**
+     * Sorts the rows, without a sort they are in the order the projects were added.
+     *
+     * @param order e.g. {@link #BY_DEADLINE}
+     * @return this report
+     */
+    public ProjectReport sortBy(Comparator<Project> order){
+        this.order = order;
+        return this;
+    }
+
+    /**
+     * Sorts the rows by a named key.
+     *
+     * @param key job, name, deadline or outstanding
+     * @return this report
+     */
+    public ProjectReport sortBy(String key){
+        return sortBy(switch (key.trim().toLowerCase()) {
+            case "job" -> BY_JOB_NUMBER;
+            case "name" -> BY_NAME;
+            case "deadline" -> BY_DEADLINE;
+            case "outstanding" -> BY_OUTSTANDING;
+            default -> throw new IllegalArgumentException("Sort key " + key + " not recognised");
+        });
+    }
+
+    /**
+     * Only includes one page of rows, the aggregates still cover every matching project.
+     *
+     * @param number the page, starting from 0
+     * @param size the number of rows on a page, at least 1
+     * @return this report
+     */
+    public ProjectReport page(int number, int size){
+        if (number < 0){
+            throw new IllegalArgumentException("Report page " + number + " is before the first page, 0");
+        }
+        if (size < 1){
+            throw new IllegalArgumentException("Report page size " + size + " must be at least 1");
+        }
+        skip = (long) number * size;
+        limit = size;
+        return this;
+    }
+
+    /**
+     * Reads filters from a comma separated list, as used by batch files, e.g.
+     * overdue,contractor=Bob,customer=Mrs Smith,type=House,sort=deadline,page=2,size=50
+     *
+     * @param filters the filters, blank for every project
+     * @return this report
+     */
+    public ProjectReport filters(String filters){
+        // Null until given, without a size every row is on one page
+        Integer page = null;
+        Integer size = null;
+        for (String filter : filters.split(",")){
+            int split = filter.indexOf('=');
+            String name = (split < 0 ? filter : filter.substring(0, split)).trim().toLowerCase();
+            String value = split < 0 ? "" : filter.substring(split + 1).trim();
+            switch (name) {
+                case "" -> { }
+                case "overdue" -> overdue(LocalDate.now());
+                case "unfinished" -> unfinished();
+                case "architect" -> architect(value);
+                case "contractor" -> contractor(value);
+                case "customer" -> customer(value);
+                case "type" -> buildType(value);
+                case "search" -> search(value);
+                case "sort" -> sortBy(value);
+                case "page" -> page = number(name, value);
+                case "size" -> size = number(name, value);
+                default -> throw new IllegalArgumentException("Report filter " + name + " not recognised");
+            }
+        }
+        if (size != null){
+            // page() refuses a page or size that makes no sense
+            page(page == null ? 0 : page, size);
+        }
+        else if (page != null){
+            throw new IllegalArgumentException("Report page " + page + " needs a size, e.g. size=50");
+        }
+        return this;
+    }
+
+    // Reads the number given to a page or size filter
+    private static int number(String name, String value){
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Report " + name + " " + value + " is not a whole number");
+        }
+    }
+
+    /**
+     * Streams the rows of the report. Without a sort the projects are only looked
+     * up as the stream reaches them.
+     *
+     * @return the matching projects, sorted and paged
+     */
+    public Stream<Project> stream(){
+        Stream<Project> rows = matching(false);
+        if (order != null){
+            rows = rows.sorted(order);
+        }
+        return rows.skip(skip).limit(limit);
+    }
+
+    /**
+     * @return the number of matching projects, ignoring pages
+     */
+    public long count(){
+        if (filter == null){
+            // Nothing to check project by project, so the bitmap has the answer
+            return slots == null ? projects.size() : slots.cardinality();
+        }
+        return matching(true).count();
+    }
+
+    /**
+     * @return the total still owed on the matching projects in pence, ignoring pages
+     */
+    public long totalOutstanding(){
+        return matching(true).mapToLong(project -> project.ledger.outstanding()).sum();
+    }
+
+    /**
+     * @return the number of matching projects for each contractor, by name, ignoring pages
+     */
+    public Map<String, Long> countByContractor(){
+        return matching(true).collect(Collectors.groupingBy(project -> project.contractor.name,
+                TreeMap::new, Collectors.counting()));
+    }
+
+    /**
+     * Writes the rows of the report. The Writer is neither flushed nor closed.
+     *
+     * @param format how the rows are written
+     * @param out where the rows are written
+     * @return the number of rows written
+     */
+    public int write(ReportFormat format, Writer out) throws IOException {
+        StringBuilder buffer = new StringBuilder(FLUSH_SIZE + 1024);
+        char[] chars = new char[FLUSH_SIZE + 1024];
+        format.begin(buffer);
+        int row = 0;
+        for (Project project : (Iterable<Project>) stream()::iterator){
+            format.row(project, row++, buffer);
+            if (buffer.length() >= FLUSH_SIZE){
+                chars = copy(buffer, chars, out);
+            }
+        }
+        format.end(buffer);
+        copy(buffer, chars, out);
+        return row;
+    }
+
+    /**
+     * Writes the aggregates of the report: how many projects match, the amount
+     * outstanding on them and how many each contractor has.
+     *
+     * @param out where the summary is written, it is neither flushed nor closed
+     */
+    public void writeSummary(Writer out) throws IOException {
+        StringBuilder summary = new StringBuilder(256);
+        summary.append("Projects:           ").append(count()).append('\n');
+        summary.append("Amount outstanding: £");
+        ReportFormat.appendPounds(totalOutstanding(), summary);
+        summary.append("\nProjects per contractor:\n");
+        for (Map.Entry<String, Long> contractor : countByContractor().entrySet()){
+            summary.append("  ").append(contractor.getKey()).append(": ").append(contractor.getValue()).append('\n');
+        }
+        out.append(summary);
+    }
+
+    // Streams the projects that pass the filters, in parallel if asked and there are enough of them
+    private Stream<Project> matching(boolean parallel){
+        BitSet candidates = slots == null ? projects.allSlots() : slots;
+        Stream<Project> rows = projects.stream(candidates);
+        if (parallel && candidates.cardinality() >= PARALLEL_THRESHOLD){
+            rows = rows.parallel();
+        }
+        return filter == null ? rows : rows.filter(filter);
+    }
+
+    // Combines an indexed filter with the ones already used
+    private void restrict(BitSet matches){
+        if (slots == null){
+            slots = matches;
+        }
+        else {
+            slots.and(matches);
+        }
+    }
+
+    // Copies the buffer to the Writer without making a String of it, returning the array used
+    private static char[] copy(StringBuilder buffer, char[] chars, Writer out) throws IOException {
+        int length = buffer.length();
+        if (chars.length < length){
+            chars = new char[length];
+        }
+        buffer.getChars(0, length, chars, 0);
+        out.write(chars, 0, length);
+        buffer.setLength(0);
+        return chars;
+    }
+}
@@ -0,0 +1,947 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Holds every project in the folio and indexes them by job number so that
+ * a project can be found without walking through the whole list.
+ * <p>
+ * Projects are kept in the order they were added (their 'slot') and the
+ * job number index maps straight to that slot. Projects are also indexed by
+ * their deadline, and a bitmap over the slots marks which projects are
+ * unfinished. The names of the architect, contractor and customer are indexed
+ * too, ignoring case and extra spaces. Queries such as unfinished and overdue are
+ * answered by intersecting the bitmaps of these indexes without checking every project.
+ * The words of the job name, address, build type and ERF number are indexed for
+ * searching (see {@link ProjectSearch}).
+ * <p>
+ * The repository can be shared by several sessions at once. The indexes are
+ * guarded by a StampedLock, which changes take for writing only while they move
+ * a project's slot in an index. Queries copy the matching slots from the indexes
+ * as optimistic reads, which don't block a change and are only done again under
+ * the read lock if a change got in the way, and the list of projects is then
+ * built from the slots without any lock: a project is never moved from its slot,
+ * only replaced. Changes that read a value and then write it back are made through
+ * {@link #update} which locks one of a fixed set of stripes chosen by job number,
+ * so sessions working on different projects don't wait for each other.
+ *
+ * @author Calum Gilchrist
+ */
+public class ProjectRepository {
+    // Projects in the order they were added, the position in the array is the projects slot. The array is
+    // only replaced by a bigger copy, so a reader holding it can look up any slot it was given by an index
+    private volatile Project[] projects = new Project[16];
+    private int count;
+    // Primary index from job number to slot
+    private final JobNumberIndex jobIndex = new JobNumberIndex();
+    // Slots of projects by their deadline as an epoch day, a map that can be read while it is being changed
+    private final ConcurrentSkipListMap<Long, SlotList> deadlineIndex = new ConcurrentSkipListMap<>();
+    // Bit for each slot that is set while the project there is unfinished
+    private final BitSet unfinished = new BitSet();
+    // Slots of projects by the normalised name of their architect, contractor and customer, one map for each role
+    private final List<HashMap<String, NamedSlots>> nameIndex = new ArrayList<>();
+    // Words of the job name, address, build type and ERF number
+    private final ProjectSearch search = new ProjectSearch();
+    // The distinct names for each role, kept until a name is added or removed, null until they are listed
+    private final List<List<String>> names = new ArrayList<>();
+    // Guards the list of projects and all of the indexes
+    private final StampedLock indexLock = new StampedLock();
+    // Roles of the people on a project, in the order of the name indexes
+    private static final String[] ROLES = {"Architect", "Contractor", "Customer"};
+    // Number of locks projects are spread across when they are changed, a power of two
+    private static final int STRIPES = 64;
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    // Projects that have changed and need saving
+    final ChangeSet changes;
+
+    public ProjectRepository(){
+        this(new ChangeSet());
+    }
+
+    /**
+     * @param changes where projects that change are recorded, usually shared with the person registry
+     */
+    public ProjectRepository(ChangeSet changes){
+        this.changes = changes;
+        for (int role = 0; role < ROLES.length; role++){
+            nameIndex.add(new HashMap<>());
+            names.add(null);
+        }
+        for (int i = 0; i < STRIPES; i++){
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Adds a project to the repository.
+     *
+     * @param project the project to add
+     * @return true if it was added, false if a project with the same job number already exists
+     */
+    public boolean add(Project project){
+        long stamp = indexLock.writeLock();
+        try {
+            if (jobIndex.get(project.getJobNumber()) != JobNumberIndex.NO_SLOT){
+                return false;
+            }
+            int slot = append(project);
+            jobIndex.put(project.getJobNumber(), slot);
+            project.repository = this;
+            indexDeadline(slot, project.getDeadline());
+            indexNames(slot, project);
+            search.add(slot, project);
+            unfinished.set(slot, !project.getCompleted());
+            return true;
+        } finally {
+            indexLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Replaces the project that has the same job number, or adds it if there isn't one.
+     * Used when changes are replayed from the projects journal.
+     *
+     * @param project the newer version of the project
+     */
+    public void replace(Project project){
+        long stamp = indexLock.writeLock();
+        try {
+            int slot = jobIndex.get(project.getJobNumber());
+            if (slot == JobNumberIndex.NO_SLOT){
+                slot = append(project);
+                jobIndex.put(project.getJobNumber(), slot);
+            }
+            else {
+                Project old = projects[slot];
+                projects[slot] = project;
+                old.repository = null;
+                unindexDeadline(slot, old.getDeadline());
+                unindexNames(slot, old);
+                search.remove(slot, old);
+            }
+            project.repository = this;
+            indexDeadline(slot, project.getDeadline());
+            indexNames(slot, project);
+            search.add(slot, project);
+            unfinished.set(slot, !project.getCompleted());
+        } finally {
+            indexLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Finds a project from its job number.
+     *
+     * @param jobNumber the job number to look for
+     * @return the project or null if no project has that job number
+     */
+    public Project find(int jobNumber){
+        long start = Metrics.LOOKUP.start();
+        Project project = findUnmetered(jobNumber);
+        Metrics.LOOKUP.recordSince(start);
+        return project;
+    }
+
+    private Project findUnmetered(int jobNumber){
+        // Tries without locking first, if a writer got in the way the lookup is done again under the read lock
+        long stamp = indexLock.tryOptimisticRead();
+        if (stamp != 0){
+            try {
+                Project project = lookup(jobNumber);
+                if (indexLock.validate(stamp)){
+                    return project;
+                }
+            } catch (RuntimeException e) {
+                // The index was part way through being changed, fall through to the read lock
+            }
+        }
+        stamp = indexLock.readLock();
+        try {
+            return lookup(jobNumber);
+        } finally {
+            indexLock.unlockRead(stamp);
+        }
+    }
+
+    private Project lookup(int jobNumber){
+        int slot = jobIndex.get(jobNumber);
+        if (slot == JobNumberIndex.NO_SLOT){
+            return null;
+        }
+        return projects[slot];
+    }
+
+    // Puts a project in the next slot, must hold the write lock
+    private int append(Project project){
+        Project[] current = projects;
+        if (count == current.length){
+            current = Arrays.copyOf(current, count * 2);
+        }
+        current[count] = project;
+        // Written after the project so a reader that sees the new array sees the project in it
+        projects = current;
+        return count++;
+    }
+
+    /**
+     * Reads the indexes without locking, and again under the read lock if a change
+     * got in the way. The read only copies out of the indexes, as it can see them
+     * part way through being changed.
+     */
+    private <T> T read(Supplier<T> read){
+        long stamp = indexLock.tryOptimisticRead();
+        if (stamp != 0){
+            try {
+                T result = read.get();
+                if (indexLock.validate(stamp)){
+                    return result;
+                }
+            } catch (RuntimeException e) {
+                // An index was part way through being changed, fall through to the read lock
+            }
+        }
+        stamp = indexLock.readLock();
+        try {
+            return read.get();
+        } finally {
+            indexLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Makes a change to a project while holding the lock for its job number, so
+     * changes that read and then write a value aren't lost when sessions change
+     * the same project at the same time.
+     *
+     * @param jobNumber the project to change
+     * @param change the change to make
+     * @return the changed project, or null if no project has that job number
+     */
+    public Project update(int jobNumber, Consumer<Project> change){
+        ReentrantLock lock = lockFor(jobNumber);
+        lock.lock();
+        try {
+            Project project = find(jobNumber);
+            if (project != null){
+                change.accept(project);
+            }
+            return project;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param jobNumber a job number
+     * @return the lock that guards changes to the project with that job number
+     */
+    public ReentrantLock lockFor(int jobNumber){
+        return stripes[JobNumberIndex.mix(jobNumber) & (STRIPES - 1)];
+    }
+
+    /**
+     * Checks if a job number is already in use.
+     *
+     * @param jobNumber the job number to check
+     * @return true if a project has that job number
+     */
+    public boolean contains(int jobNumber){
+        return find(jobNumber) != null;
+    }
+
+    /**
+     * @return a copy of every project in the order they were added
+     */
+    public List<Project> all(){
+        return Collections.unmodifiableList(Arrays.asList(read(() -> Arrays.copyOf(projects, count))));
+    }
+
+    /**
+     * @return the number of projects stored
+     */
+    public int size(){
+        return read(() -> count);
+    }
+
+    /**
+     * Finds the unfinished projects whose deadline is before a date.
+     *
+     * @param date the date to check against, usually today
+     * @return the overdue projects in the order they were added
+     */
+    public List<Project> overdue(LocalDate date){
+        BitSet overdue = deadlineBefore(date);
+        overdue.and(unfinished);
+        return select(overdue);
+    }
+
+    /**
+     * Finds the unfinished projects that are due from a date up to a number of days after it.
+     *
+     * @param date the first day to include, usually today
+     * @param days how many days after the date to include
+     * @return the projects that are due in the order they were added
+     */
+    public List<Project> dueWithin(LocalDate date, int days){
+        BitSet due = deadlineBetween(date, date.plusDays(days));
+        due.and(unfinished);
+        return select(due);
+    }
+
+    /**
+     * @return the unfinished projects in the order they were added
+     */
+    public List<Project> unfinished(){
+        return select(unfinishedSlots());
+    }
+
+    /**
+     * @return the number of unfinished projects, counted from the bitmap alone
+     */
+    public int unfinishedCount(){
+        return unfinishedSlots().cardinality();
+    }
+
+    /**
+     * @return a copy of the bitmap of unfinished project slots, which can be combined with other filters
+     */
+    public BitSet unfinishedSlots(){
+        long start = System.nanoTime();
+        BitSet slots = unfinishedUnmetered();
+        Metrics.QUERY.recordSince(start);
+        return slots;
+    }
+
+    private BitSet unfinishedUnmetered(){
+        // Copying the bitmap is quick, so it is tried without locking and only repeated under the read lock
+        // if a writer changed it at the same time
+        long stamp = indexLock.tryOptimisticRead();
+        if (stamp != 0){
+            try {
+                BitSet copy = BitSet.valueOf(unfinished.toLongArray());
+                if (indexLock.validate(stamp)){
+                    return copy;
+                }
+            } catch (RuntimeException e) {
+                // The bitmap was part way through growing, fall through to the read lock
+            }
+        }
+        stamp = indexLock.readLock();
+        try {
+            return (BitSet) unfinished.clone();
+        } finally {
+            indexLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @param date the date to check against
+     * @return bitmap of the slots of projects whose deadline is before the date
+     */
+    public BitSet deadlineBefore(LocalDate date){
+        long start = System.nanoTime();
+        BitSet slots = read(() -> slotsOf(deadlineIndex.headMap(date.toEpochDay(), false)));
+        Metrics.QUERY.recordSince(start);
+        return slots;
+    }
+
+    /**
+     * @param from the first day to include
+     * @param to the last day to include
+     * @return bitmap of the slots of projects whose deadline is between the two dates
+     */
+    public BitSet deadlineBetween(LocalDate from, LocalDate to){
+        long start = System.nanoTime();
+        BitSet slots = read(() -> slotsOf(deadlineIndex.subMap(from.toEpochDay(), true, to.toEpochDay(), true)));
+        Metrics.QUERY.recordSince(start);
+        return slots;
+    }
+
+    /**
+     * Searches the job names, addresses, build types and ERF numbers. Every word of
+     * the query has to match the start of a word, or be a typo or two away from a
+     * word if nothing starts with it.
+     *
+     * @param query e.g. "carmichael pl" or "836"
+     * @return the matching projects in the order they were added
+     */
+    public List<Project> search(String query){
+        return select(searchSlots(query));
+    }
+
+    /**
+     * @param query words or the start of words to search for
+     * @return bitmap of the slots of the matching projects, see {@link #search}
+     */
+    public BitSet searchSlots(String query){
+        long start = System.nanoTime();
+        long stamp = indexLock.readLock();
+        try {
+            return search.find(query);
+        } finally {
+            indexLock.unlockRead(stamp);
+            Metrics.QUERY.recordSince(start);
+        }
+    }
+
+    /**
+     * Finds the projects a person is involved in by their name, ignoring case and extra spaces.
+     *
+     * @param role Architect, Contractor or Customer
+     * @param name the persons name
+     * @return the projects in the order they were added
+     */
+    public List<Project> withPerson(String role, String name){
+        int index = roleIndex(role);
+        String key = normalise(name);
+        long start = System.nanoTime();
+        // Copied and sorted rather than made into a bitmap, which would be as big as the whole folio
+        int[] slots = read(() -> {
+            NamedSlots named = nameIndex.get(index).get(key);
+            return named == null ? new int[0] : named.copy();
+        });
+        Arrays.sort(slots);
+        Project[] current = projects;
+        List<Project> matches = new ArrayList<>(slots.length);
+        for (int slot : slots){
+            matches.add(current[slot]);
+        }
+        Metrics.QUERY.recordSince(start);
+        return matches;
+    }
+
+    /**
+     * @param role Architect, Contractor or Customer
+     * @param name the persons name, ignoring case and extra spaces
+     * @return bitmap of the slots of projects the person is involved in
+     */
+    public BitSet personSlots(String role, String name){
+        int index = roleIndex(role);
+        String key = normalise(name);
+        long start = System.nanoTime();
+        BitSet slots = new BitSet();
+        int[] copied = read(() -> {
+            NamedSlots named = nameIndex.get(index).get(key);
+            return named == null ? new int[0] : named.copy();
+        });
+        for (int slot : copied){
+            slots.set(slot);
+        }
+        Metrics.QUERY.recordSince(start);
+        return slots;
+    }
+
+    /**
+     * Finds a person on one of the projects by their name, ignoring case and extra spaces.
+     *
+     * @param role Architect, Contractor or Customer
+     * @param name the persons name
+     * @return the person, or null if no project has someone of that name in that role
+     */
+    public Person findPerson(String role, String name){
+        int index = roleIndex(role);
+        long stamp = indexLock.readLock();
+        try {
+            NamedSlots named = nameIndex.get(index).get(normalise(name));
+            return named == null ? null : person(index, projects[named.slots[0]]);
+        } finally {
+            indexLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Lists the names of everyone with a role on at least one project, each name once.
+     *
+     * @param role Architect, Contractor or Customer
+     * @return the names as they are written on the projects, in alphabetical order, which can't be changed
+     */
+    public List<String> names(String role){
+        int index = roleIndex(role);
+        long stamp = indexLock.readLock();
+        try {
+            List<String> distinct = names.get(index);
+            if (distinct == null){
+                // The index keeps how each name is spelt so no project has to be looked at, and the list is
+                // only sorted again after a name is added or removed. Two readers may both make the list,
+                // which is harmless.
+                List<String> keys = new ArrayList<>(nameIndex.get(index).keySet());
+                Collections.sort(keys);
+                List<String> spelt = new ArrayList<>(keys.size());
+                for (String key : keys){
+                    spelt.add(nameIndex.get(index).get(key).name);
+                }
+                distinct = List.copyOf(spelt);
+                names.set(index, distinct);
+            }
+            return distinct;
+        } finally {
+            indexLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Gets the projects for the slots set in a bitmap.
+     *
+     * @param slots bitmap of slots, usually the result of combining filters
+     * @return the projects in the order they were added
+     */
+    public List<Project> select(BitSet slots){
+        List<Project> matches = new ArrayList<>(slots.cardinality());
+        // No lock is needed, the slots came from the indexes and a project never leaves its slot
+        Project[] current = projects;
+        for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)){
+            matches.add(current[slot]);
+        }
+        return matches;
+    }
+
+    /**
+     * Streams the projects for the slots set in a bitmap, each project is only looked
+     * up as the stream reaches it so nothing is copied if only part of the stream is used.
+     *
+     * @param slots bitmap of slots, usually the result of combining filters
+     * @return the projects in the order they were added
+     */
+    public Stream<Project> stream(BitSet slots){
+        return slots.stream().mapToObj(this::projectAt);
+    }
+
+    /**
+     * @return bitmap with the slot of every project set, to start combining filters from
+     */
+    public BitSet allSlots(){
+        BitSet slots = new BitSet();
+        slots.set(0, size());
+        return slots;
+    }
+
+    // Project in a slot, which needs no lock as it never leaves its slot
+    private Project projectAt(int slot){
+        return projects[slot];
+    }
+
+    /**
+     * Called by a project to change its deadline. The deadline is changed and the
+     * project moved in the deadline index together, so two sessions changing the
+     * same deadline can't leave the index out of step with the project.
+     */
+    void changeDeadline(Project project, LocalDate newDeadline){
+        long stamp = indexLock.writeLock();
+        try {
+            LocalDate oldDeadline = project.deadline;
+            project.deadline = newDeadline;
+            int slot = jobIndex.get(project.getJobNumber());
+            unindexDeadline(slot, oldDeadline);
+            indexDeadline(slot, newDeadline);
+        } finally {
+            indexLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Called by a project to mark it completed or unfinished, updating the status bitmap at the same time.
+     */
+    void changeCompleted(Project project, boolean newCompleted){
+        long stamp = indexLock.writeLock();
+        try {
+            project.completed = newCompleted;
+            unfinished.set(jobIndex.get(project.getJobNumber()), !newCompleted);
+        } finally {
+            indexLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Called by a project to change one of the fields that are searched, so its words are
+     * taken out of the search index and put back once it has changed.
+     */
+    void changeSearched(Project project, Runnable change){
+        long stamp = indexLock.writeLock();
+        try {
+            int slot = jobIndex.get(project.getJobNumber());
+            search.remove(slot, project);
+            change.run();
+            search.add(slot, project);
+        } finally {
+            indexLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Called by a project to change its architect, contractor or customer, updating the name index at the same time.
+     */
+    void changePerson(Project project, String role, Person newPerson){
+        int index = roleIndex(role);
+        long stamp = indexLock.writeLock();
+        try {
+            int slot = jobIndex.get(project.getJobNumber());
+            unindexName(index, slot, person(index, project));
+            switch (index) {
+                case 0 -> project.architect = newPerson;
+                case 1 -> project.contractor = newPerson;
+                default -> project.customer = newPerson;
+            }
+            indexName(index, slot, newPerson);
+        } finally {
+            indexLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Called when a person is renamed, moving the projects they are involved in to their new name.
+     * Other people whose names only differ by case or spacing are left where they are.
+     */
+    void renamePerson(Person person, String oldName){
+        String oldKey = normalise(oldName);
+        String newKey = key(person);
+        long stamp = indexLock.writeLock();
+        try {
+            for (int index = 0; index < ROLES.length; index++){
+                NamedSlots named = nameIndex.get(index).get(oldKey);
+                names.set(index, null);
+                if (named == null){
+                    continue;
+                }
+                if (oldKey.equals(newKey)){
+                    // Only the case or spacing changed so the projects stay where they are, with the new spelling
+                    if (named.name.equals(oldName)){
+                        named.name = person.getName();
+                    }
+                    continue;
+                }
+                NamedSlots kept = new NamedSlots(named.name);
+                for (int i = 0; i < named.size; i++){
+                    int slot = named.slots[i];
+                    if (person(index, projects[slot]) == person){
+                        nameIndex.get(index).computeIfAbsent(newKey, key -> new NamedSlots(person.getName())).add(slot);
+                    }
+                    else {
+                        kept.add(slot);
+                    }
+                }
+                if (kept.size == 0){
+                    nameIndex.get(index).remove(oldKey);
+                }
+                else {
+                    nameIndex.get(index).put(oldKey, kept);
+                }
+            }
+        } finally {
+            indexLock.unlockWrite(stamp);
+        }
+    }
+
+    private void indexNames(int slot, Project project){
+        for (int index = 0; index < ROLES.length; index++){
+            indexName(index, slot, person(index, project));
+        }
+    }
+
+    private void unindexNames(int slot, Project project){
+        for (int index = 0; index < ROLES.length; index++){
+            unindexName(index, slot, person(index, project));
+        }
+    }
+
+    private void indexName(int index, int slot, Person person){
+        if (person == null){
+            return;
+        }
+        String key = key(person);
+        NamedSlots named = nameIndex.get(index).get(key);
+        if (named == null){
+            named = new NamedSlots(person.getName());
+            nameIndex.get(index).put(key, named);
+            names.set(index, null);
+        }
+        named.add(slot);
+    }
+
+    private void unindexName(int index, int slot, Person person){
+        if (person == null){
+            return;
+        }
+        String key = key(person);
+        NamedSlots named = nameIndex.get(index).get(key);
+        if (named != null && named.remove(slot) && named.size == 0){
+            nameIndex.get(index).remove(key);
+            names.set(index, null);
+        }
+    }
+
+    private static Person person(int index, Project project){
+        return switch (index) {
+            case 0 -> project.architect;
+            case 1 -> project.contractor;
+            default -> project.customer;
+        };
+    }
+
+    private static int roleIndex(String role){
+        for (int index = 0; index < ROLES.length; index++){
+            if (ROLES[index].equalsIgnoreCase(role)){
+                return index;
+            }
+        }
+        throw new IllegalArgumentException("Role " + role + " not recognised");
+    }
+
+    // The key a persons name is indexed under, worked out once and kept with the person until they are renamed
+    private static String key(Person person){
+        String key = person.nameKey;
+        if (key == null){
+            key = normalise(person.getName());
+            person.nameKey = key;
+        }
+        return key;
+    }
+
+    /**
+     * Makes the key a name is indexed under: lower case, with leading, trailing and repeated spaces removed.
+     *
+     * @param name a persons name
+     * @return the key, empty for a missing name
+     */
+    static String normalise(String name){
+        if (name == null){
+            return "";
+        }
+        StringBuilder key = new StringBuilder(name.length());
+        boolean space = false;
+        for (int i = 0; i < name.length(); i++){
+            char c = name.charAt(i);
+            if (Character.isWhitespace(c)){
+                space = key.length() > 0;
+            }
+            else {
+                if (space){
+                    key.append(' ');
+                    space = false;
+                }
+                key.append(Character.toLowerCase(c));
+            }
+        }
+        return key.toString();
+    }
+
+    private void indexDeadline(int slot, LocalDate deadline){
+        // Projects without a valid deadline can never be overdue
+        if (deadline == null){
+            return;
+        }
+        deadlineIndex.computeIfAbsent(deadline.toEpochDay(), day -> new SlotList()).add(slot);
+    }
+
+    private void unindexDeadline(int slot, LocalDate deadline){
+        if (deadline == null){
+            return;
+        }
+        SlotList slots = deadlineIndex.get(deadline.toEpochDay());
+        if (slots != null && slots.remove(slot) && slots.size == 0){
+            deadlineIndex.remove(deadline.toEpochDay());
+        }
+    }
+
+    private BitSet slotsOf(NavigableMap<Long, SlotList> days){
+        BitSet slots = new BitSet(count);
+        for (Map.Entry<Long, SlotList> day : days.entrySet()){
+            SlotList daySlots = day.getValue();
+            // Read once, as a change may be adding to the list during an optimistic read
+            int size = daySlots.size;
+            int[] dayArray = daySlots.slots;
+            for (int i = 0; i < size; i++){
+                slots.set(dayArray[i]);
+            }
+        }
+        return slots;
+    }
+
+    /**
+     * Small growable list of slots, used for the projects due on a single day or with the same person.
+     * Once a list is too long to search it also keeps where each slot is, so one is removed without a search.
+     */
+    static class SlotList {
+        // Lists up to this long are searched to remove a slot
+        private static final int SCAN_LIMIT = 8;
+
+        int[] slots = new int[2];
+        int size;
+        // Position of each slot in the list, only made for lists longer than SCAN_LIMIT
+        private JobNumberIndex positions;
+
+        void add(int slot){
+            if (size == slots.length){
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+            if (positions != null){
+                positions.put(slot, size);
+            }
+            slots[size++] = slot;
+            if (positions == null && size > SCAN_LIMIT){
+                positions = new JobNumberIndex();
+                for (int i = 0; i < size; i++){
+                    positions.put(slots[i], i);
+                }
+            }
+        }
+
+        // Copies the slots, reading the size once as a change may be adding to the list during an optimistic read
+        int[] copy(){
+            int copied = size;
+            return Arrays.copyOf(slots, copied);
+        }
+
+        boolean remove(int slot){
+            int i = indexOf(slot);
+            if (i == JobNumberIndex.NO_SLOT){
+                return false;
+            }
+            // Order within a day doesn't matter so the last slot is moved into the gap
+            int last = slots[--size];
+            slots[i] = last;
+            if (positions != null){
+                positions.remove(slot);
+                if (i < size){
+                    positions.put(last, i);
+                }
+            }
+            return true;
+        }
+
+        private int indexOf(int slot){
+            if (positions != null){
+                return positions.get(slot);
+            }
+            for (int i = 0; i < size; i++){
+                if (slots[i] == slot){
+                    return i;
+                }
+            }
+            return JobNumberIndex.NO_SLOT;
+        }
+    }
+
+    /**
+     * Slots of the projects with the same person's name, and how the name was spelt
+     * by the first person indexed under it.
+     */
+    static class NamedSlots extends SlotList {
+        String name;
+
+        NamedSlots(String name){
+            this.name = name;
+        }
+    }
+
+    /**
+     * Open addressing hash map from an int job number to an int slot, also used by
+     * {@link SlotList} for where each slot is in the list.
+     * Keys and values are stored in plain int arrays so no boxing happens on lookups.
+     */
+    static class JobNumberIndex {
+        // Returned when a job number is not in the index
+        static final int NO_SLOT = -1;
+
+        private int[] keys;
+        private int[] values;
+        // Marks which positions in the arrays are in use, as any int can be a job number
+        private boolean[] used;
+        private int size;
+
+        JobNumberIndex(){
+            keys = new int[16];
+            values = new int[16];
+            used = new boolean[16];
+        }
+
+        int get(int key){
+            int mask = keys.length - 1;
+            int i = mix(key) & mask;
+            // Linear probe until the key or an empty position is found
+            while (used[i]){
+                if (keys[i] == key){
+                    return values[i];
+                }
+                i = (i + 1) & mask;
+            }
+            return NO_SLOT;
+        }
+
+        void put(int key, int value){
+            // Keep the table at most half full so probe runs stay short
+            if ((size + 1) * 2 > keys.length){
+                resize();
+            }
+            int mask = keys.length - 1;
+            int i = mix(key) & mask;
+            while (used[i]){
+                if (keys[i] == key){
+                    values[i] = value;
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            used[i] = true;
+            keys[i] = key;
+            values[i] = value;
+            size++;
+        }
+
+        void remove(int key){
+            int mask = keys.length - 1;
+            int i = mix(key) & mask;
+            while (used[i] && keys[i] != key){
+                i = (i + 1) & mask;
+            }
+            if (!used[i]){
+                return;
+            }
+            // Later keys of the probe run are moved back into the gap, or a lookup would stop at it
+            int gap = i;
+            for (int j = (i + 1) & mask; used[j]; j = (j + 1) & mask){
+                int home = mix(keys[j]) & mask;
+                // The key can fill the gap if the gap is between where it belongs and where it is
+                if (((j - home) & mask) >= ((j - gap) & mask)){
+                    keys[gap] = keys[j];
+                    values[gap] = values[j];
+                    gap = j;
+                }
+            }
+            used[gap] = false;
+            size--;
+        }
+
+        private void resize(){
+            int[] oldKeys = keys;
+            int[] oldValues = values;
+            boolean[] oldUsed = used;
+            keys = new int[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            used = new boolean[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++){
+                if (oldUsed[i]){
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        // Spreads sequential job numbers across the table
+        static int mix(int key){
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -0,0 +1,296 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Word index over the job name, address, build type and ERF number of the
+ * projects, so a project can be found from part of its address or its ERF number.
+ * <p>
+ * Every word is kept in a dictionary with the slots of the projects it appears in.
+ * The words are also kept in a sorted array, so the words starting with a prefix are
+ * next to each other and found with a binary search. The array is only sorted again
+ * when it is searched after a word has been added or removed. Each
+ * word is also broken into three letter pieces (trigrams), which find the words
+ * that are spelt nearly the same as a mistyped one without checking the whole
+ * dictionary. A short word can share no trigrams at all with the same word typed
+ * with two letters swapped, so short words are checked against every word of about
+ * the same length instead. A query matches projects that have every one of its words: first
+ * as the start of a word, then allowing a typo or two if nothing starts with it.
+ * <p>
+ * The index isn't thread safe, the {@link ProjectRepository} that owns it
+ * guards it with its own lock and updates it when a searched field changes.
+ *
+ * @author Calum Gilchrist
+ */
+public class ProjectSearch {
+    // Slots of the projects each word appears in
+    private final HashMap<String, ProjectRepository.SlotList> words = new HashMap<>();
+    // Every word in order for finding prefixes, null when a word has been added or removed since it was sorted
+    private String[] sorted;
+    // Words containing each trigram, for finding words close to a mistyped one
+    private final HashMap<String, List<String>> trigrams = new HashMap<>();
+    // Reused for the words of each project added or removed, as the index is only changed by one thread at a time
+    private final List<String> projectWords = new ArrayList<>();
+    private final StringBuilder word = new StringBuilder();
+
+    /**
+     * Adds the words of a project.
+     *
+     * @param slot the projects slot in the repository
+     * @param project the project
+     */
+    void add(int slot, Project project){
+        for (String word : words(project)){
+            ProjectRepository.SlotList slots = words.get(word);
+            if (slots == null){
+                slots = new ProjectRepository.SlotList();
+                words.put(word, slots);
+                sorted = null;
+                for (String trigram : trigrams(word)){
+                    trigrams.computeIfAbsent(trigram, key -> new ArrayList<>(2)).add(word);
+                }
+            }
+            slots.add(slot);
+        }
+    }
+
+    /**
+     * Removes the words of a project, it must still have the values it was added with.
+     *
+     * @param slot the projects slot in the repository
+     * @param project the project
+     */
+    void remove(int slot, Project project){
+        for (String word : words(project)){
+            ProjectRepository.SlotList slots = words.get(word);
+            if (slots != null && slots.remove(slot) && slots.size == 0){
+                // The word isn't used by any project now, so it is forgotten
+                words.remove(word);
+                sorted = null;
+                for (String trigram : trigrams(word)){
+                    List<String> containing = trigrams.get(trigram);
+                    containing.remove(word);
+                    if (containing.isEmpty()){
+                        trigrams.remove(trigram);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the projects matching every word of a query.
+     *
+     * @param query words or the start of words from the job name, address, build type or ERF number
+     * @return bitmap of the matching slots, empty if the query has no words
+     */
+    BitSet find(String query){
+        BitSet matches = null;
+        for (String term : tokens(query)){
+            BitSet termMatches = prefixMatches(term);
+            if (termMatches.isEmpty()){
+                termMatches = closeMatches(term);
+            }
+            if (matches == null){
+                matches = termMatches;
+            }
+            else {
+                matches.and(termMatches);
+            }
+            if (matches.isEmpty()){
+                break;
+            }
+        }
+        return matches == null ? new BitSet() : matches;
+    }
+
+    /**
+     * @return the number of different words indexed
+     */
+    int wordCount(){
+        return words.size();
+    }
+
+    // Slots of the projects with a word starting with the term
+    private BitSet prefixMatches(String term){
+        BitSet slots = new BitSet();
+        String[] dictionary = sortedWords();
+        int first = Arrays.binarySearch(dictionary, term);
+        // When the term itself isn't a word, the words starting with it come where it would be
+        for (int i = first < 0 ? -first - 1 : first; i < dictionary.length && dictionary[i].startsWith(term); i++){
+            addAll(words.get(dictionary[i]), slots);
+        }
+        return slots;
+    }
+
+    /**
+     * Sorts the words if any have been added or removed since they were last sorted.
+     * Called with the repository's read lock held, so two readers may both sort them, which is harmless.
+     */
+    private String[] sortedWords(){
+        String[] dictionary = sorted;
+        if (dictionary == null){
+            dictionary = words.keySet().toArray(new String[0]);
+            Arrays.sort(dictionary);
+            sorted = dictionary;
+        }
+        return dictionary;
+    }
+
+    // Slots of the projects with a word within a typo or two of the term
+    private BitSet closeMatches(String term){
+        BitSet slots = new BitSet();
+        // Short words can't take as many typos before they match nearly anything
+        int allowed = term.length() <= 4 ? 1 : 2;
+        Set<String> termTrigrams = trigrams(term);
+        // A changed, added or removed letter spoils at most three trigrams, swapping two letters spoils four
+        int needed = termTrigrams.size() - 4 * allowed;
+        if (needed <= 0){
+            // The word might share no trigrams with the term at all, so every word of about the same length is checked
+            for (String word : sortedWords()){
+                if (Math.abs(word.length() - term.length()) <= allowed && missingLetters(term, word, allowed) <= allowed
+                        && distance(term, word, allowed) <= allowed){
+                    addAll(words.get(word), slots);
+                }
+            }
+            return slots;
+        }
+        // Counts how many trigrams each word shares with the term
+        Map<String, Integer> shared = new HashMap<>();
+        for (String trigram : termTrigrams){
+            List<String> containing = trigrams.get(trigram);
+            if (containing != null){
+                for (String word : containing){
+                    shared.merge(word, 1, Integer::sum);
+                }
+            }
+        }
+        for (Map.Entry<String, Integer> candidate : shared.entrySet()){
+            String word = candidate.getKey();
+            if (candidate.getValue() >= needed && Math.abs(word.length() - term.length()) <= allowed
+                    && distance(term, word, allowed) <= allowed){
+                addAll(words.get(word), slots);
+            }
+        }
+        return slots;
+    }
+
+    /**
+     * Number of letters of the term that don't appear anywhere in the word, stopping
+     * early once it is over a limit. Each typo can account for at most one of them
+     * (swapped letters are still there), so this rules most words out before working
+     * out the distance.
+     */
+    private static int missingLetters(String term, String word, int limit){
+        int missing = 0;
+        for (int i = 0; i < term.length() && missing <= limit; i++){
+            if (word.indexOf(term.charAt(i)) < 0){
+                missing++;
+            }
+        }
+        return missing;
+    }
+
+    private static void addAll(ProjectRepository.SlotList matching, BitSet slots){
+        for (int i = 0; i < matching.size; i++){
+            slots.set(matching.slots[i]);
+        }
+    }
+
+    /**
+     * Number of single letter insertions, deletions, changes or swaps of neighbouring
+     * letters needed to turn one word into the other, stopping early once it is over a limit.
+     *
+     * @return the distance, or limit + 1 if it is more than the limit
+     */
+    static int distance(String a, String b, int limit){
+        int[] beforeLast = new int[b.length() + 1];
+        int[] last = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++){
+            last[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++){
+            current[0] = i;
+            int best = current[0];
+            for (int j = 1; j <= b.length(); j++){
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int value = Math.min(Math.min(last[j] + 1, current[j - 1] + 1), last[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)){
+                    value = Math.min(value, beforeLast[j - 2] + 1);
+                }
+                current[j] = value;
+                best = Math.min(best, value);
+            }
+            if (best > limit){
+                return limit + 1;
+            }
+            int[] spare = beforeLast;
+            beforeLast = last;
+            last = current;
+            current = spare;
+        }
+        return Math.min(last[b.length()], limit + 1);
+    }
+
+    // The different words of the searched fields of a project, in the reused list
+    private List<String> words(Project project){
+        projectWords.clear();
+        tokens(project.jobName, projectWords, word);
+        tokens(project.physicalAddress, projectWords, word);
+        tokens(project.buildType, projectWords, word);
+        String erfNumber = Integer.toString(project.erfNumber);
+        if (!projectWords.contains(erfNumber)){
+            projectWords.add(erfNumber);
+        }
+        return projectWords;
+    }
+
+    /**
+     * Splits text into lower case words of letters and digits.
+     *
+     * @param text the text, may be null
+     * @return the words in the order they appear
+     */
+    static List<String> tokens(String text){
+        List<String> tokens = new ArrayList<>();
+        tokens(text, tokens, new StringBuilder());
+        return tokens;
+    }
+
+    // Adds the words of the text that aren't in the list already, a project only has a handful
+    private static void tokens(String text, List<String> tokens, StringBuilder word){
+        if (text == null){
+            return;
+        }
+        word.setLength(0);
+        for (int i = 0; i <= text.length(); i++){
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)){
+                word.append(Character.toLowerCase(c));
+            }
+            else if (word.length() > 0){
+                String token = word.toString();
+                if (!tokens.contains(token)){
+                    tokens.add(token);
+                }
+                word.setLength(0);
+            }
+        }
+    }
+
+    // Trigrams of a word, with its start and end marked so they count too
+    private static Set<String> trigrams(String word){
+        String marked = "^" + word + "$";
+        Set<String> pieces = new LinkedHashSet<>();
+        for (int i = 0; i + 3 <= marked.length(); i++){
+            pieces.add(marked.substring(i, i + 3));
+        }
+        return pieces;
+    }
+}
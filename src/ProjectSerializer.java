@@ -0,0 +1,232 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+/**
+ * Writes people and projects in the text file format, and completed projects in
+ * the invoice format, without building up intermediate Strings.
+ * <p>
+ * Each record is built in a StringBuilder that is reused for every record and then
+ * copied to a Writer, or encoded into a reused byte buffer for a channel as the
+ * journal does. Numbers and dates are appended directly rather than being turned
+ * into Strings first. A serializer isn't thread safe, {@link #current()} gives
+ * each thread its own.
+ *
+ * @author Calum Gilchrist
+ */
+public class ProjectSerializer {
+    private static final ThreadLocal<ProjectSerializer> CURRENT = ThreadLocal.withInitial(ProjectSerializer::new);
+
+    // Reused for every record written
+    private final StringBuilder record = new StringBuilder(256);
+    // Reused to copy records into a Writer, as Writer.append would make a String of the record
+    private char[] chars = new char[256];
+    // Reused to encode records for writing to a channel
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private ByteBuffer bytes = ByteBuffer.allocate(512);
+    // The chars array as the encoder reads it, wrapped again only when the array grows
+    private CharBuffer charView = CharBuffer.wrap(chars);
+
+    /**
+     * @return the serializer for the current thread
+     */
+    public static ProjectSerializer current(){
+        return CURRENT.get();
+    }
+
+    /**
+     * Writes a person line of the text file, followed by a new line.
+     *
+     * @param person the person to write
+     * @param out where the line is written
+     */
+    public void writeLine(Person person, Appendable out) throws IOException {
+        record.setLength(0);
+        appendRecord(person, record);
+        record.append('\n');
+        copyTo(out);
+    }
+
+    /**
+     * Writes a project line of the text file, followed by a new line.
+     *
+     * @param project the project to write
+     * @param out where the line is written
+     */
+    public void writeLine(Project project, Appendable out) throws IOException {
+        record.setLength(0);
+        appendRecord(project, record);
+        record.append('\n');
+        copyTo(out);
+    }
+
+    /**
+     * Encodes a person line of the text file, followed by a new line, as UTF-8.
+     *
+     * @param person the person to encode
+     * @return the line, in a buffer that is reused by the next call
+     */
+    public ByteBuffer encodeLine(Person person){
+        record.setLength(0);
+        appendRecord(person, record);
+        record.append('\n');
+        return encode();
+    }
+
+    /**
+     * Encodes a project line of the text file, followed by a new line, as UTF-8.
+     *
+     * @param project the project to encode
+     * @return the line, in a buffer that is reused by the next call
+     */
+    public ByteBuffer encodeLine(Project project){
+        record.setLength(0);
+        appendRecord(project, record);
+        record.append('\n');
+        return encode();
+    }
+
+    /**
+     * Appends a person in the text file format: person|id|role|name|phone|email|address
+     */
+    static void appendRecord(Person person, StringBuilder out){
+        out.append("person|").append(person.id).append('|').append(person.role).append('|')
+                .append(person.name).append('|').append(person.phoneNumber).append('|')
+                .append(person.emailAddress).append('|').append(person.physicalAddress);
+    }
+
+    /**
+     * Appends a project in the text file format, the people are referred to by their id.
+     */
+    static void appendRecord(Project project, StringBuilder out){
+        out.append(project.jobNumber).append('|').append(project.jobName).append('|')
+                .append(project.buildType).append('|').append(project.physicalAddress).append('|')
+                .append(project.erfNumber).append('|').append(project.getTotalFee()).append('|')
+                .append(project.getTotalPaid()).append('|');
+        appendDate(project.deadline, out);
+        out.append('|').append(project.architect.id).append('|').append(project.contractor.id)
+                .append('|').append(project.customer.id).append('|').append(project.completed);
+    }
+
+    /**
+     * Appends a finalised project in the format of its completed project file.
+     */
+    static void appendCompleted(Project project, LocalDate date, StringBuilder out){
+        out.append("Job Number:      ").append(project.jobNumber)
+                .append("\nJob Name:        ").append(project.jobName)
+                .append("\nBuild Type:      ").append(project.buildType)
+                .append("\nProject Address: ").append(project.physicalAddress)
+                .append("\nERF Number:      ").append(project.erfNumber)
+                .append("\nProject Total:   ").append(project.getTotalFee())
+                .append("\nAmount Paid:     ").append(project.getTotalPaid())
+                .append("\nAmount Owed:     ").append(PaymentLedger.toPounds(project.ledger.outstanding()))
+                .append("\nBuild Deadline:  ");
+        appendDate(project.deadline, out);
+        out.append("\nCompletion Date: ");
+        appendDate(date, out);
+        out.append("\n\n-----Architect-----\n");
+        appendDetails(project.architect, out);
+        out.append("\n\n-----Contractor-----\n");
+        appendDetails(project.contractor, out);
+        out.append("\n\n-----Customer-----\n");
+        appendDetails(project.customer, out);
+    }
+
+    /**
+     * Appends a project as it is displayed to the user, with the names of the people involved.
+     */
+    static void appendDisplay(Project project, StringBuilder out){
+        out.append("\nJob Number:      ").append(project.jobNumber)
+                .append("\nJob Name:        ").append(project.jobName)
+                .append("\nBuild Type:      ").append(project.buildType)
+                .append("\nProject Address: ").append(project.physicalAddress)
+                .append("\nERF Number:      ").append(project.erfNumber)
+                .append("\nProject Total:   ").append(project.getTotalFee())
+                .append("\nAmount Paid:     ").append(project.getTotalPaid())
+                .append("\nBuild Deadline:  ");
+        appendDate(project.deadline, out);
+        out.append("\nArchitect:       ").append(project.architect.name)
+                .append("\nContractor:      ").append(project.contractor.name)
+                .append("\nCustomer:        ").append(project.customer.name);
+    }
+
+    // Same as Person.toString
+    private static void appendDetails(Person person, StringBuilder out){
+        out.append(person.role)
+                .append("\nName:            ").append(person.name)
+                .append("\nPhone number:    ").append(person.phoneNumber)
+                .append("\nEmail address:   ").append(person.emailAddress)
+                .append("\nAddress:         ").append(person.physicalAddress);
+    }
+
+    /**
+     * Appends a date as dd/MM/yyyy, nothing is appended for a missing date.
+     */
+    static void appendDate(LocalDate date, StringBuilder out){
+        if (date == null){
+            return;
+        }
+        appendDigits(date.getDayOfMonth(), 2, out);
+        out.append('/');
+        appendDigits(date.getMonthValue(), 2, out);
+        out.append('/');
+        appendDigits(date.getYear(), 4, out);
+    }
+
+    // Appends a number padded with leading zeros to at least the given width
+    private static void appendDigits(int value, int width, StringBuilder out){
+        for (int limit = 10, digits = 1; digits < width; limit *= 10, digits++){
+            if (value < limit){
+                out.append('0');
+            }
+        }
+        out.append(value);
+    }
+
+    // Encodes the record into the reused byte buffer, growing it if the record doesn't fit
+    private ByteBuffer encode(){
+        int length = record.length();
+        if (chars.length < length){
+            chars = new char[Math.max(length, chars.length * 2)];
+        }
+        if (charView.array() != chars){
+            charView = CharBuffer.wrap(chars);
+        }
+        record.getChars(0, length, chars, 0);
+        CharBuffer in = charView.clear().limit(length);
+        while (true){
+            encoder.reset();
+            bytes.clear();
+            CoderResult result = encoder.encode(in, bytes, true);
+            if (!result.isOverflow()){
+                result = encoder.flush(bytes);
+            }
+            if (!result.isOverflow()){
+                return bytes.flip();
+            }
+            bytes = ByteBuffer.allocate(bytes.capacity() * 2);
+            in.rewind();
+        }
+    }
+
+    private void copyTo(Appendable out) throws IOException {
+        if (out instanceof Writer writer){
+            int length = record.length();
+            if (chars.length < length){
+                chars = new char[Math.max(length, chars.length * 2)];
+            }
+            record.getChars(0, length, chars, 0);
+            writer.write(chars, 0, length);
+        }
+        else {
+            out.append(record);
+        }
+    }
+}
@@ -0,0 +1,465 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves the projects over HTTP as JSON, so the site offices can look up and
+ * update jobs from their own tools while the folio stays in one place.
+ * <p>
+ * The endpoints do the same as the menu options:
+ * <pre>
+ * GET  /projects?filters=...            projects passing report filters, e.g. contractor=Bob,sort=deadline,size=50
+ * GET  /projects/overdue                overdue projects, with optional sort, page and size parameters
+ * GET  /projects/unfinished             unfinished projects, with optional sort, page and size parameters
+ * GET  /projects/{job}                  one project
+ * POST /projects                        add a project, see {@link #addProject}
+ * PUT  /projects/{job}/deadline         {"deadline":"31/12/2026"}
+ * POST /projects/{job}/payments         {"amount":1500.00}
+ * POST /projects/{job}/finalise         marks it completed and writes the invoice
+ * PUT  /contractors/{name}              {"phoneNumber":"...","emailAddress":"...","physicalAddress":"..."}
+ * </pre>
+ * Dates are dd/mm/yyyy and amounts are in pounds, as in the menu. Errors are
+ * returned as {"error":"..."} with a 400, 404, 405 or 409 status, or 500 if a change couldn't be saved
+ * or something else went wrong. A listing that fails part way through is cut short.
+ * <p>
+ * Each request is handled on its own virtual thread when the Java version has
+ * them, otherwise on a pool of threads. Changes to a project are made under the
+ * repository's lock for its job number, and each request that changes something
+ * waits for it to be saved before replying. Changes from requests at about the
+ * same time are saved together (see {@link GroupCommitter}).
+ *
+ * @author Calum Gilchrist
+ */
+public class ProjectServer {
+    // Threads for handling requests when virtual threads aren't available
+    private static final int POOL_THREADS = 64;
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Starts serving on a port of localhost.
+     *
+     * @param port the port, or 0 for any free port
+     */
+    public ProjectServer(int port) throws IOException {
+        // Without this a small reply waits for the client's delayed acknowledgement, adding about 40 ms
+        // to every request. It is read when the first server is made, so it has to be set before then
+        if (System.getProperty("sun.net.httpserver.nodelay") == null){
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        executor = requestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/projects", exchange -> handle(exchange, this::projects));
+        server.createContext("/contractors", exchange -> handle(exchange, this::contractors));
+        server.start();
+    }
+
+    /**
+     * @return the port being served on
+     */
+    public int getPort(){
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops accepting requests, giving the ones being handled a second to finish.
+     */
+    public void stop(){
+        server.stop(1);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A virtual thread for each request if the Java version has them (21 onwards),
+     * found by reflection so the program still runs on older versions, otherwise a fixed pool.
+     */
+    static ExecutorService requestExecutor(){
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(POOL_THREADS, task -> {
+                Thread thread = new Thread(task, "project-server-" + THREADS.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Handles a request and turns anything the handler throws into an error reply. If part of the reply
+     * has already been sent the connection is dropped without finishing it instead, so the client sees
+     * the reply was cut short rather than getting a list that looks complete.
+     */
+    private static void handle(HttpExchange exchange, HttpHandler handler) throws IOException {
+        try {
+            handler.handle(exchange);
+        } catch (RuntimeException e) {
+            if (exchange.getResponseCode() != -1){
+                System.err.println("Error sending " + exchange.getRequestURI() + ", reply cut short: " + e);
+                throw new IOException("Reply to " + exchange.getRequestURI() + " cut short", e);
+            }
+            if (e instanceof NotFoundException){
+                sendError(exchange, 404, e.getMessage());
+            }
+            else if (e instanceof ConflictException){
+                sendError(exchange, 409, e.getMessage());
+            }
+            else if (e instanceof IllegalArgumentException){
+                sendError(exchange, 400, e.getMessage());
+            }
+            else if (e instanceof CompletionException){
+                sendError(exchange, 500, "Unable to save the change");
+            }
+            else {
+                // Anything else is a fault in the program, the details are only reported here
+                System.err.println("Error handling " + exchange.getRequestMethod() + " " + exchange.getRequestURI()
+                        + ": " + e);
+                sendError(exchange, 500, "Internal error");
+            }
+        }
+        exchange.close();
+    }
+
+    // Handles everything under /projects
+    private void projects(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        // e.g. ["", "projects", "12", "deadline"]
+        String[] path = exchange.getRequestURI().getPath().split("/");
+        if (path.length == 2){
+            switch (method) {
+                case "GET" -> listProjects(exchange, query(exchange).getOrDefault("filters", ""));
+                case "POST" -> addProject(exchange);
+                default -> methodNotAllowed(exchange);
+            }
+        }
+        else if (path.length == 3 && (path[2].equals("overdue") || path[2].equals("unfinished"))){
+            if (!method.equals("GET")){
+                methodNotAllowed(exchange);
+                return;
+            }
+            StringBuilder filters = new StringBuilder(path[2]);
+            Map<String, String> query = query(exchange);
+            for (String paging : new String[] {"sort", "page", "size"}){
+                if (query.containsKey(paging)){
+                    filters.append(',').append(paging).append('=').append(query.get(paging));
+                }
+            }
+            listProjects(exchange, filters.toString());
+        }
+        else if (path.length == 3){
+            if (!method.equals("GET")){
+                methodNotAllowed(exchange);
+                return;
+            }
+            Project project = project(path[2]);
+            StringBuilder json = new StringBuilder(512);
+            ReportFormat.JSON.row(project, 0, json);
+            send(exchange, 200, json.append('\n').toString());
+        }
+        else if (path.length == 4){
+            projectAction(exchange, method, path[2], path[3]);
+        }
+        else {
+            sendError(exchange, 404, "Not found");
+        }
+    }
+
+    // Changes one project, /projects/{job}/{action}
+    private void projectAction(HttpExchange exchange, String method, String job, String action) throws IOException {
+        int jobNumber = jobNumber(job);
+        switch (action) {
+            case "deadline" -> {
+                if (!method.equals("PUT")){
+                    methodNotAllowed(exchange);
+                    return;
+                }
+                LocalDate deadline = date(text(body(exchange), "deadline"));
+                Project project = PoisedProgram.projects.update(jobNumber, changing -> changing.setDeadline(deadline));
+                if (project == null){
+                    throw new NotFoundException("Project number " + jobNumber + " not found");
+                }
+                PoisedProgram.saveChanges().join();
+                sendProject(exchange, 200, project);
+            }
+            case "payments" -> {
+                if (!method.equals("POST")){
+                    methodNotAllowed(exchange);
+                    return;
+                }
+                double amount = payment(body(exchange));
+                Project project = project(job);
+                // The ledger adds payments atomically, so it doesn't need the project's lock
+                PoisedProgram.addPayment(project, amount);
+                PoisedProgram.saveChanges().join();
+                sendProject(exchange, 200, project);
+            }
+            case "finalise" -> {
+                if (!method.equals("POST")){
+                    methodNotAllowed(exchange);
+                    return;
+                }
+                LocalDate date = LocalDate.now();
+                double[] amountOwed = new double[1];
+                // Checked and finalised under the project's lock so two requests can't both finalise it
+                Project project = PoisedProgram.projects.update(jobNumber, finalising -> {
+                    if (finalising.getCompleted()){
+                        throw new ConflictException("Project number " + jobNumber + " is already finalised");
+                    }
+                    amountOwed[0] = PoisedProgram.finalise(finalising, date);
+                });
+                if (project == null){
+                    throw new NotFoundException("Project number " + jobNumber + " not found");
+                }
+                PoisedProgram.saveChanges().join();
+                StringBuilder json = new StringBuilder(128);
+                json.append("{\"jobNumber\":").append(jobNumber).append(",\"amountOwed\":");
+                ReportFormat.appendPounds(PaymentLedger.toPence(amountOwed[0]), json);
+                json.append(",\"completionDate\":\"");
+                ProjectSerializer.appendDate(date, json);
+                json.append("\"}\n");
+                send(exchange, 200, json.toString());
+            }
+            default -> sendError(exchange, 404, "Not found");
+        }
+    }
+
+    /**
+     * Adds a project from a JSON object with the same fields as the project listings,
+     * and an object for each person:
+     * <pre>
+     * {"jobNumber":20,"jobName":"New Home","buildType":"House","address":"4 Maxwood Place",
+     *  "erfNumber":1234,"totalFee":250000,"totalPaid":0,"deadline":"31/12/2026",
+     *  "architect":{"name":"...","phoneNumber":"...","emailAddress":"...","physicalAddress":"..."},
+     *  "contractor":{...},"customer":{...}}
+     * </pre>
+     */
+    private void addProject(HttpExchange exchange) throws IOException {
+        Map<String, Object> fields = body(exchange);
+        int jobNumber = (int) whole(fields, "jobNumber");
+        // Checked before the people are registered, so a duplicate doesn't leave new people behind
+        if (PoisedProgram.projects.contains(jobNumber)){
+            throw new ConflictException("Project number " + jobNumber + " already exists");
+        }
+        Project newJob = new Project(jobNumber, text(fields, "jobName"), text(fields, "buildType"),
+                text(fields, "address"), (int) whole(fields, "erfNumber"), number(fields, "totalFee"),
+                fields.containsKey("totalPaid") ? number(fields, "totalPaid") : 0, date(text(fields, "deadline")),
+                person(fields, "Architect"), person(fields, "Contractor"), person(fields, "Customer"), false);
+        // Another request may have added the same job number in the meantime
+        if (!PoisedProgram.projects.add(newJob)){
+            throw new ConflictException("Project number " + jobNumber + " already exists");
+        }
+        PoisedProgram.changes.projectChanged(newJob);
+        PoisedProgram.saveChanges().join();
+        sendProject(exchange, 201, newJob);
+    }
+
+    // Handles PUT /contractors/{name}
+    private void contractors(HttpExchange exchange) throws IOException {
+        String[] path = exchange.getRequestURI().getPath().split("/");
+        if (path.length != 3){
+            sendError(exchange, 404, "Not found");
+            return;
+        }
+        if (!exchange.getRequestMethod().equals("PUT")){
+            methodNotAllowed(exchange);
+            return;
+        }
+        Map<String, Object> fields = body(exchange);
+        Person contractor = PoisedProgram.updateContractor(path[2], text(fields, "phoneNumber"),
+                text(fields, "emailAddress"), text(fields, "physicalAddress"));
+        if (contractor == null){
+            sendError(exchange, 404, "Contractor " + path[2] + " not found");
+            return;
+        }
+        PoisedProgram.saveChanges().join();
+        StringBuilder json = new StringBuilder(256);
+        json.append("{\"name\":");
+        ReportFormat.appendJson(contractor.getName(), json);
+        json.append(",\"phoneNumber\":");
+        ReportFormat.appendJson(contractor.getPhoneNumber(), json);
+        json.append(",\"emailAddress\":");
+        ReportFormat.appendJson(contractor.getEmailAddress(), json);
+        json.append(",\"physicalAddress\":");
+        ReportFormat.appendJson(contractor.getPhysicalAddress(), json);
+        send(exchange, 200, json.append("}\n").toString());
+    }
+
+    // Streams a report straight to the response rather than building it all first
+    private static void listProjects(HttpExchange exchange, String filters) throws IOException {
+        ProjectReport report = new ProjectReport(PoisedProgram.projects).filters(filters);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8));
+        report.write(ReportFormat.JSON, out);
+        // Not closed if writing fails, as closing ends the reply as though the list were complete
+        out.close();
+    }
+
+    // Registers the person described by an object of the request, or updates them if they exist
+    private static Person person(Map<String, Object> fields, String role){
+        Object person = fields.get(role.toLowerCase());
+        if (!(person instanceof Map)){
+            throw new IllegalArgumentException("Missing " + role.toLowerCase());
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Object> details = (Map<String, Object>) person;
+        return PoisedProgram.people.register(role, text(details, "name"), text(details, "phoneNumber"),
+                text(details, "emailAddress"), text(details, "physicalAddress"));
+    }
+
+    private static Project project(String job){
+        Project project = PoisedProgram.projects.find(jobNumber(job));
+        if (project == null){
+            throw new NotFoundException("Project number " + job + " not found");
+        }
+        return project;
+    }
+
+    private static int jobNumber(String job){
+        try {
+            return Integer.parseInt(job);
+        } catch (NumberFormatException e) {
+            throw new NotFoundException("Project number " + job + " not found");
+        }
+    }
+
+    private static LocalDate date(String date){
+        try {
+            return LocalDate.parse(date, PoisedProgram.DATE_FORMAT);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Date " + date + " is not dd/mm/yyyy");
+        }
+    }
+
+    private static String text(Map<String, Object> fields, String name){
+        Object value = fields.get(name);
+        if (!(value instanceof String)){
+            throw new IllegalArgumentException("Missing " + name);
+        }
+        return (String) value;
+    }
+
+    private static double number(Map<String, Object> fields, String name){
+        Object value = fields.get(name);
+        if (!(value instanceof Double)){
+            throw new IllegalArgumentException("Missing " + name);
+        }
+        return (Double) value;
+    }
+
+    // A payment in pounds, which has to be a positive amount that fits in the ledger in pence
+    private static double payment(Map<String, Object> fields){
+        double amount = number(fields, "amount");
+        if (!Double.isFinite(amount) || amount < 0){
+            throw new IllegalArgumentException("amount must be a positive number of pounds");
+        }
+        if (amount * 100 >= Long.MAX_VALUE){
+            throw new IllegalArgumentException("amount is too large");
+        }
+        return amount;
+    }
+
+    private static long whole(Map<String, Object> fields, String name){
+        double value = number(fields, name);
+        if (value != Math.rint(value) || Math.abs(value) > Integer.MAX_VALUE){
+            throw new IllegalArgumentException(name + " must be a whole number");
+        }
+        return (long) value;
+    }
+
+    private static Map<String, Object> body(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return JsonReader.parseObject(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    // The parameters of the query string, decoded
+    private static Map<String, String> query(HttpExchange exchange){
+        Map<String, String> parameters = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null){
+            return parameters;
+        }
+        for (String parameter : query.split("&")){
+            int split = parameter.indexOf('=');
+            String name = split < 0 ? parameter : parameter.substring(0, split);
+            String value = split < 0 ? "" : parameter.substring(split + 1);
+            parameters.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+    private static void sendProject(HttpExchange exchange, int status, Project project) throws IOException {
+        StringBuilder json = new StringBuilder(512);
+        ReportFormat.JSON.row(project, 0, json);
+        send(exchange, status, json.append('\n').toString());
+    }
+
+    private static void methodNotAllowed(HttpExchange exchange) throws IOException {
+        sendError(exchange, 405, exchange.getRequestMethod() + " not allowed");
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        StringBuilder json = new StringBuilder(message.length() + 16);
+        json.append("{\"error\":");
+        ReportFormat.appendJson(message, json);
+        send(exchange, status, json.append("}\n").toString());
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Thrown when a request names a project that doesn't exist, sent as a 404.
+     */
+    private static class NotFoundException extends IllegalArgumentException {
+        private static final long serialVersionUID = 1L;
+
+        NotFoundException(String message){
+            super(message);
+        }
+    }
+
+    /**
+     * Thrown when a request clashes with the state of a project, sent as a 409.
+     */
+    private static class ConflictException extends IllegalArgumentException {
+        private static final long serialVersionUID = 1L;
+
+        ConflictException(String message){
+            super(message);
+        }
+    }
+}
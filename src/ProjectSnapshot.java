@@ -0,0 +1,351 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary snapshot of the projects, stored column by column.
+ * <p>
+ * Numbers are kept in fixed width columns (job number, ERF number, fee and amount
+ * paid in pence and the deadline as an epoch day) so they don't need to be parsed, and
+ * every piece of text is written once to a string table and referred to by its
+ * position in the table. Each person is stored once in a person table and
+ * projects refer to them by id.
+ * <p>
+ * Layout (version 3): magic, version, project count, string count, person count,
+ * the string table, the person columns, then each project column in turn.
+ * Version 1 snapshots, which had the people's details in every project, and version 2
+ * snapshots, which had the fee and amount paid in pounds, can still be loaded.
+ *
+ * @author Calum Gilchrist
+ */
+public class ProjectSnapshot {
+    // "PSNP" at the start of every snapshot file
+    private static final int MAGIC = 0x50534E50;
+    static final int VERSION = 3;
+    // Stored as the deadline when a project has no valid deadline
+    private static final long NO_DEADLINE = Long.MIN_VALUE;
+    // Project text columns: job name, build type and address
+    private static final int TEXT_COLUMNS = 3;
+    // Version 1 text columns: job name, build type, address then the five fields of each person
+    private static final int VERSION_1_TEXT_COLUMNS = 18;
+    // Person text columns: role, name, phone number, email address and address
+    private static final int PERSON_COLUMNS = 5;
+
+    /**
+     * Converts between the text and binary formats.
+     * <p>
+     * Usage: java ProjectSnapshot toBinary poisedProjects.txt poisedProjects.bin
+     * <br>
+     * or: java ProjectSnapshot toText poisedProjects.bin poisedProjects.txt
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3){
+            System.out.println("Usage: java ProjectSnapshot toBinary|toText <from file> <to file>");
+            return;
+        }
+        Path from = Paths.get(args[1]);
+        Path to = Paths.get(args[2]);
+        switch (args[0]) {
+            case "toBinary" -> {
+                PersonRegistry people = new PersonRegistry();
+                List<Project> projects = ProjectFileLoader.load(from, people);
+                save(people.all(), projects, to);
+                System.out.println(projects.size() + " projects written to " + to);
+            }
+            case "toText" -> {
+                PersonRegistry people = new PersonRegistry();
+                List<Project> projects = load(from, people);
+                exportText(people.all(), projects, to);
+                System.out.println(projects.size() + " projects written to " + to);
+            }
+            default -> System.out.println("Conversion not recognised, use toBinary or toText");
+        }
+    }
+
+    /**
+     * Saves people and projects to a binary snapshot file.
+     *
+     * @param people everyone the projects refer to
+     * @param projects the projects to save
+     * @param file the snapshot file
+     */
+    public static void save(List<Person> people, List<Project> projects, Path file) throws IOException {
+        int count = projects.size();
+        // Builds the string table, each distinct piece of text gets the next number
+        StringTable strings = new StringTable();
+        int[][] personColumns = new int[PERSON_COLUMNS][people.size()];
+        for (int i = 0; i < people.size(); i++){
+            Person person = people.get(i);
+            personColumns[0][i] = strings.id(person.getRole());
+            personColumns[1][i] = strings.id(person.getName());
+            personColumns[2][i] = strings.id(person.getPhoneNumber());
+            personColumns[3][i] = strings.id(person.getEmailAddress());
+            personColumns[4][i] = strings.id(person.getPhysicalAddress());
+        }
+        int[][] textColumns = new int[TEXT_COLUMNS][count];
+        for (int i = 0; i < count; i++){
+            Project project = projects.get(i);
+            textColumns[0][i] = strings.id(project.getJobName());
+            textColumns[1][i] = strings.id(project.getBuildType());
+            textColumns[2][i] = strings.id(project.getPhysicalAddress());
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ColumnWriter out = new ColumnWriter(channel);
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(count);
+            out.putInt(strings.values.size());
+            out.putInt(people.size());
+            for (String text : strings.values){
+                byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+                out.putInt(bytes.length);
+                out.put(bytes);
+            }
+            for (Person person : people){
+                out.putInt(person.getId());
+            }
+            for (int[] column : personColumns){
+                for (int id : column){
+                    out.putInt(id);
+                }
+            }
+            for (Project project : projects){
+                out.putInt(project.getJobNumber());
+            }
+            for (Project project : projects){
+                out.putInt(project.getErfNumber());
+            }
+            for (Project project : projects){
+                out.putLong(project.getLedger().fee());
+            }
+            for (Project project : projects){
+                out.putLong(project.getLedger().paid());
+            }
+            for (Project project : projects){
+                LocalDate deadline = project.getDeadline();
+                out.putLong(deadline == null ? NO_DEADLINE : deadline.toEpochDay());
+            }
+            for (Project project : projects){
+                out.put(project.getCompleted() ? (byte) 1 : (byte) 0);
+            }
+            for (int[] column : textColumns){
+                for (int id : column){
+                    out.putInt(id);
+                }
+            }
+            for (Project project : projects){
+                out.putInt(project.getArchitect().getId());
+            }
+            for (Project project : projects){
+                out.putInt(project.getContractor().getId());
+            }
+            for (Project project : projects){
+                out.putInt(project.getCustomer().getId());
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Loads projects from a binary snapshot file.
+     *
+     * @param file the snapshot file
+     * @param people registry the people in the snapshot are added to
+     * @return the projects in the order they were saved
+     */
+    public static List<Project> load(Path file, PersonRegistry people) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.getInt() != MAGIC){
+                throw new IOException(file + " is not a projects snapshot");
+            }
+            int version = in.getInt();
+            if (version < 1 || version > VERSION){
+                throw new IOException("Unsupported projects snapshot version " + version);
+            }
+            int count = in.getInt();
+            String[] strings = new String[in.getInt()];
+            int personCount = version == 1 ? 0 : in.getInt();
+            for (int i = 0; i < strings.length; i++){
+                byte[] bytes = new byte[in.getInt()];
+                in.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            if (version >= 2){
+                int[] ids = new int[personCount];
+                for (int i = 0; i < personCount; i++) ids[i] = in.getInt();
+                int[][] personColumns = readColumns(in, PERSON_COLUMNS, personCount);
+                for (int i = 0; i < personCount; i++){
+                    Person person = new Person(strings[personColumns[0][i]], strings[personColumns[1][i]],
+                            strings[personColumns[2][i]], strings[personColumns[3][i]], strings[personColumns[4][i]]);
+                    person.setId(ids[i]);
+                    people.put(person);
+                }
+            }
+            int[] jobNumbers = new int[count];
+            int[] erfNumbers = new int[count];
+            long[] fees = new long[count];
+            long[] paid = new long[count];
+            long[] deadlines = new long[count];
+            boolean[] completed = new boolean[count];
+            for (int i = 0; i < count; i++) jobNumbers[i] = in.getInt();
+            for (int i = 0; i < count; i++) erfNumbers[i] = in.getInt();
+            // Amounts were kept in pounds before version 3
+            for (int i = 0; i < count; i++) fees[i] = version < 3 ? PaymentLedger.toPence(in.getDouble()) : in.getLong();
+            for (int i = 0; i < count; i++) paid[i] = version < 3 ? PaymentLedger.toPence(in.getDouble()) : in.getLong();
+            for (int i = 0; i < count; i++) deadlines[i] = in.getLong();
+            for (int i = 0; i < count; i++) completed[i] = in.get() == 1;
+            int[][] text = readColumns(in, version == 1 ? VERSION_1_TEXT_COLUMNS : TEXT_COLUMNS, count);
+            int[][] personIds = version == 1 ? null : readColumns(in, 3, count);
+
+            List<Project> projects = new ArrayList<>(count);
+            for (int i = 0; i < count; i++){
+                Person architect;
+                Person contractor;
+                Person customer;
+                if (version == 1){
+                    architect = people.intern(person(strings, text, 3, i));
+                    contractor = people.intern(person(strings, text, 8, i));
+                    customer = people.intern(person(strings, text, 13, i));
+                }
+                else {
+                    architect = knownPerson(people, personIds[0][i], jobNumbers[i]);
+                    contractor = knownPerson(people, personIds[1][i], jobNumbers[i]);
+                    customer = knownPerson(people, personIds[2][i], jobNumbers[i]);
+                }
+                LocalDate deadline = deadlines[i] == NO_DEADLINE ? null : LocalDate.ofEpochDay(deadlines[i]);
+                projects.add(new Project(jobNumbers[i], strings[text[0][i]], strings[text[1][i]],
+                        strings[text[2][i]], erfNumbers[i], PaymentLedger.toPounds(fees[i]),
+                        PaymentLedger.toPounds(paid[i]), deadline,
+                        architect, contractor, customer, completed[i]));
+            }
+            return projects;
+        }
+    }
+
+    private static Person knownPerson(PersonRegistry people, int id, int jobNumber) throws IOException {
+        Person person = people.get(id);
+        if (person == null){
+            throw new IOException("Project " + jobNumber + " refers to unknown person id " + id + " in the snapshot");
+        }
+        return person;
+    }
+
+    private static int[][] readColumns(MappedByteBuffer in, int columns, int count){
+        int[][] values = new int[columns][count];
+        for (int[] column : values){
+            for (int i = 0; i < count; i++){
+                column[i] = in.getInt();
+            }
+        }
+        return values;
+    }
+
+    // Person from the five version 1 text columns starting at the given column
+    private static Person person(String[] strings, int[][] text, int first, int row){
+        return new Person(strings[text[first][row]], strings[text[first + 1][row]], strings[text[first + 2][row]],
+                strings[text[first + 3][row]], strings[text[first + 4][row]]);
+    }
+
+    /**
+     * Writes people and projects out in the pipe separated text format.
+     *
+     * @param people everyone the projects refer to
+     * @param projects the projects to write
+     * @param file the text file
+     */
+    public static void exportText(List<Person> people, List<Project> projects, Path file) throws IOException {
+        ProjectSerializer serializer = ProjectSerializer.current();
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (Person person : people){
+                serializer.writeLine(person, writer);
+            }
+            for (Project project : projects){
+                serializer.writeLine(project, writer);
+            }
+        }
+    }
+
+    /**
+     * Gives each distinct piece of text the next number in the table.
+     */
+    private static class StringTable {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        int id(String text){
+            Integer id = ids.get(text);
+            if (id == null){
+                id = values.size();
+                ids.put(text, id);
+                values.add(text);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Buffers values and writes them to the channel whenever the buffer fills up.
+     */
+    private static class ColumnWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+
+        ColumnWriter(FileChannel channel){
+            this.channel = channel;
+        }
+
+        void putInt(int value) throws IOException {
+            room(Integer.BYTES);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            room(Long.BYTES);
+            buffer.putLong(value);
+        }
+
+        void put(byte value) throws IOException {
+            room(1);
+            buffer.put(value);
+        }
+
+        void put(byte[] bytes) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length){
+                room(1);
+                int length = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, length);
+                offset += length;
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()){
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void room(int bytes) throws IOException {
+            if (buffer.remaining() < bytes){
+                flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Where the people and projects are kept between runs of the program.
+ * <p>
+ * {@link TextProjectStore} keeps them in poisedProjects.txt with a journal of
+ * changes, {@link JdbcProjectStore} keeps them in a database and
+ * {@link MappedProjectStore} in a memory mapped file of fixed size records.
+ *
+ * @author Calum Gilchrist
+ */
+public interface ProjectStore {
+
+    /**
+     * Reads every person and project that has been saved.
+     *
+     * @param people registry the people are added to
+     * @param projects repository the projects are added to
+     */
+    void load(PersonRegistry people, ProjectRepository projects) throws IOException;
+
+    /**
+     * Saves people and projects that have changed, they are safely stored when this returns.
+     *
+     * @param changedPeople the people that have changed
+     * @param changedProjects the projects that have changed
+     */
+    void save(Iterable<Person> changedPeople, Iterable<Project> changedProjects) throws IOException;
+
+    /**
+     * Saves the details of a project that has been finalised.
+     *
+     * @param project the finalised project
+     * @param date the completion date
+     */
+    void saveCompleted(Project project, LocalDate date) throws IOException;
+
+    /**
+     * Saves the details of many projects finalised at once, e.g. at the end of a quarter.
+     * Stores that write files can put them all in one archive rather than a file each.
+     *
+     * @param finalised the finalised projects
+     * @param date the completion date
+     * @param archive the file to write them all to, or null for a file each
+     */
+    default void saveCompleted(List<Project> finalised, LocalDate date, Path archive) throws IOException {
+        for (Project project : finalised) {
+            saveCompleted(project, date);
+        }
+    }
+
+    /**
+     * Brings the store fully up to date with everything in the program, used when the program exits.
+     * Stores that have already written every change in full don't need to do anything.
+     *
+     * @param people everyone involved in the projects
+     * @param projects every project
+     */
+    default void checkpoint(PersonRegistry people, ProjectRepository projects) throws IOException {
+    }
+
+    /**
+     * Makes sure everything saved is on disk and releases any files or connections.
+     */
+    void close() throws IOException;
+}
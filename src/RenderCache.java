@@ -0,0 +1,233 @@
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Keeps the text of recently displayed projects and their invoices, so a job that
+ * is shown again and again, e.g. on every page of a listing, isn't rendered each time.
+ * <p>
+ * The cache holds up to a number of characters rather than a number of entries, as
+ * invoices are several times the size of the displayed details, and the least recently
+ * used entries are dropped first. A project is only kept the second time it is
+ * rendered within a while, so a listing or invoice run that goes through the whole
+ * folio once doesn't push out the jobs that really are shown again and again. Each
+ * entry remembers the version of the project and of the three people it was rendered
+ * from, and is rendered again when any of them has changed since (every setter moves
+ * the version on), so nothing has to tell the cache about a change. The hits, misses
+ * and evictions are counted in {@link Metrics}, and the size can be changed while
+ * running over JMX or set with -Dpoised.renderCache=&lt;characters&gt;.
+ *
+ * @author Calum Gilchrist
+ */
+public class RenderCache {
+    /** Characters held unless -Dpoised.renderCache says otherwise, a few thousand displayed projects. */
+    public static final int DEFAULT_CAPACITY = 1 << 21;
+    // Bits remembering which projects have been rendered once lately, a power of two
+    private static final int SEEN_BITS = 1 << 16;
+    private static final RenderCache SHARED = new RenderCache(
+            Integer.getInteger("poised.renderCache", DEFAULT_CAPACITY));
+
+    // Entries in the order they were last used, least recently used first
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long capacity;
+    private long size;
+    // Projects rendered once but not kept yet, by a hash of their key. Cleared when half full so it only covers lately
+    private final long[] seen = new long[SEEN_BITS / 64];
+    private int seenCount;
+
+    /**
+     * @param capacity the number of characters of rendered text to hold
+     */
+    public RenderCache(long capacity){
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the cache used by Project.toString and completedToFile
+     */
+    public static RenderCache shared(){
+        return SHARED;
+    }
+
+    /**
+     * @param project the project
+     * @return the project as it is displayed to the user, see {@link Project#toString}
+     */
+    public String display(Project project){
+        return get(new Key(project, null), project);
+    }
+
+    /**
+     * @param project the finalised project
+     * @param date the completion date
+     * @return the project as it is written to its completed project file, see {@link Project#completedToFile}
+     */
+    public String completed(Project project, LocalDate date){
+        return get(new Key(project, date), project);
+    }
+
+    private String get(Key key, Project project){
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        if (entry != null && entry.isCurrent(project)){
+            Metrics.RENDER_CACHE_HITS.increment();
+            return entry.text;
+        }
+        Metrics.RENDER_CACHE_MISSES.increment();
+        // The versions are read before rendering, so a change made while rendering makes the entry out of date
+        Entry rendered = new Entry(project);
+        StringBuilder text = new StringBuilder(key.date == null ? 256 : 512);
+        if (key.date == null){
+            ProjectSerializer.appendDisplay(project, text);
+        }
+        else {
+            ProjectSerializer.appendCompleted(project, key.date, text);
+        }
+        rendered.text = text.toString();
+        put(key, rendered);
+        return rendered.text;
+    }
+
+    private synchronized void put(Key key, Entry entry){
+        if (entry.text.length() > capacity){
+            // Would only push everything else out and then be dropped itself
+            return;
+        }
+        // An out of date entry is replaced straight away, anything new has to have been rendered before
+        if (!entries.containsKey(key) && firstSighting(key)){
+            return;
+        }
+        Entry replaced = entries.put(key, entry);
+        if (replaced != null){
+            size -= replaced.text.length();
+        }
+        size += entry.text.length();
+        evict();
+    }
+
+    // Remembers the key, returning true if it hadn't been seen lately (or its bit was shared with one that had)
+    private boolean firstSighting(Key key){
+        int bit = (key.hashCode() * 0x9E3779B9) >>> (32 - Integer.numberOfTrailingZeros(SEEN_BITS));
+        long mask = 1L << bit;
+        if ((seen[bit >>> 6] & mask) != 0){
+            return false;
+        }
+        if (++seenCount > SEEN_BITS / 2){
+            Arrays.fill(seen, 0);
+            seenCount = 1;
+        }
+        seen[bit >>> 6] |= mask;
+        return true;
+    }
+
+    // Drops the least recently used entries until the cache is back within its capacity
+    private void evict(){
+        Iterator<Entry> oldest = entries.values().iterator();
+        while (size > capacity && oldest.hasNext()){
+            size -= oldest.next().text.length();
+            oldest.remove();
+            Metrics.RENDER_CACHE_EVICTIONS.increment();
+        }
+    }
+
+    /**
+     * @return the number of characters of rendered text held
+     */
+    public synchronized long size(){
+        return size;
+    }
+
+    /**
+     * @return the number of projects and invoices held
+     */
+    public synchronized int count(){
+        return entries.size();
+    }
+
+    /**
+     * @return the number of characters of rendered text that can be held
+     */
+    public synchronized long getCapacity(){
+        return capacity;
+    }
+
+    /**
+     * Changes how much the cache can hold, dropping entries straight away if it is made smaller.
+     *
+     * @param capacity the number of characters of rendered text to hold, 0 to stop caching
+     */
+    public synchronized void setCapacity(long capacity){
+        this.capacity = Math.max(0, capacity);
+        evict();
+    }
+
+    /**
+     * Drops every entry.
+     */
+    public synchronized void clear(){
+        entries.clear();
+        size = 0;
+        Arrays.fill(seen, 0);
+        seenCount = 0;
+    }
+
+    /**
+     * A project, and the completion date for an invoice or null for the displayed details.
+     */
+    private static final class Key {
+        private final Project project;
+        private final LocalDate date;
+
+        Key(Project project, LocalDate date){
+            this.project = project;
+            this.date = date;
+        }
+
+        @Override
+        public boolean equals(Object other){
+            // The same project object, as a replaced project may have the same job number
+            return other instanceof Key key && key.project == project
+                    && (date == null ? key.date == null : date.equals(key.date));
+        }
+
+        @Override
+        public int hashCode(){
+            // Hashed on the object like equals, so nothing about the project can change the bucket it is in
+            return System.identityHashCode(project) * 31 + (date == null ? 0 : date.hashCode());
+        }
+    }
+
+    /**
+     * Rendered text and the versions of everything it was rendered from.
+     */
+    private static final class Entry {
+        private final long projectVersion;
+        private final Person architect;
+        private final Person contractor;
+        private final Person customer;
+        private final long architectVersion;
+        private final long contractorVersion;
+        private final long customerVersion;
+        private String text;
+
+        Entry(Project project){
+            projectVersion = project.version;
+            architect = project.architect;
+            contractor = project.contractor;
+            customer = project.customer;
+            architectVersion = architect.version;
+            contractorVersion = contractor.version;
+            customerVersion = customer.version;
+        }
+
+        boolean isCurrent(Project project){
+            return project.version == projectVersion
+                    && project.architect == architect && architect.version == architectVersion
+                    && project.contractor == contractor && contractor.version == contractorVersion
+                    && project.customer == customer && customer.version == customerVersion;
+        }
+    }
+}
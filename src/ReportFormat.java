@@ -0,0 +1,210 @@
+/**
+ * How the rows of a {@link ProjectReport} are written out.
+ * <p>
+ * Each format appends to a StringBuilder that the report reuses for every row,
+ * the report copies it to its Writer once enough has built up.
+ *
+ * @author Calum Gilchrist
+ */
+public enum ReportFormat {
+    /**
+     * The project details as they are shown in the menu, one project after another.
+     */
+    CONSOLE {
+        @Override
+        void row(Project project, int row, StringBuilder out){
+            // The same jobs come up page after page, so their details are kept rather than rendered each time
+            out.append(RenderCache.shared().display(project));
+            out.append("\n------------------------\n");
+        }
+    },
+    /**
+     * Comma separated values with a header row, for opening in a spreadsheet.
+     */
+    CSV {
+        @Override
+        void begin(StringBuilder out){
+            out.append("job_number,job_name,build_type,address,erf_number,total_fee,total_paid,outstanding,"
+                    + "deadline,architect,contractor,customer,completed\n");
+        }
+
+        @Override
+        void row(Project project, int row, StringBuilder out){
+            out.append(project.jobNumber).append(',');
+            appendCsv(project.jobName, out);
+            out.append(',');
+            appendCsv(project.buildType, out);
+            out.append(',');
+            appendCsv(project.physicalAddress, out);
+            out.append(',').append(project.erfNumber).append(',');
+            appendPounds(project.ledger.fee(), out);
+            out.append(',');
+            appendPounds(project.ledger.paid(), out);
+            out.append(',');
+            appendPounds(project.ledger.outstanding(), out);
+            out.append(',');
+            ProjectSerializer.appendDate(project.deadline, out);
+            out.append(',');
+            appendCsv(project.architect.name, out);
+            out.append(',');
+            appendCsv(project.contractor.name, out);
+            out.append(',');
+            appendCsv(project.customer.name, out);
+            out.append(',').append(project.completed).append('\n');
+        }
+    },
+    /**
+     * A JSON array with an object for each project, amounts are in pounds.
+     */
+    JSON {
+        @Override
+        void begin(StringBuilder out){
+            out.append('[');
+        }
+
+        @Override
+        void row(Project project, int row, StringBuilder out){
+            if (row > 0){
+                out.append(',');
+            }
+            out.append("\n{\"jobNumber\":").append(project.jobNumber).append(",\"jobName\":");
+            appendJson(project.jobName, out);
+            out.append(",\"buildType\":");
+            appendJson(project.buildType, out);
+            out.append(",\"address\":");
+            appendJson(project.physicalAddress, out);
+            out.append(",\"erfNumber\":").append(project.erfNumber).append(",\"totalFee\":");
+            appendPounds(project.ledger.fee(), out);
+            out.append(",\"totalPaid\":");
+            appendPounds(project.ledger.paid(), out);
+            out.append(",\"outstanding\":");
+            appendPounds(project.ledger.outstanding(), out);
+            out.append(",\"deadline\":");
+            if (project.deadline == null){
+                out.append("null");
+            }
+            else {
+                out.append('"');
+                ProjectSerializer.appendDate(project.deadline, out);
+                out.append('"');
+            }
+            out.append(",\"architect\":");
+            appendJson(project.architect.name, out);
+            out.append(",\"contractor\":");
+            appendJson(project.contractor.name, out);
+            out.append(",\"customer\":");
+            appendJson(project.customer.name, out);
+            out.append(",\"completed\":").append(project.completed).append('}');
+        }
+
+        @Override
+        void end(StringBuilder out){
+            out.append("\n]\n");
+        }
+    };
+
+    /**
+     * Appends anything that comes before the first row, e.g. a header.
+     */
+    void begin(StringBuilder out){
+    }
+
+    /**
+     * Appends a project.
+     *
+     * @param project the project to append
+     * @param row the position of the row in the report, starting from 0
+     * @param out where the row is appended
+     */
+    abstract void row(Project project, int row, StringBuilder out);
+
+    /**
+     * Appends anything that comes after the last row.
+     */
+    void end(StringBuilder out){
+    }
+
+    /**
+     * Finds a format by name, ignoring case.
+     *
+     * @param name console, csv or json
+     * @return the format
+     */
+    public static ReportFormat of(String name){
+        try {
+            return valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Report format " + name + " not recognised");
+        }
+    }
+
+    /**
+     * Appends an amount in pence as pounds with two decimal places.
+     */
+    static void appendPounds(long pence, StringBuilder out){
+        if (pence < 0){
+            out.append('-');
+            pence = -pence;
+        }
+        long pennies = pence % 100;
+        out.append(pence / 100).append('.');
+        if (pennies < 10){
+            out.append('0');
+        }
+        out.append(pennies);
+    }
+
+    // Quotes a field if it contains anything that would split it, doubling any quotes inside it
+    private static void appendCsv(String value, StringBuilder out){
+        if (value == null){
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++){
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote){
+            out.append(value);
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++){
+            char c = value.charAt(i);
+            if (c == '"'){
+                out.append('"');
+            }
+            out.append(c);
+        }
+        out.append('"');
+    }
+
+    // Appends a JSON string, escaping quotes, backslashes and control characters
+    static void appendJson(String value, StringBuilder out){
+        if (value == null){
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++){
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                default -> {
+                    if (c < 0x20){
+                        out.append("\\u00");
+                        out.append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xf, 16));
+                    }
+                    else {
+                        out.append(c);
+                    }
+                }
+            }
+        }
+        out.append('"');
+    }
+}
@@ -0,0 +1,119 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Keeps the projects in the pipe separated text file, with each change appended
+ * to a journal that is folded back into the file (see {@link ProjectJournal}) and
+ * the whole file rewritten when the program exits.
+ * Finalised projects are written to a 'Completed project (x).txt' file each, or
+ * to one archive file when many are finalised at once (see {@link InvoiceWriter}).
+ *
+ * @author Calum Gilchrist
+ */
+public class TextProjectStore implements ProjectStore {
+    private final Path file;
+    private final ProjectJournal journal;
+
+    /**
+     * @param file the projects text file, the journal is kept next to it
+     */
+    public TextProjectStore(Path file){
+        this.file = file;
+        this.journal = new ProjectJournal(file.toString());
+    }
+
+    /**
+     * Reads the projects text file, then replays any changes in the journal that
+     * haven't been folded into the text file yet.
+     */
+    @Override
+    public void load(PersonRegistry people, ProjectRepository projects) throws IOException {
+        try {
+            // The file is memory mapped and its lines are parsed in parallel, keeping the order of the file
+            for (Project existingJob : ProjectFileLoader.load(file, people)) {
+                // Adds project to the repository, a repeated job number is skipped
+                if (!projects.add(existingJob)){
+                    System.err.println("Duplicate project number " + existingJob.getJobNumber() + " skipped.");
+                }
+            }
+        } catch (IOException e) {
+            // In case no file exists this will display.
+            System.err.println("No existing projects file found.");
+        }
+        try {
+            // Each journal line is a newer version of a person or project so it replaces the one read from the text file
+            for (String change : journal.replay()) {
+                if (ProjectJournal.isPerson(change)) {
+                    people.put(PoisedProgram.parsePerson(change));
+                }
+                else {
+                    projects.replace(PoisedProgram.parseProject(change, people));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error reading projects journal");
+        }
+    }
+
+    /**
+     * Appends the changes to the journal and forces them to disk once at the end.
+     */
+    @Override
+    public void save(Iterable<Person> changedPeople, Iterable<Project> changedProjects) throws IOException {
+        for (Person person : changedPeople) {
+            journal.append(person);
+        }
+        for (Project project : changedProjects) {
+            journal.append(project);
+        }
+        journal.sync();
+    }
+
+    @Override
+    public void saveCompleted(Project project, LocalDate date) throws IOException {
+        // Creates a 'Completed project (x)' file to save the information to. Where x=job number so that
+        // multiple can exist, one for each job.
+        InvoiceWriter.writeFile(project, date, Path.of(""));
+    }
+
+    /**
+     * Writes the completed project files on a pool of threads, or all of them into one archive.
+     */
+    @Override
+    public void saveCompleted(List<Project> finalised, LocalDate date, Path archive) throws IOException {
+        try (InvoiceWriter invoices = new InvoiceWriter()) {
+            if (archive == null) {
+                invoices.writeFiles(finalised, date, Path.of(""));
+            }
+            else {
+                invoices.writeArchive(finalised, date, archive);
+            }
+        }
+    }
+
+    /**
+     * Rewrites the whole text file in the current format and clears the journal,
+     * as long as there is something in the journal to fold into it.
+     */
+    @Override
+    public void checkpoint(PersonRegistry people, ProjectRepository projects) throws IOException {
+        // Each line is streamed straight to the file rather than built as a String first
+        journal.checkpoint(writer -> {
+            ProjectSerializer serializer = ProjectSerializer.current();
+            // People are written first so they are known before the projects that refer to them
+            for (Person person : people.all()) {
+                serializer.writeLine(person, writer);
+            }
+            for (Project project : projects.all()) {
+                serializer.writeLine(project, writer);
+            }
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        journal.close();
+    }
+}
@@ -0,0 +1,93 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.LocalDate;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a batch of commands, some of which should fail, against an empty repository
+ * and checks what each one left behind: projects added in both line formats, the
+ * deadline, payment and contractor changed, one invoice for a project finalised
+ * twice, and the number of commands applied and failed.
+ *
+ * @author Calum Gilchrist
+ */
+class BatchRunnerTest {
+
+    static void run() throws IOException {
+        AtomicInteger invoices = new AtomicInteger();
+        ProjectStore counting = new ProjectStore() {
+            @Override
+            public void load(PersonRegistry people, ProjectRepository projects){
+            }
+
+            @Override
+            public void save(Iterable<Person> changedPeople, Iterable<Project> changedProjects){
+            }
+
+            @Override
+            public void saveCompleted(Project project, LocalDate date){
+                invoices.incrementAndGet();
+            }
+
+            @Override
+            public void close(){
+            }
+        };
+        ProjectRepository savedProjects = PoisedProgram.projects;
+        PersonRegistry savedPeople = PoisedProgram.people;
+        ProjectStore savedStore = PoisedProgram.store;
+        ChangeSet changes = new ChangeSet();
+        PoisedProgram.projects = new ProjectRepository(changes);
+        PoisedProgram.people = new PersonRegistry(changes, PoisedProgram.projects);
+        PoisedProgram.store = counting;
+        try {
+            PersonRegistry registry = PoisedProgram.people;
+            Person architect = registry.register("Architect", "Ann Batch", "0123", "ann@batch", "1 Batch Street");
+            Person contractor = registry.register("Contractor", "Bob Batch", "0456", "bob@batch", "2 Batch Street");
+            Person customer = registry.register("Customer", "Cat Batch", "0789", "cat@batch", "3 Batch Street");
+            String people = "|" + architect.getId() + "|" + contractor.getId() + "|" + customer.getId() + "|false";
+            String commands = String.join("\n",
+                    "# the full format, then one that refers to the people by id",
+                    "add|1|Batch House|House|1 Batch Road|11|1000.50|0|01/01/2030"
+                            + "|Architect|Ann Batch|0123|ann@batch|1 Batch Street"
+                            + "|Contractor|Bob Batch|0456|bob@batch|2 Batch Street"
+                            + "|Customer|Cat Batch|0789|cat@batch|3 Batch Street|false",
+                    "add|2|Batch Shop|Shop|2 Batch Road|22|500|0|01/02/2030" + people,
+                    "add|3|Too Short|Shop",
+                    "add|4|Bad Date|Shop|4 Batch Road|44|500|0|2030-02-01" + people,
+                    "add|2|Again|Shop|2 Batch Road|22|500|0|01/02/2030" + people,
+                    "",
+                    "due|1|15/03/2031",
+                    "due|1|next week",
+                    "pay|1|250.25",
+                    "pay|1|NaN",
+                    "pay|1|Infinity",
+                    "pay|99|10",
+                    "contractor|Bob Batch|0999|bob@new|9 New Street",
+                    "contractor|Nobody|0|n@batch|Nowhere",
+                    "finalise|2",
+                    "finalise|2",
+                    "demolish|1");
+            BatchRunner batch = new BatchRunner();
+            batch.apply(new BufferedReader(new StringReader(commands)));
+
+            Checks.checkEquals(2, PoisedProgram.projects.size(), "projects added");
+            Project house = PoisedProgram.projects.find(1);
+            Checks.checkEquals(LocalDate.of(2031, 3, 15), house.getDeadline(), "changed deadline");
+            Checks.checkEquals(25025, house.getLedger().paid(), "paid in pence");
+            Checks.checkEquals("0999", contractor.getPhoneNumber(), "changed contractor phone number");
+            // The contractor in the full format line is the same person as the registered one
+            Checks.check(house.getContractor() == contractor, "Project 1 has its own copy of the contractor");
+            Checks.check(PoisedProgram.projects.find(2).getCompleted(), "Project 2 was not finalised");
+            Checks.check(!house.getCompleted(), "Project 1 was finalised");
+            Checks.checkEquals(1, invoices.get(), "invoices written");
+            Checks.checkEquals(6, batch.applied, "commands applied");
+            Checks.checkEquals(10, batch.failed, "commands failed");
+        } finally {
+            PoisedProgram.projects = savedProjects;
+            PoisedProgram.people = savedPeople;
+            PoisedProgram.store = savedStore;
+        }
+    }
+}
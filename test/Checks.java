@@ -0,0 +1,60 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Assertions and clean up shared by the tests. A failed check throws an
+ * AssertionError, which {@link PoisedTests} reports as the test failing.
+ *
+ * @author Calum Gilchrist
+ */
+final class Checks {
+    private Checks(){
+    }
+
+    /**
+     * Fails the test if the condition doesn't hold.
+     *
+     * @param condition what should be true
+     * @param message what went wrong if it isn't
+     */
+    static void check(boolean condition, String message){
+        if (!condition){
+            throw new AssertionError(message);
+        }
+    }
+
+    /**
+     * Fails the test if two numbers aren't the same.
+     *
+     * @param what what is being compared, for the message
+     */
+    static void checkEquals(long expected, long actual, String what){
+        if (expected != actual){
+            throw new AssertionError(what + ": expected " + expected + " but was " + actual);
+        }
+    }
+
+    /**
+     * Fails the test if two objects aren't equal.
+     *
+     * @param what what is being compared, for the message
+     */
+    static void checkEquals(Object expected, Object actual, String what){
+        if (expected == null ? actual != null : !expected.equals(actual)){
+            throw new AssertionError(what + ": expected " + expected + " but was " + actual);
+        }
+    }
+
+    /**
+     * Deletes a folder a test made and the files in it.
+     */
+    static void delete(Path directory) throws IOException {
+        try (var files = Files.list(directory)) {
+            for (Path created : (Iterable<Path>) files::iterator){
+                Files.delete(created);
+            }
+        }
+        Files.delete(directory);
+    }
+}
@@ -0,0 +1,78 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Copies a generated folio into a compact store and checks every project reads back
+ * the same, the totals worked out from the columns match the projects', and the
+ * store takes less of the heap than the Project objects it was made from.
+ *
+ * @author Calum Gilchrist
+ */
+class CompactProjectStoreTest {
+    private static final int PROJECTS = Integer.getInteger("poised.test.compact", 200_000);
+
+    static void run() throws IOException {
+        Path file = Files.createTempFile("poisedCompact", ".txt");
+        try {
+            ProjectDataGenerator.generate(PROJECTS, file, 42);
+            long empty = usedHeap();
+            long[] objects = new long[1];
+            CompactProjectStore store = copyAndCheck(file, empty, objects);
+            // Only the store is left now
+            long compact = usedHeap() - empty;
+            System.out.printf("  %.1f bytes per project as objects, %.1f in the compact store%n",
+                    (double) objects[0] / PROJECTS, (double) compact / PROJECTS);
+            Checks.checkEquals(PROJECTS, store.size(), "projects stored");
+            Checks.check(compact < objects[0], "The compact store takes " + compact
+                    + " bytes, no less than the " + objects[0] + " taken by the projects");
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Loads the folio, measures the heap its projects take and copies them into a
+     * compact store, checking it against them. In a method of its own so nothing
+     * still refers to the projects once it returns.
+     */
+    private static CompactProjectStore copyAndCheck(Path file, long empty, long[] objects) throws IOException {
+        List<Project> loaded = ProjectFileLoader.load(file, new PersonRegistry());
+        objects[0] = usedHeap() - empty;
+
+        CompactProjectStore store = CompactProjectStore.of(loaded);
+        Checks.checkEquals(PROJECTS, store.size(), "projects stored");
+        long owed = 0;
+        int unfinished = 0;
+        int overdue = 0;
+        LocalDate today = LocalDate.now();
+        for (Project project : loaded){
+            Checks.checkEquals(project.toFile(), store.find(project.getJobNumber()).toFile(),
+                    "project " + project.getJobNumber() + " read back");
+            owed += project.ledger.fee() - project.ledger.paid();
+            if (!project.getCompleted()){
+                unfinished++;
+                if (project.getDeadline() != null && project.getDeadline().isBefore(today)){
+                    overdue++;
+                }
+            }
+        }
+        Checks.checkEquals(owed, store.totalOutstanding(), "total outstanding");
+        Checks.checkEquals(unfinished, store.unfinishedCount(), "unfinished projects");
+        Checks.checkEquals(overdue, store.overdue(today).size(), "overdue projects");
+        return store;
+    }
+
+    // The heap in use once garbage has been collected, collected a few times for it to settle
+    private static long usedHeap(){
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++){
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
@@ -0,0 +1,193 @@
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks the group committer saves requests made while a group is being written as
+ * one group, that a store throwing any kind of error fails only that group and its
+ * changes are saved by the next one, and that every request is saved however it
+ * races with closing the committer.
+ *
+ * @author Calum Gilchrist
+ */
+class GroupCommitterTest {
+    // Threads asking to save while the committer is closed, and how many times each asks
+    private static final int THREADS = 8;
+    private static final int COMMITS = 500;
+
+    static void run() throws Exception {
+        grouping();
+        failures();
+        closing();
+    }
+
+    private static void grouping() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingStore store = new RecordingStore(){
+            @Override
+            public void save(Iterable<Person> changedPeople, Iterable<Project> changedProjects) throws IOException {
+                super.save(changedPeople, changedProjects);
+                writing.countDown();
+                await(release);
+            }
+        };
+        ChangeSet changes = new ChangeSet();
+        GroupCommitter committer = new GroupCommitter(store, changes, 0, 256, 1024);
+        try {
+            changes.projectChanged(project(1));
+            CompletableFuture<Void> first = committer.commit();
+            await(writing);
+            // Asked for while the first group is being written, so they all go in the next one
+            List<CompletableFuture<Void>> waiting = new ArrayList<>();
+            for (int i = 2; i <= 11; i++){
+                changes.projectChanged(project(i));
+                waiting.add(committer.commit());
+            }
+            Checks.check(!first.isDone(), "The first group completed before it was written");
+            release.countDown();
+            first.get(5, TimeUnit.SECONDS);
+            for (CompletableFuture<Void> saved : waiting){
+                saved.get(5, TimeUnit.SECONDS);
+            }
+            Checks.checkEquals(2, store.saves.get(), "groups written");
+            Checks.checkEquals(11, store.projects.get(), "projects saved");
+        } finally {
+            release.countDown();
+            committer.close();
+        }
+    }
+
+    private static void failures() throws Exception {
+        AtomicInteger failing = new AtomicInteger();
+        RecordingStore store = new RecordingStore(){
+            @Override
+            public void save(Iterable<Person> changedPeople, Iterable<Project> changedProjects) throws IOException {
+                switch (failing.getAndSet(0)) {
+                    case 1 -> throw new IOException("Disk full");
+                    case 2 -> throw new NullPointerException("A person without a name");
+                    default -> super.save(changedPeople, changedProjects);
+                }
+            }
+        };
+        ChangeSet changes = new ChangeSet();
+        GroupCommitter committer = new GroupCommitter(store, changes, 0, 256, 1024);
+        try {
+            Project project = project(1);
+            for (int failure = 1; failure <= 2; failure++){
+                failing.set(failure);
+                changes.projectChanged(project);
+                Throwable cause = null;
+                try {
+                    committer.commit().get(5, TimeUnit.SECONDS);
+                } catch (ExecutionException e) {
+                    cause = e.getCause();
+                }
+                Class<?> expected = failure == 1 ? IOException.class : NullPointerException.class;
+                Checks.check(expected.isInstance(cause), "Group failed with " + cause);
+                Checks.checkEquals(0, store.projects.get(), "projects saved by a failed group");
+            }
+            // The writer is still running, and saves the changes of the failed groups
+            committer.commit().get(5, TimeUnit.SECONDS);
+            Checks.checkEquals(1, store.saves.get(), "groups written after the failures");
+            Checks.checkEquals(1, store.projects.get(), "projects saved after the failures");
+        } finally {
+            committer.close();
+        }
+    }
+
+    private static void closing() throws Exception {
+        RecordingStore store = new RecordingStore();
+        ChangeSet changes = new ChangeSet();
+        // A small queue, so some threads are waiting for room in it as it is closed
+        GroupCommitter committer = new GroupCommitter(store, changes, 0, 4, 4);
+        List<CompletableFuture<Void>> requests = new ArrayList<>();
+        CountDownLatch started = new CountDownLatch(THREADS);
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++){
+            int thread = t;
+            threads[t] = new Thread(() -> {
+                List<CompletableFuture<Void>> made = new ArrayList<>();
+                started.countDown();
+                for (int i = 0; i < COMMITS; i++){
+                    changes.projectChanged(project(thread * COMMITS + i));
+                    made.add(committer.commit());
+                }
+                synchronized (requests) {
+                    requests.addAll(made);
+                }
+            });
+            threads[t].start();
+        }
+        await(started);
+        committer.close();
+        for (Thread thread : threads){
+            thread.join();
+        }
+        Checks.checkEquals(THREADS * COMMITS, requests.size(), "requests made");
+        for (CompletableFuture<Void> request : requests){
+            try {
+                request.get(5, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                throw new AssertionError("A request made as the committer closed was never saved");
+            }
+        }
+        Checks.checkEquals(THREADS * COMMITS, store.projects.get(), "projects saved");
+        // Asked for after closing, so saved on the thread that asks
+        changes.projectChanged(project(-1));
+        committer.commit().get(5, TimeUnit.SECONDS);
+        Checks.checkEquals(THREADS * COMMITS + 1, store.projects.get(), "projects saved after closing");
+    }
+
+    private static Project project(int jobNumber){
+        Person person = new Person("Customer", "Commit Customer", "0", "c@commit", "Commit");
+        return new Project(jobNumber, "Commit " + jobNumber, "House", "Commit", 0, 1000, 0, LocalDate.now(),
+                person, person, person, false);
+    }
+
+    private static void await(CountDownLatch latch){
+        try {
+            if (!latch.await(5, TimeUnit.SECONDS)){
+                throw new CompletionException(new TimeoutException("Waited too long for the writer"));
+            }
+        } catch (InterruptedException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Counts the groups written and the projects in them.
+     */
+    private static class RecordingStore implements ProjectStore {
+        final AtomicInteger saves = new AtomicInteger();
+        final AtomicInteger projects = new AtomicInteger();
+
+        @Override
+        public void load(PersonRegistry people, ProjectRepository projects){
+        }
+
+        @Override
+        public void save(Iterable<Person> changedPeople, Iterable<Project> changedProjects) throws IOException {
+            saves.incrementAndGet();
+            for (Project project : changedProjects){
+                projects.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void saveCompleted(Project project, LocalDate date){
+        }
+
+        @Override
+        public void close(){
+        }
+    }
+}
@@ -0,0 +1,118 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Saves people and projects to a database, changes and finalises some of them, and
+ * checks they are all there when the store is opened again, which also creates the
+ * tables and indexes a second time. Runs against H2 or SQLite, whichever driver is
+ * on the class path, or the database given by -Dpoised.test.jdbc; without any of
+ * them it is skipped:
+ * <pre>
+ * java -Xmx4g -cp out/test:h2.jar PoisedTests JdbcProjectStoreTest
+ * </pre>
+ *
+ * @author Calum Gilchrist
+ */
+class JdbcProjectStoreTest {
+    private static final int PROJECTS = 1200;
+
+    static void run() throws Exception {
+        Path directory = Files.createTempDirectory("poisedJdbcStore");
+        try {
+            String url = url(directory);
+            if (url == null){
+                System.out.println("  skipped, no H2 or SQLite driver on the class path");
+                return;
+            }
+            System.out.println("  " + url);
+
+            ChangeSet changes = new ChangeSet();
+            ProjectRepository repository = new ProjectRepository(changes);
+            PersonRegistry people = new PersonRegistry(changes, repository);
+            Person architect = people.register("Architect", "Ann Smith", "0123", "ann@example.com", "1 Main Street");
+            Person contractor = people.register("Contractor", "Bob Jones", "0456", "bob@example.com", "2 Main Street");
+            Person customer = people.register("Customer", "Cat Brown", "0789", "cat@example.com", "3 Main Street");
+            for (int jobNumber = 1; jobNumber <= PROJECTS; jobNumber++){
+                LocalDate deadline = jobNumber % 10 == 0 ? null : LocalDate.of(2030, 1, 1).plusDays(jobNumber);
+                Project project = new Project(jobNumber, "Job " + jobNumber, "House", jobNumber + " High Street",
+                        jobNumber, 1000.50, 250.25, deadline, architect, contractor, customer, false);
+                repository.add(project);
+                changes.projectChanged(project);
+            }
+
+            JdbcProjectStore store = new JdbcProjectStore(url, null, null);
+            // More projects than a batch, so the updates and inserts are sent in several
+            GroupCommitter.save(store, changes);
+            repository.find(7).setErfNumber(77);
+            contractor.setPhoneNumber("0999");
+            GroupCommitter.save(store, changes);
+            List<Project> finalised = new ArrayList<>();
+            for (int jobNumber = 1; jobNumber <= 3; jobNumber++){
+                Project project = repository.find(jobNumber);
+                project.setCompleted(true);
+                finalised.add(project);
+            }
+            store.saveCompleted(finalised, LocalDate.of(2031, 6, 1), null);
+            changes.drainPeople();
+            changes.drainProjects();
+            store.close();
+
+            ChangeSet reopenedChanges = new ChangeSet();
+            ProjectRepository reopened = new ProjectRepository(reopenedChanges);
+            PersonRegistry reopenedPeople = new PersonRegistry(reopenedChanges, reopened);
+            JdbcProjectStore again = new JdbcProjectStore(url, null, null);
+            again.load(reopenedPeople, reopened);
+            again.close();
+            Checks.checkEquals(3, reopenedPeople.size(), "people loaded");
+            Checks.checkEquals(PROJECTS, reopened.size(), "projects loaded");
+            for (Project project : repository.all()){
+                Checks.checkEquals(project.toFile(), reopened.find(project.getJobNumber()).toFile(),
+                        "project " + project.getJobNumber());
+            }
+            Checks.checkEquals("0999", reopenedPeople.get(contractor.getId()).getPhoneNumber(), "changed phone number");
+            Checks.checkEquals(3, reopened.size() - reopened.unfinishedCount(), "completed projects");
+            try (Connection connection = DriverManager.getConnection(url);
+                 Statement statement = connection.createStatement();
+                 ResultSet rows = statement.executeQuery(
+                         "SELECT COUNT(*), SUM(amount_owed_pence) FROM completed_project")) {
+                rows.next();
+                Checks.checkEquals(3, rows.getInt(1), "completed project rows");
+                Checks.checkEquals(3 * 75025, rows.getLong(2), "amount owed on the completed projects");
+            }
+        } finally {
+            Checks.delete(directory);
+        }
+    }
+
+    // The database given on the command line, otherwise a file database for whichever driver is there
+    private static String url(Path directory){
+        String url = System.getProperty("poised.test.jdbc");
+        if (url != null){
+            return url;
+        }
+        if (hasDriver("org.h2.Driver")){
+            return "jdbc:h2:" + directory.resolve("projects").toAbsolutePath();
+        }
+        if (hasDriver("org.sqlite.JDBC")){
+            return "jdbc:sqlite:" + directory.resolve("projects.db").toAbsolutePath();
+        }
+        return null;
+    }
+
+    private static boolean hasDriver(String driver){
+        try {
+            Class.forName(driver);
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            // Not there, or missing something it needs
+            return false;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Checks the histogram's buckets meet end to end from 0 to the longest time a long
+ * can hold and are never wider than a sixteenth of the times in them, that a
+ * percentile is the top of the bucket at its rank, and that when only some
+ * operations are timed every one is still counted.
+ *
+ * @author Calum Gilchrist
+ */
+class LatencyHistogramTest {
+
+    static void run(){
+        buckets();
+        percentiles();
+        sampled();
+    }
+
+    private static void buckets(){
+        int last = LatencyHistogram.bucket(Long.MAX_VALUE);
+        Checks.checkEquals(Long.MAX_VALUE, LatencyHistogram.highest(last), "highest time of the last bucket");
+        long lowest = 0;
+        for (int bucket = 0; bucket <= last; bucket++){
+            long highest = LatencyHistogram.highest(bucket);
+            Checks.checkEquals(bucket, LatencyHistogram.bucket(lowest), "bucket of " + lowest);
+            Checks.checkEquals(bucket, LatencyHistogram.bucket(highest), "bucket of " + highest);
+            if (bucket < 16){
+                Checks.checkEquals(lowest, highest, "times in bucket " + bucket);
+            }
+            else {
+                // Within about 6% of every time in the bucket
+                Checks.check(highest - lowest < lowest / 16 + 1, "Bucket " + bucket + " from " + lowest + " to "
+                        + highest + " is too wide");
+            }
+            lowest = highest + 1;
+        }
+    }
+
+    private static void percentiles(){
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        Checks.checkEquals(0, histogram.percentile(0.5), "percentile of nothing");
+        for (long nanos = 1; nanos <= 1000; nanos++){
+            histogram.record(nanos);
+        }
+        Checks.checkEquals(1000, histogram.count(), "count");
+        Checks.checkEquals(1000, histogram.max(), "max");
+        Checks.check(histogram.mean() == 500.5, "Mean was " + histogram.mean());
+        // The rank is rounded up, so the 50th percentile of 1 to 1000 is the bucket holding 500
+        Checks.checkEquals(LatencyHistogram.highest(LatencyHistogram.bucket(500)), histogram.percentile(0.5), "p50");
+        Checks.checkEquals(LatencyHistogram.highest(LatencyHistogram.bucket(990)), histogram.percentile(0.99), "p99");
+        Checks.checkEquals(1, histogram.percentile(0), "p0");
+        // The last bucket goes up to 1023, but nothing longer than 1000 was seen
+        Checks.checkEquals(1000, histogram.percentile(1), "p100");
+
+        histogram.reset();
+        for (int i = 0; i < 100; i++){
+            histogram.record(10);
+        }
+        histogram.record(5000);
+        histogram.record(-3);
+        Checks.checkEquals(0, histogram.percentile(0), "p0 with a negative time");
+        Checks.checkEquals(10, histogram.percentile(0.99), "p99 of 102 times with one outlier");
+        Checks.checkEquals(5000, histogram.percentile(0.999), "p99.9 of 102 times with one outlier");
+    }
+
+    private static void sampled(){
+        LatencyHistogram histogram = new LatencyHistogram("sampled", 4);
+        for (int i = 0; i < 1000; i++){
+            histogram.recordSince(histogram.start());
+        }
+        Checks.checkEquals(1000, histogram.count(), "operations counted");
+        Checks.checkEquals(250, histogram.timed(), "operations timed");
+        // Times recorded directly are always timed, this one longer than any of the others
+        histogram.record(10_000_000_000L);
+        Checks.checkEquals(1001, histogram.count(), "operations counted with a time recorded");
+        Checks.checkEquals(251, histogram.timed(), "operations timed with a time recorded");
+        Checks.checkEquals(10_000_000_000L, histogram.percentile(1), "longest time");
+        // The mean is over the timed operations only
+        Checks.check(histogram.mean() >= 1e10 / 251, "Mean " + histogram.mean() + " counted untimed operations");
+        histogram.reset();
+        Checks.checkEquals(0, histogram.count(), "count after a reset");
+        Checks.checkEquals(0, histogram.timed(), "timed after a reset");
+        Checks.checkEquals(0, histogram.percentile(1), "longest time after a reset");
+    }
+}
@@ -0,0 +1,92 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Checks the memory mapped store reads back what was imported into it and recovers
+ * from a crash part way through a save: a record write that only partly reached the
+ * disk, and text appended to the arena by a save whose records never reached it.
+ *
+ * @author Calum Gilchrist
+ */
+class MappedProjectStoreTest {
+    private static final int PROJECTS = 10_000;
+
+    static void run() throws IOException {
+        Path directory = Files.createTempDirectory("poisedMapped");
+        Path text = directory.resolve("projects.txt");
+        Path records = directory.resolve("projects.map");
+        try {
+            ProjectDataGenerator.generate(PROJECTS, text, 42);
+            ProjectStore textStore = new TextProjectStore(text);
+            ProjectRepository fromText = new ProjectRepository();
+            textStore.load(new PersonRegistry(), fromText);
+            textStore.close();
+            MappedProjectStore store = new MappedProjectStore(records, text);
+            store.load(new PersonRegistry(), new ProjectRepository());
+            store.close();
+
+            ProjectRepository fromMapped = open(records);
+            Checks.checkEquals(fromText.size(), fromMapped.size(), "projects read back");
+            for (Project project : fromText.all()){
+                Project copy = fromMapped.find(project.getJobNumber());
+                Checks.check(copy != null, "Project " + project.getJobNumber() + " missing");
+                Checks.checkEquals(project.toFile(), copy.toFile(), "project " + project.getJobNumber());
+            }
+
+            // A torn write: only the first part of the newest copy of the record reaches the disk
+            long feeBefore = fromMapped.find(1).getLedger().fee();
+            byte[] before = Files.readAllBytes(records);
+            store = new MappedProjectStore(records, null);
+            ProjectRepository changed = new ProjectRepository();
+            store.load(new PersonRegistry(), changed);
+            changed.find(1).setTotalFee(PaymentLedger.toPounds(feeBefore + 100_00));
+            store.save(List.of(), List.of(changed.find(1)));
+            store.close();
+            byte[] after = Files.readAllBytes(records);
+            int first = 0;
+            while (first < before.length && before[first] == after[first]){
+                first++;
+            }
+            Checks.check(first < before.length, "Saving the change didn't write to the records file");
+            byte[] tornFile = before.clone();
+            // The new sequence number and a little more arrive, the rest of the copy is still the old bytes
+            System.arraycopy(after, first, tornFile, first, Math.min(24, after.length - first));
+            Files.write(records, tornFile);
+            Checks.checkEquals(feeBefore, open(records).find(1).getLedger().fee(), "fee after a torn write");
+
+            // The text of a save reaches the arena but its records don't
+            store = new MappedProjectStore(records, null);
+            changed = new ProjectRepository();
+            store.load(new PersonRegistry(), changed);
+            String oldName = changed.find(2).getJobName();
+            changed.find(2).setJobName("Lost rename");
+            store.save(List.of(), List.of(changed.find(2)));
+            store.close();
+            Files.write(records, tornFile);
+            store = new MappedProjectStore(records, null);
+            changed = new ProjectRepository();
+            store.load(new PersonRegistry(), changed);
+            Checks.checkEquals(oldName, changed.find(2).getJobName(), "name after its record was lost");
+            // The next save's text goes where the lost text was, and has to read back whole
+            changed.find(3).setJobName("Kept rename");
+            store.save(List.of(), List.of(changed.find(3)));
+            store.close();
+            ProjectRepository reopened = open(records);
+            Checks.checkEquals(oldName, reopened.find(2).getJobName(), "name of the lost rename");
+            Checks.checkEquals("Kept rename", reopened.find(3).getJobName(), "name saved after it");
+        } finally {
+            Checks.delete(directory);
+        }
+    }
+
+    // Opens the store and reads everything in it
+    private static ProjectRepository open(Path records) throws IOException {
+        MappedProjectStore store = new MappedProjectStore(records, null);
+        ProjectRepository projects = new ProjectRepository();
+        store.load(new PersonRegistry(), projects);
+        store.close();
+        return projects;
+    }
+}
@@ -0,0 +1,104 @@
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.NoSuchElementException;
+
+/**
+ * Runs scripted actions through the main menu on a thread with a small stack, and
+ * fails if the menu runs out of stack or stops before the end of the script, as a
+ * menu that called itself again for every action would.
+ * <p>
+ * The actions only view projects or return straight to the menu, so nothing is
+ * written to file.
+ *
+ * @author Calum Gilchrist
+ */
+class MenuSoakTest {
+    // Stack size of the soak thread, far too small for a menu that calls itself for every action
+    private static final long SOAK_STACK = 256 * 1024;
+    // Enough actions to use up that stack many times over if each one used a little of it
+    private static final int ACTIONS = Integer.getInteger("poised.test.soak", 200_000);
+
+    static void run() throws InterruptedException {
+        // Each entry is the input for one action
+        String[] script = {"6\n\n", "7\n\n", "2\n0\n", "5\n0\n", "3\n999\n", "0\n"};
+        ScriptInput input = new ScriptInput(script, ACTIONS);
+        InputStream keyboard = System.in;
+        System.setIn(input);
+        Person architect = new Person("Architect", "Soak Architect", "0", "a@soak", "Soak");
+        Person contractor = new Person("Contractor", "Soak Contractor", "0", "c@soak", "Soak");
+        Person customer = new Person("Customer", "Soak Customer", "0", "u@soak", "Soak");
+        for (int i = 1; i <= 10; i++){
+            PoisedProgram.projects.add(new Project(i, "Soak " + i, "house", "Soak", i, 1000, 0,
+                    LocalDate.now().plusDays(i - 5), architect, contractor, customer, i % 2 == 0));
+        }
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Throwable[] failure = new Throwable[1];
+        Thread session = new Thread(null, () -> {
+            try {
+                PoisedProgram.mainMenu(PoisedProgram.sc);
+            } catch (NoSuchElementException e) {
+                // End of the script
+            } catch (Throwable e) {
+                failure[0] = e;
+            }
+        }, "soak", SOAK_STACK);
+        try {
+            session.start();
+            session.join();
+        } finally {
+            System.setOut(console);
+            System.setIn(keyboard);
+        }
+        Checks.check(failure[0] == null, "Menu failed during the soak: " + failure[0]);
+        Checks.checkEquals(ACTIONS, input.action, "actions run before the menu stopped");
+    }
+
+    /**
+     * Standard input made up of the script repeated for the number of actions, generated as it is read.
+     */
+    private static class ScriptInput extends InputStream {
+        private final byte[][] script;
+        private final int actions;
+        // Number of actions read so far
+        private int action;
+        private int position;
+
+        ScriptInput(String[] script, int actions){
+            this.script = new byte[script.length][];
+            for (int i = 0; i < script.length; i++){
+                this.script[i] = script[i].getBytes(StandardCharsets.US_ASCII);
+            }
+            this.actions = actions;
+        }
+
+        @Override
+        public int read(){
+            if (action == actions){
+                return -1;
+            }
+            byte[] current = script[action % script.length];
+            int b = current[position++];
+            if (position == current.length){
+                position = 0;
+                action++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length){
+            if (action == actions){
+                return -1;
+            }
+            int count = 0;
+            while (count < length && action < actions){
+                buffer[offset + count++] = (byte) read();
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Has threads record payments and bank feed batches to one ledger while another
+ * keeps correcting the fee, then fails if any payment was lost, the fee isn't the
+ * last one set, or the ledger kept more history than it should. Also checks a
+ * corrected total carries on from the payments after it.
+ *
+ * @author Calum Gilchrist
+ */
+class PaymentLedgerTest {
+    private static final int THREADS = 4;
+    private static final int PAYMENTS = 100_000;
+
+    static void run() throws InterruptedException {
+        PaymentLedger ledger = new PaymentLedger(1_000_00, 0);
+        long[] paidIn = new long[THREADS];
+        Thread[] workers = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++){
+            int worker = t;
+            workers[t] = new Thread(() -> {
+                Random random = new Random(worker);
+                long[] batch = new long[16];
+                for (int i = 0; i < PAYMENTS; i += batch.length){
+                    if (i % (2 * batch.length) == 0){
+                        for (int j = 0; j < batch.length; j++){
+                            long pence = 1 + random.nextInt(99);
+                            ledger.record(pence);
+                            paidIn[worker] += pence;
+                        }
+                    }
+                    else {
+                        for (int j = 0; j < batch.length; j++){
+                            batch[j] = 1 + random.nextInt(99);
+                            paidIn[worker] += batch[j];
+                        }
+                        ledger.recordAll(batch, 0, batch.length);
+                    }
+                }
+            });
+        }
+        long[] lastFee = new long[1];
+        Thread corrector = new Thread(() -> {
+            for (long fee = 1; fee <= 20_000; fee++){
+                ledger.setFee(fee);
+                lastFee[0] = fee;
+            }
+        });
+        for (Thread worker : workers){
+            worker.start();
+        }
+        corrector.start();
+        for (Thread worker : workers){
+            worker.join();
+        }
+        corrector.join();
+
+        // The corrections may have been the last changes, the history is checked with payments after them
+        for (int i = 0; i < PaymentLedger.HISTORY; i++){
+            ledger.record(1);
+        }
+        long expected = PaymentLedger.HISTORY;
+        for (long pence : paidIn){
+            expected += pence;
+        }
+        Checks.checkEquals(expected, ledger.paid(), "pence paid");
+        Checks.checkEquals(lastFee[0], ledger.fee(), "fee");
+        Checks.checkEquals(lastFee[0] - expected, ledger.outstanding(), "outstanding");
+        List<PaymentLedger.Payment> history = ledger.history();
+        Checks.check(history.size() <= 2 * PaymentLedger.HISTORY, "Ledger kept " + history.size() + " payments");
+        Checks.check(history.size() >= PaymentLedger.HISTORY, "Ledger only kept " + history.size() + " payments");
+
+        PaymentLedger corrected = new PaymentLedger(500_00, 100_00);
+        corrected.record(25_00);
+        corrected.setPaid(50_00);
+        corrected.record(10_00);
+        Checks.checkEquals(60_00, corrected.paid(), "pence paid after a correction");
+        Checks.checkEquals(2, corrected.history().size(), "payments listed after a correction");
+    }
+}
@@ -0,0 +1,66 @@
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Runs the tests and exits with a non zero status if any of them fail.
+ * They are compiled together with the program's sources:
+ * <pre>
+ * javac -encoding UTF-8 -d out/test src/*.java test/*.java
+ * java -Xmx4g -cp out/test PoisedTests [names of the tests to run]
+ * </pre>
+ * TextProjectStoreTest loads a million projects, which is what needs the bigger heap
+ * (-Dpoised.test.projects sets a smaller folio).
+ *
+ * @author Calum Gilchrist
+ */
+public class PoisedTests {
+    /**
+     * A test, which fails by throwing.
+     */
+    interface Test {
+        void run() throws Exception;
+    }
+
+    public static void main(String[] args){
+        Map<String, Test> tests = new LinkedHashMap<>();
+        // Has to run first, the menu reads from System.in which can only be replaced before PoisedProgram is loaded
+        tests.put("MenuSoakTest", MenuSoakTest::run);
+        tests.put("ProjectRepositoryStressTest", ProjectRepositoryStressTest::run);
+        tests.put("PaymentLedgerTest", PaymentLedgerTest::run);
+        tests.put("LatencyHistogramTest", LatencyHistogramTest::run);
+        tests.put("GroupCommitterTest", GroupCommitterTest::run);
+        tests.put("TextProjectStoreTest", TextProjectStoreTest::run);
+        tests.put("CompactProjectStoreTest", CompactProjectStoreTest::run);
+        tests.put("MappedProjectStoreTest", MappedProjectStoreTest::run);
+        tests.put("ProjectSnapshotTest", ProjectSnapshotTest::run);
+        tests.put("ProjectReportTest", ProjectReportTest::run);
+        tests.put("ProjectSearchTest", ProjectSearchTest::run);
+        tests.put("RenderCacheTest", RenderCacheTest::run);
+        tests.put("JdbcProjectStoreTest", JdbcProjectStoreTest::run);
+        tests.put("BatchRunnerTest", BatchRunnerTest::run);
+        tests.put("ProjectServerTest", ProjectServerTest::run);
+
+        int failed = 0;
+        int run = 0;
+        for (Map.Entry<String, Test> test : tests.entrySet()){
+            if (args.length > 0 && !Arrays.asList(args).contains(test.getKey())){
+                continue;
+            }
+            run++;
+            long start = System.nanoTime();
+            try {
+                test.getValue().run();
+                System.out.printf("PASS %-30s %8.2f s%n", test.getKey(), (System.nanoTime() - start) / 1e9);
+            } catch (Throwable e) {
+                failed++;
+                System.out.printf("FAIL %-30s %s%n", test.getKey(), e);
+                e.printStackTrace();
+            }
+        }
+        System.out.println(run + " tests run, " + failed + " failed");
+        if (failed > 0){
+            System.exit(1);
+        }
+    }
+}
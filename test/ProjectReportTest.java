@@ -0,0 +1,154 @@
+import java.io.StringWriter;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Checks reports against the same filters worked out by hand over every project:
+ * indexed filters combined with checked ones, each sort, pages and aggregates that
+ * ignore the page, on a folio big enough for the aggregates to run in parallel.
+ * Then checks the exact CSV and JSON of a couple of projects, and that a page or
+ * size that makes no sense is refused.
+ *
+ * @author Calum Gilchrist
+ */
+class ProjectReportTest {
+    // Enough that the aggregates over every project take the parallel path
+    private static final int PROJECTS = ProjectReport.PARALLEL_THRESHOLD * 2 + 500;
+    private static final LocalDate TODAY = LocalDate.of(2030, 1, 1);
+
+    static void run() throws Exception {
+        filtersSortsAndPages();
+        formats();
+        badPages();
+    }
+
+    private static void filtersSortsAndPages(){
+        ProjectRepository repository = new ProjectRepository();
+        Person architect = new Person("Architect", "Report Architect", "0", "a@report", "Report");
+        Person customer = new Person("Customer", "Report Customer", "0", "u@report", "Report");
+        Person[] contractors = {
+                new Person("Contractor", "Amy Build", "0", "amy@report", "Report"),
+                new Person("Contractor", "Bob Build", "0", "bob@report", "Report"),
+                new Person("Contractor", "Cal Build", "0", "cal@report", "Report")};
+        List<Project> all = new ArrayList<>();
+        for (int jobNumber = 1; jobNumber <= PROJECTS; jobNumber++){
+            LocalDate deadline = jobNumber % 50 == 0 ? null : TODAY.plusDays(jobNumber % 20 - 10);
+            // Names run the other way to job numbers, and some projects are fully paid
+            String buildType = jobNumber % 2 == 0 ? "House" : "Shop";
+            double paid = jobNumber % 4 == 0 ? 1000 : jobNumber % 9;
+            Project project = new Project(jobNumber, "Report " + (PROJECTS - jobNumber), buildType, "Report Street",
+                    jobNumber, 1000 + jobNumber % 7, paid, deadline, architect, contractors[jobNumber % 3], customer,
+                    jobNumber % 5 == 0);
+            repository.add(project);
+            all.add(project);
+        }
+
+        // Indexed filters combined with one checked project by project
+        compare("overdue, Bob's houses",
+                new ProjectReport(repository).overdue(TODAY).contractor("bob  build").buildType("house"),
+                all, project -> !project.getCompleted() && project.getDeadline() != null
+                        && project.getDeadline().isBefore(TODAY) && project.getContractor() == contractors[1]
+                        && project.getBuildType().equals("House"), null);
+        compare("every project", new ProjectReport(repository), all, project -> true, null);
+        compare("unfinished by deadline", new ProjectReport(repository).unfinished().sortBy("deadline"),
+                all, project -> !project.getCompleted(), ProjectReport.BY_DEADLINE);
+        compare("by name", new ProjectReport(repository).sortBy("name"), all, project -> true, ProjectReport.BY_NAME);
+        compare("shops by outstanding", new ProjectReport(repository).filters("type=shop,sort=outstanding"),
+                all, project -> project.getBuildType().equals("Shop"), ProjectReport.BY_OUTSTANDING);
+
+        // A page of the rows, the aggregates still cover every matching project
+        ProjectReport paged = new ProjectReport(repository).filters("unfinished,sort=deadline,page=3,size=40");
+        List<Integer> expected = all.stream().filter(project -> !project.getCompleted())
+                .sorted(ProjectReport.BY_DEADLINE).skip(120).limit(40).map(Project::getJobNumber).toList();
+        Checks.checkEquals(expected, paged.stream().map(Project::getJobNumber).toList(), "rows on page 3");
+        Checks.checkEquals(all.stream().filter(project -> !project.getCompleted()).count(), paged.count(),
+                "count of a paged report");
+        ProjectReport pastTheEnd = new ProjectReport(repository).page(PROJECTS, 10);
+        Checks.checkEquals(0, pastTheEnd.stream().count(), "rows past the last page");
+        Checks.checkEquals(PROJECTS, pastTheEnd.count(), "count past the last page");
+
+        // Every project passes the filter, so the aggregates are worked out on several threads
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        ProjectReport parallel = new ProjectReport(repository).where(project -> {
+            threads.add(Thread.currentThread());
+            return true;
+        });
+        Checks.checkEquals(all.stream().mapToLong(project -> project.getLedger().outstanding()).sum(),
+                parallel.totalOutstanding(), "outstanding over every project");
+        if (Runtime.getRuntime().availableProcessors() > 1){
+            Checks.check(threads.size() > 1, "The aggregates over " + PROJECTS + " projects ran on one thread");
+        }
+    }
+
+    // Checks a report's rows and aggregates against working out its filter over every project
+    private static void compare(String name, ProjectReport report, List<Project> all, Predicate<Project> filter,
+                                Comparator<Project> order){
+        List<Project> matching = all.stream().filter(filter).collect(Collectors.toCollection(ArrayList::new));
+        if (order != null){
+            matching.sort(order);
+        }
+        Checks.check(!matching.isEmpty(), "Nothing matches " + name);
+        Checks.checkEquals(matching.stream().map(Project::getJobNumber).toList(),
+                report.stream().map(Project::getJobNumber).toList(), "rows of " + name);
+        Checks.checkEquals(matching.size(), report.count(), "count of " + name);
+        Checks.checkEquals(matching.stream().mapToLong(project -> project.getLedger().outstanding()).sum(),
+                report.totalOutstanding(), "outstanding on " + name);
+        Map<String, Long> byContractor = matching.stream().collect(Collectors.groupingBy(
+                project -> project.getContractor().getName(), TreeMap::new, Collectors.counting()));
+        Checks.checkEquals(byContractor, report.countByContractor(), "projects per contractor in " + name);
+    }
+
+    private static void formats() throws Exception {
+        ProjectRepository repository = new ProjectRepository();
+        Person architect = new Person("Architect", "Ann", "0", "a@report", "Report");
+        Person contractor = new Person("Contractor", "Bob \"The Builder\"", "0", "b@report", "Report");
+        Person customer = new Person("Customer", "Cat", "0", "c@report", "Report");
+        repository.add(new Project(1, "Home, Sweet", "House", "1 High Street", 11, 1000.5, 250.25,
+                LocalDate.of(2030, 3, 1), architect, contractor, customer, false));
+        repository.add(new Project(2, "Shop", "Shop", "2 High Street", 22, 100, 100, null,
+                architect, contractor, customer, true));
+
+        StringWriter csv = new StringWriter();
+        Checks.checkEquals(2, new ProjectReport(repository).write(ReportFormat.CSV, csv), "CSV rows");
+        Checks.checkEquals("job_number,job_name,build_type,address,erf_number,total_fee,total_paid,outstanding,"
+                + "deadline,architect,contractor,customer,completed\n"
+                + "1,\"Home, Sweet\",House,1 High Street,11,1000.50,250.25,750.25,01/03/2030,Ann,"
+                + "\"Bob \"\"The Builder\"\"\",Cat,false\n"
+                + "2,Shop,Shop,2 High Street,22,100.00,100.00,0.00,,Ann,\"Bob \"\"The Builder\"\"\",Cat,true\n",
+                csv.toString(), "CSV report");
+
+        StringWriter json = new StringWriter();
+        new ProjectReport(repository).unfinished().write(ReportFormat.JSON, json);
+        Checks.checkEquals("[\n{\"jobNumber\":1,\"jobName\":\"Home, Sweet\",\"buildType\":\"House\","
+                + "\"address\":\"1 High Street\",\"erfNumber\":11,\"totalFee\":1000.50,\"totalPaid\":250.25,"
+                + "\"outstanding\":750.25,\"deadline\":\"01/03/2030\",\"architect\":\"Ann\","
+                + "\"contractor\":\"Bob \\\"The Builder\\\"\",\"customer\":\"Cat\",\"completed\":false}\n]\n",
+                json.toString(), "JSON report");
+
+        StringWriter summary = new StringWriter();
+        new ProjectReport(repository).page(1, 1).writeSummary(summary);
+        Checks.checkEquals("Projects:           2\nAmount outstanding: £750.25\nProjects per contractor:\n"
+                + "  Bob \"The Builder\": 2\n", summary.toString(), "summary of a paged report");
+    }
+
+    private static void badPages(){
+        ProjectRepository repository = new ProjectRepository();
+        for (String filters : new String[] {"page=-1,size=10", "size=0", "size=-5", "page=2", "size=ten"}){
+            String message = null;
+            try {
+                new ProjectReport(repository).filters(filters);
+            } catch (IllegalArgumentException e) {
+                message = e.getMessage();
+            }
+            Checks.check(message != null && message.startsWith("Report "), "Filters " + filters + " gave " + message);
+        }
+    }
+}
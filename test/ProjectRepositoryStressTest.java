@@ -0,0 +1,251 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Has several threads add payments to, count up the ERF numbers of and change the
+ * deadlines of the same few projects at once while another thread keeps listing the
+ * overdue and unfinished projects, then fails if any payment or count was lost or any
+ * project isn't in the deadline index under its deadline. Then moves projects between
+ * people and deadlines and checks the name and deadline indexes. Then has threads finalise
+ * the same projects at once both in bulk and one at a time, the way batch mode and
+ * the server do, and fails unless every project was finalised exactly once.
+ *
+ * @author Calum Gilchrist
+ */
+class ProjectRepositoryStressTest {
+    // Projects in the repository, the changes all go to the first few so threads collide
+    private static final int PROJECTS = 1000;
+    private static final int HOT_PROJECTS = 32;
+    private static final int THREADS = Integer.getInteger("poised.test.threads", 4);
+    private static final int CHANGES = Integer.getInteger("poised.test.changes", 200_000);
+    // Projects finalised at once, enough that the threads are still finalising when they are switched
+    private static final int FINALISED = 50_000;
+    // Projects moved between a few contractors and deadlines
+    private static final int MOVED = 20_000;
+
+    static void run() throws InterruptedException {
+        changeTogether();
+        moveBetweenIndexes();
+        finaliseOnce();
+    }
+
+    private static void changeTogether() throws InterruptedException {
+        ProjectRepository repository = new ProjectRepository();
+        Person architect = new Person("Architect", "Stress Architect", "0", "a@stress", "Stress");
+        Person contractor = new Person("Contractor", "Stress Contractor", "0", "c@stress", "Stress");
+        Person customer = new Person("Customer", "Stress Customer", "0", "u@stress", "Stress");
+        LocalDate today = LocalDate.now();
+        for (int i = 1; i <= PROJECTS; i++){
+            repository.add(new Project(i, "Stress " + i, "house", "Stress", 0, 1_000_000, 0,
+                    today.plusDays(i % 60 - 30), architect, contractor, customer, i % 3 == 0));
+        }
+        AtomicBoolean running = new AtomicBoolean(true);
+        long[] reads = new long[1];
+        Thread reader = new Thread(() -> {
+            while (running.get()){
+                reads[0] += repository.overdue(today).size() + repository.unfinishedCount();
+            }
+        });
+        long[] payments = new long[THREADS];
+        long[] counts = new long[THREADS];
+        Throwable[] failures = new Throwable[THREADS];
+        Thread[] workers = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++){
+            int worker = t;
+            workers[t] = new Thread(() -> {
+                Random random = new Random(worker);
+                try {
+                    for (int i = 0; i < CHANGES; i++){
+                        int jobNumber = 1 + random.nextInt(HOT_PROJECTS);
+                        if (i % 3 == 0){
+                            repository.find(jobNumber).getLedger().record(100);
+                            payments[worker]++;
+                        }
+                        else if (i % 3 == 1){
+                            // Reads then writes the ERF number, which is only safe under the project's lock
+                            repository.update(jobNumber, project -> project.setErfNumber(project.getErfNumber() + 1));
+                            counts[worker]++;
+                        }
+                        else {
+                            repository.find(jobNumber).setDeadline(today.plusDays(random.nextInt(120) - 60));
+                        }
+                    }
+                } catch (Throwable e) {
+                    failures[worker] = e;
+                }
+            });
+        }
+        reader.start();
+        long start = System.nanoTime();
+        for (Thread worker : workers){
+            worker.start();
+        }
+        for (Thread worker : workers){
+            worker.join();
+        }
+        running.set(false);
+        reader.join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("  %d threads: %,.0f changes/s, %,d projects read%n", THREADS,
+                THREADS * (double) CHANGES / seconds, reads[0]);
+        for (Throwable failure : failures){
+            Checks.check(failure == null, "Change failed: " + failure);
+        }
+
+        long expected = 0;
+        long expectedCount = 0;
+        for (int t = 0; t < THREADS; t++){
+            expected += payments[t];
+            expectedCount += counts[t];
+        }
+        long paid = 0;
+        long counted = 0;
+        for (Project project : repository.all()){
+            paid += (long) project.getTotalPaid();
+            counted += project.getErfNumber();
+            LocalDate deadline = project.getDeadline();
+            Checks.check(repository.select(repository.deadlineBetween(deadline, deadline)).contains(project),
+                    "Project " + project.getJobNumber() + " isn't in the deadline index under " + deadline);
+        }
+        Checks.checkEquals(expected, paid, "pounds paid to the projects");
+        Checks.checkEquals(expectedCount, counted, "ERF numbers counted up");
+        Checks.checkEquals(PROJECTS, repository.deadlineBetween(LocalDate.MIN, LocalDate.MAX).cardinality(),
+                "projects in the deadline index");
+    }
+
+    /**
+     * Keeps moving projects between a few contractors and deadlines, so the lists in the
+     * name and deadline indexes are long and have slots taken out of their middles, then
+     * checks each list holds exactly the projects it should.
+     */
+    private static void moveBetweenIndexes(){
+        ProjectRepository repository = new ProjectRepository();
+        Person architect = new Person("Architect", "Index Architect", "0", "a@index", "Index");
+        Person customer = new Person("Customer", "Index Customer", "0", "u@index", "Index");
+        Person[] contractors = new Person[3];
+        for (int i = 0; i < contractors.length; i++){
+            contractors[i] = new Person("Contractor", "Index Contractor " + i, "0", "c@index", "Index");
+        }
+        LocalDate today = LocalDate.now();
+        int days = 50;
+        for (int i = 1; i <= MOVED; i++){
+            repository.add(new Project(i, "Index " + i, "house", "Index", 0, 1000, 0, today.plusDays(i % days),
+                    architect, contractors[i % contractors.length], customer, false));
+        }
+        Random random = new Random(18);
+        for (int i = 0; i < CHANGES; i++){
+            Project project = repository.find(1 + random.nextInt(MOVED));
+            if (i % 2 == 0){
+                project.setContractor(contractors[random.nextInt(contractors.length)]);
+            }
+            else {
+                project.setDeadline(today.plusDays(random.nextInt(days)));
+            }
+        }
+        for (Person contractor : contractors){
+            List<Project> expected = new ArrayList<>();
+            for (Project project : repository.all()){
+                if (project.getContractor() == contractor){
+                    expected.add(project);
+                }
+            }
+            Checks.checkEquals(expected, repository.withPerson("Contractor", contractor.getName()),
+                    "projects of " + contractor.getName());
+        }
+        int indexed = 0;
+        for (int day = 0; day < days; day++){
+            LocalDate deadline = today.plusDays(day);
+            List<Project> due = repository.select(repository.deadlineBetween(deadline, deadline));
+            for (Project project : due){
+                Checks.checkEquals(deadline, project.getDeadline(), "deadline of project " + project.getJobNumber());
+            }
+            indexed += due.size();
+        }
+        Checks.checkEquals(MOVED, indexed, "projects in the deadline index");
+    }
+
+    /**
+     * Half the threads finalise every project in bulk, as batch mode does, and half
+     * finalise them one at a time under the project's lock, as the server does.
+     * Invoices are counted by a store that only counts them.
+     */
+    private static void finaliseOnce() throws InterruptedException {
+        ConcurrentHashMap<Integer, AtomicInteger> invoices = new ConcurrentHashMap<>();
+        ProjectStore counting = new ProjectStore() {
+            @Override
+            public void load(PersonRegistry people, ProjectRepository projects){
+            }
+
+            @Override
+            public void save(Iterable<Person> changedPeople, Iterable<Project> changedProjects){
+            }
+
+            @Override
+            public void saveCompleted(Project project, LocalDate date){
+                invoices.computeIfAbsent(project.getJobNumber(), job -> new AtomicInteger()).incrementAndGet();
+            }
+
+            @Override
+            public void close(){
+            }
+        };
+        ProjectStore saved = PoisedProgram.store;
+        PoisedProgram.store = counting;
+        Person architect = new Person("Architect", "Final Architect", "0", "a@final", "Final");
+        Person contractor = new Person("Contractor", "Final Contractor", "0", "c@final", "Final");
+        Person customer = new Person("Customer", "Final Customer", "0", "u@final", "Final");
+        // Job numbers clear of any the other tests put in the program's repository
+        int first = 1_000_000_000;
+        List<Integer> jobNumbers = new ArrayList<>();
+        for (int i = 0; i < FINALISED; i++){
+            jobNumbers.add(first + i);
+            PoisedProgram.projects.add(new Project(first + i, "Final " + i, "house", "Final", i, 1000, 1000,
+                    LocalDate.now(), architect, contractor, customer, false));
+        }
+        Throwable[] failures = new Throwable[THREADS];
+        Thread[] workers = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++){
+            int worker = t;
+            workers[t] = new Thread(() -> {
+                try {
+                    if (worker % 2 == 0){
+                        PoisedProgram.finaliseAll(jobNumbers, LocalDate.now(), null);
+                    }
+                    else {
+                        for (int jobNumber : jobNumbers){
+                            PoisedProgram.projects.update(jobNumber, project -> {
+                                if (!project.getCompleted()){
+                                    PoisedProgram.finalise(project, LocalDate.now());
+                                }
+                            });
+                        }
+                    }
+                } catch (Throwable e) {
+                    failures[worker] = e;
+                }
+            });
+        }
+        try {
+            for (Thread worker : workers){
+                worker.start();
+            }
+            for (Thread worker : workers){
+                worker.join();
+            }
+        } finally {
+            PoisedProgram.store = saved;
+        }
+        for (Throwable failure : failures){
+            Checks.check(failure == null, "Finalising failed: " + failure);
+        }
+        for (int jobNumber : jobNumbers){
+            AtomicInteger written = invoices.get(jobNumber);
+            Checks.checkEquals(1, written == null ? 0 : written.get(), "invoices for project " + jobNumber);
+        }
+    }
+}
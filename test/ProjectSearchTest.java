@@ -0,0 +1,88 @@
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Searches a few projects by the start of their words and with typos, including
+ * every swap of two neighbouring letters, then adds and renames projects and checks
+ * the index follows: the new words are found straight away and the old ones aren't.
+ *
+ * @author Calum Gilchrist
+ */
+class ProjectSearchTest {
+    private static final String[] SWAPPED_WORDS = {"road", "lane", "carmichael", "irvine", "globe"};
+
+    static void run(){
+        ProjectRepository repository = new ProjectRepository();
+        Person architect = new Person("Architect", "Search Architect", "0", "a@search", "Search");
+        Person contractor = new Person("Contractor", "Search Contractor", "0", "c@search", "Search");
+        Person customer = new Person("Customer", "Search Customer", "0", "u@search", "Search");
+        LocalDate deadline = LocalDate.of(2030, 1, 1);
+        repository.add(new Project(1, "New Home", "House", "12 Road Lane, Irvine", 836, 1000, 0, deadline,
+                architect, contractor, customer, false));
+        repository.add(new Project(2, "Extension", "Bungalow", "27 Carmichael Place, Irvine", 4512, 1000, 0, deadline,
+                architect, contractor, customer, false));
+        repository.add(new Project(3, "Renovation", "Shop", "3 Globe Place, Troon", 55555, 1000, 0, deadline,
+                architect, contractor, customer, false));
+
+        // The start of a word, any case, in any field
+        found(repository, "carm pl", 2);
+        found(repository, "IRV", 1, 2);
+        found(repository, "place", 2, 3);
+        found(repository, "45", 2);
+        found(repository, "bung irvine", 2);
+        found(repository, "road troon", new int[0]);
+
+        // A typo or two when nothing starts with the word
+        found(repository, "raod", 1);
+        found(repository, "lnae", 1);
+        found(repository, "12 raod lnae", 1);
+        found(repository, "carmicheal", 2);
+        found(repository, "karmichael", 2);
+        found(repository, "glboe", 3);
+        found(repository, "rpad", 1);
+        found(repository, "renovtion", 3);
+        // Too far from any word, short words only allow one typo
+        found(repository, "xyzzy", new int[0]);
+        found(repository, "qxzd", new int[0]);
+        for (String word : SWAPPED_WORDS){
+            // Swapping any two neighbouring letters still finds the projects the word does
+            int[] expected = repository.search(word).stream().mapToInt(Project::getJobNumber).toArray();
+            Checks.check(expected.length > 0, "Nothing has the word " + word);
+            for (int i = 0; i + 1 < word.length(); i++){
+                char[] letters = word.toCharArray();
+                letters[i] = word.charAt(i + 1);
+                letters[i + 1] = word.charAt(i);
+                found(repository, new String(letters), expected);
+            }
+        }
+        Checks.checkEquals(1, ProjectSearch.distance("road", "raod", 2), "distance of a swap");
+        Checks.checkEquals(3, ProjectSearch.distance("road", "lane", 2), "distance over the limit");
+
+        // Projects added and changed after the index was built
+        repository.add(new Project(4, "Barn Conversion", "Barn", "1 Maxwood Place, Ayr", 9001, 1000, 0, deadline,
+                architect, contractor, customer, false));
+        found(repository, "maxwood", 4);
+        found(repository, "conversoin", 4);
+        repository.find(4).setJobName("Stable Conversion");
+        found(repository, "stable", 4);
+        found(repository, "barn conv", 4);
+        repository.find(4).setBuildType("Stable");
+        found(repository, "barn", new int[0]);
+        repository.find(1).setPhysicalAddress("5 Quarry Row, Kilwinning");
+        found(repository, "quarry", 1);
+        found(repository, "kilwinnign", 1);
+        found(repository, "lane", new int[0]);
+        found(repository, "raod", new int[0]);
+        found(repository, "irvine", 2);
+        repository.find(3).setErfNumber(1234);
+        found(repository, "123", 3);
+        found(repository, "55555", new int[0]);
+    }
+
+    // Checks a search finds exactly the given projects
+    private static void found(ProjectRepository repository, String query, int... jobNumbers){
+        List<Integer> found = repository.search(query).stream().map(Project::getJobNumber).toList();
+        Checks.checkEquals(Arrays.stream(jobNumbers).boxed().toList(), found, "projects found by " + query);
+    }
+}
@@ -0,0 +1,167 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Serves a few projects, one of which can't be written out, and checks every
+ * failure gets a reply that says so: a 400 for a bad filter, a 500 when a project
+ * fails before anything is sent, and a listing that fails part way through is cut
+ * short rather than ending as if it were complete. Then adds a project and changes
+ * it through each endpoint, checking the replies, the project and what was saved,
+ * and that bad payments, duplicates and a second finalise are refused.
+ *
+ * @author Calum Gilchrist
+ */
+class ProjectServerTest {
+
+    static void run() throws IOException, InterruptedException {
+        List<Integer> savedJobs = new ArrayList<>();
+        List<Integer> invoices = new ArrayList<>();
+        ProjectStore recording = new ProjectStore() {
+            @Override
+            public void load(PersonRegistry people, ProjectRepository projects){
+            }
+
+            @Override
+            public synchronized void save(Iterable<Person> changedPeople, Iterable<Project> changedProjects){
+                for (Project project : changedProjects){
+                    savedJobs.add(project.getJobNumber());
+                }
+            }
+
+            @Override
+            public synchronized void saveCompleted(Project project, LocalDate date){
+                invoices.add(project.getJobNumber());
+            }
+
+            @Override
+            public void close(){
+            }
+        };
+        ProjectRepository saved = PoisedProgram.projects;
+        PersonRegistry savedPeople = PoisedProgram.people;
+        ProjectStore savedStore = PoisedProgram.store;
+        ProjectRepository projects = new ProjectRepository(PoisedProgram.changes);
+        Person architect = new Person("Architect", "Server Architect", "0", "a@server", "Server");
+        Person contractor = new Person("Contractor", "Server Contractor", "0", "c@server", "Server");
+        Person customer = new Person("Customer", "Server Customer", "0", "u@server", "Server");
+        for (int jobNumber = 1; jobNumber <= 3; jobNumber++){
+            projects.add(new Project(jobNumber, "Server " + jobNumber, "house", "Server", 0, 1000, 0,
+                    LocalDate.now(), architect, contractor, customer, false));
+        }
+        // Without an architect the project can't be written as JSON, so writing it fails
+        projects.add(new Project(4, "Broken", "house", "Server", 0, 1000, 0, LocalDate.now(),
+                null, contractor, customer, false));
+        PoisedProgram.projects = projects;
+        PoisedProgram.people = new PersonRegistry(PoisedProgram.changes, projects);
+        PoisedProgram.store = recording;
+        ProjectServer server = new ProjectServer(0);
+        try {
+            String base = "http://localhost:" + server.getPort() + "/projects";
+            HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+            HttpResponse<String> found = get(client, base + "/1");
+            Checks.checkEquals(200, found.statusCode(), "status of a project");
+
+            HttpResponse<String> badFilter = get(client, base + "?filters=colour=red");
+            Checks.checkEquals(400, badFilter.statusCode(), "status of an unknown filter");
+            Checks.check(badFilter.body().startsWith("{\"error\":"), "No error in " + badFilter.body());
+
+            HttpResponse<String> broken = get(client, base + "/4");
+            Checks.checkEquals(500, broken.statusCode(), "status of a project that can't be written");
+            Checks.checkEquals("{\"error\":\"Internal error\"}\n", broken.body(), "reply to a failed request");
+
+            boolean cutShort;
+            try {
+                HttpResponse<String> listing = get(client, base);
+                cutShort = false;
+                System.out.println("  listing ended with " + listing.statusCode() + ": " + listing.body());
+            } catch (IOException e) {
+                cutShort = true;
+            }
+            Checks.check(cutShort, "A listing that failed part way through ended as if it were complete");
+
+            // The server is still answering after the failures
+            Checks.checkEquals(200, get(client, base + "/2").statusCode(), "status after the failures");
+
+            changes(client, base, "http://localhost:" + server.getPort() + "/contractors", contractor);
+            Checks.check(savedJobs.contains(10), "The added project wasn't saved, saved " + savedJobs);
+            Checks.checkEquals(List.of(10), invoices, "projects invoiced");
+        } finally {
+            server.stop();
+            PoisedProgram.projects = saved;
+            PoisedProgram.people = savedPeople;
+            PoisedProgram.store = savedStore;
+        }
+    }
+
+    // Adds project 10 and changes it through each endpoint that changes something
+    private static void changes(HttpClient client, String base, String contractors, Person contractor)
+            throws IOException, InterruptedException {
+        String newJob = "{\"jobNumber\":10,\"jobName\":\"Server Shop\",\"buildType\":\"Shop\","
+                + "\"address\":\"10 Server Street\",\"erfNumber\":1010,\"totalFee\":5000,\"deadline\":\"01/06/2031\","
+                + "\"architect\":" + person("Ann Server") + ",\"contractor\":" + person("Bob Server")
+                + ",\"customer\":" + person("Cat Server") + "}";
+        HttpResponse<String> added = send(client, "POST", base, newJob);
+        Checks.checkEquals(201, added.statusCode(), "status of an added project");
+        Checks.check(added.body().contains("\"jobName\":\"Server Shop\""), "Added " + added.body());
+        Project project = PoisedProgram.projects.find(10);
+        Checks.checkEquals("Bob Server", project.getContractor().getName(), "contractor of the added project");
+        Checks.checkEquals(409, send(client, "POST", base, newJob).statusCode(), "status of a duplicate project");
+        Checks.checkEquals(400, send(client, "POST", base, "{\"jobNumber\":11}").statusCode(),
+                "status of a project missing its details");
+
+        HttpResponse<String> deadline = send(client, "PUT", base + "/10/deadline", "{\"deadline\":\"31/12/2031\"}");
+        Checks.checkEquals(200, deadline.statusCode(), "status of a new deadline");
+        Checks.checkEquals(LocalDate.of(2031, 12, 31), project.getDeadline(), "new deadline");
+        Checks.checkEquals(400, send(client, "PUT", base + "/10/deadline", "{\"deadline\":\"2031-12-31\"}")
+                .statusCode(), "status of a deadline that isn't dd/mm/yyyy");
+        Checks.checkEquals(404, send(client, "PUT", base + "/99/deadline", "{\"deadline\":\"31/12/2031\"}")
+                .statusCode(), "status of a deadline for an unknown project");
+
+        HttpResponse<String> paid = send(client, "POST", base + "/10/payments", "{\"amount\":1500.25}");
+        Checks.checkEquals(200, paid.statusCode(), "status of a payment");
+        Checks.check(paid.body().contains("\"totalPaid\":1500.25"), "Paid " + paid.body());
+        for (String amount : new String[] {"-10", "1e400", "-1e400", "1e17", "\"ten\""}){
+            HttpResponse<String> refused = send(client, "POST", base + "/10/payments", "{\"amount\":" + amount + "}");
+            Checks.checkEquals(400, refused.statusCode(), "status of a payment of " + amount);
+        }
+        Checks.checkEquals(150025, project.getLedger().paid(), "paid in pence after the refused payments");
+
+        HttpResponse<String> finalised = send(client, "POST", base + "/10/finalise", "");
+        Checks.checkEquals(200, finalised.statusCode(), "status of finalising");
+        Checks.check(finalised.body().contains("\"amountOwed\":3499.75"), "Finalised " + finalised.body());
+        Checks.check(project.getCompleted(), "Project 10 was not finalised");
+        Checks.checkEquals(409, send(client, "POST", base + "/10/finalise", "").statusCode(),
+                "status of finalising again");
+
+        String details = "{\"phoneNumber\":\"0999\",\"emailAddress\":\"new@server\",\"physicalAddress\":\"New\"}";
+        HttpResponse<String> updated = send(client, "PUT", contractors + "/Server%20Contractor", details);
+        Checks.checkEquals(200, updated.statusCode(), "status of new contractor details");
+        Checks.checkEquals("0999", contractor.getPhoneNumber(), "contractor's new phone number");
+        Checks.checkEquals("new@server", contractor.getEmailAddress(), "contractor's new email address");
+        Checks.checkEquals(404, send(client, "PUT", contractors + "/Nobody", details).statusCode(),
+                "status of an unknown contractor");
+    }
+
+    private static String person(String name){
+        return "{\"name\":\"" + name + "\",\"phoneNumber\":\"0\",\"emailAddress\":\"x@server\","
+                + "\"physicalAddress\":\"Server\"}";
+    }
+
+    private static HttpResponse<String> send(HttpClient client, String method, String uri, String body)
+            throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(uri))
+                .method(method, HttpRequest.BodyPublishers.ofString(body)).build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static HttpResponse<String> get(HttpClient client, String uri) throws IOException, InterruptedException {
+        return client.send(HttpRequest.newBuilder(URI.create(uri)).GET().build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,63 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts a projects file to a binary snapshot and back and checks the text comes
+ * back byte for byte, including amounts with pence and a project without a deadline,
+ * and that a snapshot naming a person it doesn't hold is refused when it is loaded.
+ *
+ * @author Calum Gilchrist
+ */
+class ProjectSnapshotTest {
+
+    static void run() throws IOException {
+        Path directory = Files.createTempDirectory("poisedSnapshot");
+        try {
+            Path text = directory.resolve("projects.txt");
+            ProjectDataGenerator.generate(2000, text, 4);
+            PersonRegistry people = new PersonRegistry();
+            List<Project> projects = new ArrayList<>(ProjectFileLoader.load(text, people));
+            Project first = projects.get(0);
+            // Amounts that aren't whole pounds, and no deadline
+            projects.add(new Project(5000, "Pence", "flat", "1 Penny Lane", 3, 1234.56, 0.07, null,
+                    first.getArchitect(), first.getContractor(), first.getCustomer(), false));
+
+            Path exported = directory.resolve("exported.txt");
+            ProjectSnapshot.exportText(people.all(), projects, exported);
+            Path binary = directory.resolve("projects.bin");
+            ProjectSnapshot.save(people.all(), projects, binary);
+            PersonRegistry loadedPeople = new PersonRegistry();
+            List<Project> loaded = ProjectSnapshot.load(binary, loadedPeople);
+            Path converted = directory.resolve("converted.txt");
+            ProjectSnapshot.exportText(loadedPeople.all(), loaded, converted);
+            Checks.checkEquals(projects.size(), loaded.size(), "projects loaded from the snapshot");
+            Checks.check(Files.mismatch(exported, converted) == -1, "Text converted back from the snapshot differs");
+            Project pence = loaded.get(loaded.size() - 1);
+            Checks.checkEquals(123456, pence.getLedger().fee(), "fee in pence");
+            Checks.checkEquals(7, pence.getLedger().paid(), "paid in pence");
+            Checks.checkEquals(null, pence.getDeadline(), "deadline");
+
+            // The customer isn't in the person table, so the snapshot can't be loaded
+            Person stranger = new Person("Customer", "Stranger", "0", "s@example.com", "Nowhere");
+            stranger.setId(999_999);
+            List<Project> orphaned = List.of(new Project(1, "Orphan", "house", "Nowhere", 1, 1, 0, LocalDate.now(),
+                    first.getArchitect(), first.getContractor(), stranger, false));
+            Path bad = directory.resolve("bad.bin");
+            ProjectSnapshot.save(people.all(), orphaned, bad);
+            boolean refused;
+            try {
+                ProjectSnapshot.load(bad, new PersonRegistry());
+                refused = false;
+            } catch (IOException e) {
+                refused = true;
+            }
+            Checks.check(refused, "Snapshot with an unknown person id was loaded");
+        } finally {
+            Checks.delete(directory);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+import java.time.LocalDate;
+
+/**
+ * Checks the render cache only keeps a project the second time it is rendered,
+ * then hands back the same text until the project or one of its people changes,
+ * and drops the least recently used entries once it holds more characters than
+ * its capacity.
+ *
+ * @author Calum Gilchrist
+ */
+class RenderCacheTest {
+    private static final LocalDate COMPLETED = LocalDate.of(2031, 6, 1);
+
+    static void run(){
+        Person architect = new Person("Architect", "Ann Render", "0123", "ann@render", "1 Render Street");
+        Person contractor = new Person("Contractor", "Bob Render", "0456", "bob@render", "2 Render Street");
+        Person customer = new Person("Customer", "Cat Render", "0789", "cat@render", "3 Render Street");
+        Project[] projects = new Project[4];
+        for (int i = 0; i < projects.length; i++){
+            // Names of the same length, so every project renders to the same number of characters
+            projects[i] = new Project(i + 1, "Render Job " + i, "House", "1" + i + " High Street", 100 + i, 1000, 0,
+                    LocalDate.of(2030, 1, 1), architect, contractor, customer, false);
+        }
+        hitsAndChanges(projects[0], contractor);
+        leastRecentlyUsed(projects);
+    }
+
+    private static void hitsAndChanges(Project project, Person contractor){
+        RenderCache cache = new RenderCache(RenderCache.DEFAULT_CAPACITY);
+        long hits = Metrics.RENDER_CACHE_HITS.sum();
+        long misses = Metrics.RENDER_CACHE_MISSES.sum();
+
+        // Rendered once it is only remembered as seen, the second time it is kept
+        String first = cache.display(project);
+        Checks.checkEquals(0, cache.count(), "entries after the first render");
+        String second = cache.display(project);
+        Checks.checkEquals(first, second, "text rendered again");
+        Checks.checkEquals(1, cache.count(), "entries after the second render");
+        Checks.checkEquals(second.length(), cache.size(), "characters held");
+        Checks.check(cache.display(project) == second, "A hit rendered the project again");
+        Checks.checkEquals(1, Metrics.RENDER_CACHE_HITS.sum() - hits, "hits");
+        Checks.checkEquals(2, Metrics.RENDER_CACHE_MISSES.sum() - misses, "misses");
+
+        // A change to the project is picked up from its version, and the new text replaces the old straight away
+        project.setErfNumber(999);
+        String changed = cache.display(project);
+        Checks.check(changed.contains("ERF Number:      999"), "Old ERF number displayed: " + changed);
+        Checks.check(cache.display(project) == changed, "The changed project wasn't kept");
+        Checks.checkEquals(1, cache.count(), "entries after the project changed");
+
+        // So is a change to one of its people, here shown in the invoice
+        cache.completed(project, COMPLETED);
+        String invoice = cache.completed(project, COMPLETED);
+        Checks.check(invoice.contains("0456"), "Contractor's phone number not in the invoice: " + invoice);
+        Checks.check(cache.completed(project, COMPLETED) == invoice, "The invoice wasn't kept");
+        Checks.checkEquals(2, cache.count(), "entries with the invoice");
+        contractor.setPhoneNumber("0999");
+        String reissued = cache.completed(project, COMPLETED);
+        Checks.check(reissued.contains("0999") && !reissued.contains("0456"), "Old phone number in " + reissued);
+        Checks.check(cache.display(project) != changed, "The display wasn't rendered again for the new contractor");
+
+        cache.setCapacity(0);
+        Checks.checkEquals(0, cache.count(), "entries with no capacity");
+        Checks.checkEquals(0, cache.size(), "characters with no capacity");
+    }
+
+    private static void leastRecentlyUsed(Project[] projects){
+        int length = projects[0].toString().length();
+        // Room for three projects but not four
+        RenderCache cache = new RenderCache(length * 3L + length / 2);
+        long evictions = Metrics.RENDER_CACHE_EVICTIONS.sum();
+        String[] kept = new String[3];
+        for (int i = 0; i < 3; i++){
+            cache.display(projects[i]);
+            kept[i] = cache.display(projects[i]);
+        }
+        Checks.checkEquals(3, cache.count(), "entries with room for three");
+        Checks.checkEquals(length * 3L, cache.size(), "characters of three projects");
+        // The first project is used again, leaving the second as the least recently used
+        Checks.check(cache.display(projects[0]) == kept[0], "The first project wasn't kept");
+        cache.display(projects[3]);
+        cache.display(projects[3]);
+        Checks.checkEquals(3, cache.count(), "entries after a fourth project");
+        Checks.checkEquals(length * 3L, cache.size(), "characters after a fourth project");
+        Checks.checkEquals(1, Metrics.RENDER_CACHE_EVICTIONS.sum() - evictions, "evictions");
+        Checks.check(cache.display(projects[0]) == kept[0], "The first project was dropped");
+        Checks.check(cache.display(projects[2]) == kept[2], "The third project was dropped");
+        Checks.check(cache.display(projects[1]) != kept[1], "The least recently used project was kept");
+    }
+}
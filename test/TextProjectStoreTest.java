@@ -0,0 +1,146 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Changes one field of one project in a large folio and checks saving it writes a
+ * single record to the journal, not the folio, that exiting folds the journal into
+ * the projects file, and that the change is there when the store is opened again.
+ * Also checks a file in the older format is rewritten in the current one on exit,
+ * and that folding the journal in the background keeps the people before the projects.
+ *
+ * @author Calum Gilchrist
+ */
+class TextProjectStoreTest {
+    private static final int PROJECTS = Integer.getInteger("poised.test.projects", 1_000_000);
+    // Lines of a projects file from before the people were saved separately
+    private static final String[] LEGACY_LINES = {
+            "12|New Home|house|27 Carmichael Place, Irvine|237|215000.0|104000.0|25/12/2025|Architect|Calum Gilchrist"
+                    + "|07772541875|calum@gilchrist.com|My house, Irvine|Contractor|James Anderson|01294 237624"
+                    + "|jamesa@builder.co.uk|Kilmarnock|Customer|Mrs Smith|01294 876543|smith@btinternet.com"
+                    + "|83 Fintry Place, Kilwinning|true",
+            "13|Renovation|flat|14 Globe Place, Irvine|836|321000.0|97000.0|27/04/2025|Architect|Calum Gilchrist"
+                    + "|07772541875|calum@gilchrist.com|My house, Irvine|Contractor|Irvine Builders|01294 764938"
+                    + "|builders@irvine.co.uk|Irvine|Customer|Mr Munro|01294 2746453|mikemunro@btinternet.com"
+                    + "|Whitehirst Park, Kilwinning|false"
+    };
+
+    static void run() throws IOException {
+        oneFieldEdit();
+        legacyFileRewrittenOnExit();
+        journalFoldedInOrder();
+    }
+
+    private static void oneFieldEdit() throws IOException {
+        Path directory = Files.createTempDirectory("poisedTextStore");
+        Path file = directory.resolve("projects.txt");
+        Path journal = directory.resolve("projects.txt.journal");
+        try {
+            ProjectDataGenerator.generate(PROJECTS, file, 42);
+            long fileSize = Files.size(file);
+            ChangeSet changes = new ChangeSet();
+            ProjectRepository repository = new ProjectRepository(changes);
+            PersonRegistry people = new PersonRegistry(changes, repository);
+            TextProjectStore store = new TextProjectStore(file);
+            store.load(people, repository);
+            Checks.checkEquals(PROJECTS, repository.size(), "projects loaded");
+
+            int jobNumber = PROJECTS / 2;
+            repository.find(jobNumber).setErfNumber(1);
+            List<Person> changedPeople = changes.drainPeople();
+            List<Project> changedProjects = changes.drainProjects();
+            Checks.checkEquals(1, changedPeople.size() + changedProjects.size(), "records changed");
+            store.save(changedPeople, changedProjects);
+            List<String> written = Files.readAllLines(journal);
+            Checks.checkEquals(1, written.size(), "records written to the journal");
+            Checks.checkEquals(repository.find(jobNumber).toFile(), written.get(0), "record written");
+            Checks.checkEquals(fileSize, Files.size(file), "size of the projects file");
+            store.checkpoint(people, repository);
+            store.close();
+            Checks.check(!Files.exists(journal), "Journal left behind after exiting");
+
+            ProjectRepository reopened = new ProjectRepository();
+            TextProjectStore again = new TextProjectStore(file);
+            again.load(new PersonRegistry(new ChangeSet(), reopened), reopened);
+            again.close();
+            Checks.checkEquals(1, reopened.find(jobNumber).getErfNumber(), "ERF number after opening again");
+        } finally {
+            Checks.delete(directory);
+        }
+    }
+
+    private static void legacyFileRewrittenOnExit() throws IOException {
+        Path directory = Files.createTempDirectory("poisedLegacyStore");
+        Path file = directory.resolve("projects.txt");
+        try {
+            Files.write(file, List.of(LEGACY_LINES));
+            ChangeSet changes = new ChangeSet();
+            ProjectRepository repository = new ProjectRepository(changes);
+            PersonRegistry people = new PersonRegistry(changes, repository);
+            TextProjectStore store = new TextProjectStore(file);
+            store.load(people, repository);
+            // The people only in the older lines have to be saved as people of their own
+            Checks.check(GroupCommitter.save(store, changes) == null, "Saving the people from the older format failed");
+            store.checkpoint(people, repository);
+            store.close();
+            Checks.check(!Files.exists(directory.resolve("projects.txt.journal")), "Journal left behind after exiting");
+
+            List<String> lines = Files.readAllLines(file);
+            Checks.checkEquals(people.size() + LEGACY_LINES.length, lines.size(), "lines in the rewritten file");
+            for (String line : lines){
+                Checks.check(ProjectJournal.isPerson(line) || line.split("\\|", -1).length == 12,
+                        "Line not in the current format: " + line);
+            }
+            ProjectRepository reopened = new ProjectRepository();
+            TextProjectStore again = new TextProjectStore(file);
+            again.load(new PersonRegistry(new ChangeSet(), reopened), reopened);
+            again.close();
+            for (Project project : repository.all()){
+                Checks.checkEquals(project.toFile(), reopened.find(project.getJobNumber()).toFile(),
+                        "project " + project.getJobNumber() + " after opening again");
+            }
+        } finally {
+            Checks.delete(directory);
+        }
+    }
+
+    private static void journalFoldedInOrder() throws IOException {
+        Path directory = Files.createTempDirectory("poisedJournalFold");
+        Path file = directory.resolve("projects.txt");
+        try {
+            ProjectDataGenerator.generate(1000, file, 7);
+            List<String> before = Files.readAllLines(file);
+            int firstProject = 0;
+            while (ProjectJournal.isPerson(before.get(firstProject))){
+                firstProject++;
+            }
+            ProjectRepository repository = new ProjectRepository();
+            PersonRegistry people = new PersonRegistry(new ChangeSet(), repository);
+            TextProjectStore store = new TextProjectStore(file);
+            store.load(people, repository);
+            store.close();
+
+            Project changed = repository.find(500);
+            changed.setErfNumber(1);
+            Person newcomer = people.register("Customer", "New Customer", "01294 000000", "new@example.com", "Irvine");
+            Project added = new Project(1001, "New Build", "house", "1 New Street", 2, 1000, 0, null,
+                    changed.getArchitect(), changed.getContractor(), newcomer, false);
+            ProjectJournal journal = new ProjectJournal(file.toString());
+            journal.append(changed);
+            journal.append(newcomer);
+            journal.append(added);
+            journal.compactInBackground();
+            journal.close();
+            Checks.check(!Files.exists(directory.resolve("projects.txt.journal.compacting")), "Journal wasn't folded");
+
+            List<String> after = Files.readAllLines(file);
+            Checks.checkEquals(before.size() + 2, after.size(), "lines after folding");
+            Checks.checkEquals(newcomer.toFile(), after.get(firstProject), "person added before the projects");
+            Checks.checkEquals(changed.toFile(), after.get(firstProject + 500), "changed project kept in its place");
+            Checks.checkEquals(added.toFile(), after.get(after.size() - 1), "project added at the end");
+        } finally {
+            Checks.delete(directory);
+        }
+    }
+}